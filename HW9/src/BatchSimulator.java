@@ -0,0 +1,293 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import tester.*;
+
+// represents a way of playing Minesweeper without a screen, choosing which cell of a
+// packed board to reveal next
+interface Player {
+  // the index of the next cell to reveal, or -1 to give up
+  int nextMove(PackedBoard board, Random random);
+
+  // the player to play one game on the given board, which is this player unless it
+  // keeps track of a game as it goes
+  Player forGame(PackedBoard board);
+}
+
+// a player that reveals hidden, unflagged cells at random
+class RandomPlayer implements Player {
+  static final int GUESSES = 64;
+
+  // guesses a few cells at random, then settles for the first hidden cell after a
+  // random starting point, so a nearly finished board cannot keep it guessing
+  public int nextMove(PackedBoard board, Random random) {
+    byte[] cells = board.cells;
+    for (int guess = 0; guess < GUESSES; guess++) {
+      int index = random.nextInt(cells.length);
+      if ((cells[index] & (PackedBoard.REVEALED | PackedBoard.FLAGGED)) == 0) {
+        return index;
+      }
+    }
+    int start = random.nextInt(cells.length);
+    for (int k = 0; k < cells.length; k++) {
+      int index = (start + k) % cells.length;
+      if ((cells[index] & (PackedBoard.REVEALED | PackedBoard.FLAGGED)) == 0) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  public Player forGame(PackedBoard board) {
+    return this;
+  }
+}
+
+// a player that reveals whatever the solver suggests, telling it after every move
+// which cells the move revealed
+class SolverPlayer implements Player {
+  Solver solver;
+  int lastMove;
+
+  SolverPlayer() {
+    this.lastMove = -1;
+  }
+
+  public Player forGame(PackedBoard board) {
+    SolverPlayer player = new SolverPlayer();
+    player.solver = new Solver(board);
+    return player;
+  }
+
+  public int nextMove(PackedBoard board, Random random) {
+    if (this.lastMove >= 0) {
+      this.solver.update(this.lastMove);
+      for (int k = 0; k < board.flood.size; k++) {
+        this.solver.update(board.flood.revealed[k]);
+      }
+    }
+    Hint hint = this.solver.nextReveal();
+    this.lastMove = hint == null ? -1 : board.index(hint.row, hint.col);
+    return this.lastMove;
+  }
+}
+
+// plays many seeded games on packed boards at once, spread over the cores of the
+// machine with a fork-join pool, without any World or image in the way
+//
+// game number g is played on a board built from new Random(seed + g), and the player
+// draws its moves from the same Random, so a batch plays out the same however many
+// threads it runs on
+//
+// run with: java -cp "bin:libs/*" BatchSimulator [games] [rows] [columns] [mines] [threads]
+//   [random|solver]
+class BatchSimulator {
+  int rows;
+  int columns;
+  int numMines;
+  boolean firstClickSafe;
+  long seed;
+  Player player;
+  ForkJoinPool pool;
+
+  BatchSimulator(int rows, int columns, int numMines, boolean firstClickSafe, long seed,
+      Player player, ForkJoinPool pool) {
+    this.rows = rows;
+    this.columns = columns;
+    this.numMines = numMines;
+    this.firstClickSafe = firstClickSafe;
+    this.seed = seed;
+    this.player = player;
+    this.pool = pool;
+  }
+
+  // plays the given number of games and reports how they went
+  SimulationResult run(int games) {
+    long start = System.nanoTime();
+    SimulationResult result = this.pool.invoke(new GameRange(this, 0, games));
+    result.nanos = System.nanoTime() - start;
+    return result;
+  }
+
+  // plays game number g to the end, adding its outcome to the given result
+  void play(int g, SimulationResult result) {
+    Random random = new Random(this.seed + g);
+    PackedBoard board = new PackedBoard(rows, columns, numMines, random, firstClickSafe);
+    Player player = this.player.forGame(board);
+    while (!board.gameOver) {
+      int move = player.nextMove(board, random);
+      if (move < 0) {
+        break;
+      }
+      board.revealCell(move / columns, move % columns);
+      result.reveals++;
+    }
+    result.games++;
+    if (board.won) {
+      result.wins++;
+    }
+  }
+
+  public static void main(String[] args) {
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int rows = args.length > 1 ? Integer.parseInt(args[1]) : 9;
+    int columns = args.length > 2 ? Integer.parseInt(args[2]) : 9;
+    int mines = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+    int threads = args.length > 4 ? Integer.parseInt(args[4])
+        : Runtime.getRuntime().availableProcessors();
+    Player player = new RandomPlayer();
+    if (args.length > 5 && args[5].equals("solver")) {
+      player = new SolverPlayer();
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    BatchSimulator simulator = new BatchSimulator(rows, columns, mines, true, 1, player,
+        pool);
+    System.out.println(simulator.run(games));
+    pool.shutdown();
+  }
+}
+
+// a range of game numbers, split in half until it is small enough to play on one thread
+class GameRange extends RecursiveTask<SimulationResult> {
+  private static final long serialVersionUID = 1L;
+  static final int GAMES_PER_TASK = 256;
+
+  BatchSimulator simulator;
+  int from;
+  int to;
+
+  GameRange(BatchSimulator simulator, int from, int to) {
+    this.simulator = simulator;
+    this.from = from;
+    this.to = to;
+  }
+
+  protected SimulationResult compute() {
+    if (to - from <= GAMES_PER_TASK) {
+      SimulationResult result = new SimulationResult();
+      for (int g = from; g < to; g++) {
+        simulator.play(g, result);
+      }
+      return result;
+    }
+    int middle = (from + to) >>> 1;
+    GameRange left = new GameRange(simulator, from, middle);
+    left.fork();
+    SimulationResult right = new GameRange(simulator, middle, to).compute();
+    return left.join().add(right);
+  }
+}
+
+// represents the totals of a batch of games
+class SimulationResult {
+  long games;
+  long wins;
+  long reveals;
+  long nanos;
+
+  // adds the totals of the given result to this one
+  SimulationResult add(SimulationResult other) {
+    this.games += other.games;
+    this.wins += other.wins;
+    this.reveals += other.reveals;
+    return this;
+  }
+
+  // the share of games that were won
+  double winRate() {
+    return this.games == 0 ? 0 : (double) this.wins / this.games;
+  }
+
+  // the number of games played per second
+  double gamesPerSecond() {
+    return this.games * 1e9 / Math.max(1, this.nanos);
+  }
+
+  // the number of cells revealed per second
+  double revealsPerSecond() {
+    return this.reveals * 1e9 / Math.max(1, this.nanos);
+  }
+
+  public String toString() {
+    return String.format("%,d games in %.3f s: %,.0f games/s, %,.0f reveals/s, win rate %.2f%%",
+        this.games, this.nanos / 1e9, this.gamesPerSecond(), this.revealsPerSecond(),
+        this.winRate() * 100);
+  }
+}
+
+// examples and tests for the batch simulator
+class ExamplesBatchSimulator {
+  // one pool of each size for every test, rather than one per simulator
+  ForkJoinPool four = new ForkJoinPool(4);
+  ForkJoinPool one = new ForkJoinPool(1);
+  BatchSimulator beginner, single, trivial;
+
+  void init() {
+    this.beginner = new BatchSimulator(9, 9, 10, true, 42, new RandomPlayer(), this.four);
+    this.single = new BatchSimulator(9, 9, 10, true, 42, new RandomPlayer(), this.one);
+    this.trivial = new BatchSimulator(1, 1, 0, false, 1, new RandomPlayer(), this.four);
+  }
+
+  // test for run
+  void testRun(Tester t) {
+    this.init();
+    SimulationResult result = this.beginner.run(2000);
+    t.checkExpect(result.games, 2000L);
+    t.checkExpect(result.reveals >= 2000, true);
+    t.checkExpect(result.wins <= result.games, true);
+    t.checkExpect(result.nanos > 0, true);
+  }
+
+  // test that a batch plays out the same on one thread as on four
+  void testRunDeterministic(Tester t) {
+    this.init();
+    SimulationResult parallel = this.beginner.run(1000);
+    SimulationResult serial = this.single.run(1000);
+    t.checkExpect(parallel.wins, serial.wins);
+    t.checkExpect(parallel.reveals, serial.reveals);
+  }
+
+  // test for a board that is won by the first reveal
+  void testRunTrivial(Tester t) {
+    this.init();
+    SimulationResult result = this.trivial.run(10);
+    t.checkExpect(result.wins, 10L);
+    t.checkExpect(result.reveals, 10L);
+    t.checkInexact(result.winRate(), 1.0, 0.001);
+  }
+
+  // test for RandomPlayer
+  void testRandomPlayer(Tester t) {
+    PackedBoard board = new PackedBoard(1, 3, 0, new Random());
+    board.flagCell(0, 0);
+    board.cells[1] |= PackedBoard.REVEALED;
+    t.checkExpect(new RandomPlayer().nextMove(board, new Random(3)), 2);
+    board.flagCell(0, 2);
+    t.checkExpect(new RandomPlayer().nextMove(board, new Random(3)), -1);
+  }
+
+  // test that the solver wins far more often than random guessing
+  void testSolverPlayer(Tester t) {
+    SimulationResult solved = new BatchSimulator(9, 9, 10, true, 42, new SolverPlayer(),
+        this.four).run(1000);
+    SimulationResult random = new BatchSimulator(9, 9, 10, true, 42, new RandomPlayer(),
+        this.four).run(1000);
+    t.checkExpect(solved.games, 1000L);
+    t.checkExpect(solved.winRate() > 0.6, true);
+    t.checkExpect(solved.wins > random.wins * 2, true);
+  }
+
+  // test for SimulationResult
+  void testSimulationResult(Tester t) {
+    SimulationResult result = new SimulationResult();
+    result.games = 4;
+    result.wins = 1;
+    result.reveals = 10;
+    result.nanos = 2000000000L;
+    t.checkInexact(result.winRate(), 0.25, 0.001);
+    t.checkInexact(result.gamesPerSecond(), 2.0, 0.001);
+    t.checkInexact(result.revealsPerSecond(), 5.0, 0.001);
+    t.checkExpect(result.add(result.add(new SimulationResult())).games, 8L);
+  }
+}
@@ -0,0 +1,409 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import tester.*;
+
+// measures how long the hot paths of the game take on boards from beginner size up to
+// ten million cells, and writes the results as JSON laid out the way JMH lays out its
+// own results, so the same tools can read them
+//
+// JMH itself cannot be used here, because the game is built and run offline with only
+// the jars in libs, so this is a small harness in the same spirit: every benchmark is
+// warmed up, then timed over several iterations, and each result is the average time
+// of one operation in microseconds with the spread between iterations as its error
+//
+// run with: java -cp "bin:libs/*" Benchmarks [--quick] [--out file.json] [filter]
+class Benchmarks {
+  // the boards benchmarked, as rows and columns
+  static final int[][] SIZES = { { 9, 9 }, { 16, 30 }, { 100, 100 }, { 1000, 1000 },
+      { 3163, 3163 } };
+  // the largest board built out of Cell objects, which take about a hundred bytes each
+  static final int MAX_CELL_GRID = 1000 * 1000;
+  // the largest board drawn with makeScene, which places one image per cell
+  static final int MAX_SCENE = 1000 * 1000;
+  // the largest board drawn by the incremental renderer, which keeps a bitmap of the
+  // whole board at CELL_SIZE pixels a cell
+  static final int MAX_BOARD_IMAGE = 100 * 100;
+  // the size of the window for the viewport benchmarks, as rows and columns
+  static final int VIEW_ROWS = 30;
+  static final int VIEW_COLUMNS = 40;
+  // the share of cells that are mines for the placeMines benchmarks
+  static final double[] DENSITIES = { 0.1, 0.5, 0.9 };
+
+  BenchmarkRunner runner;
+
+  Benchmarks(BenchmarkRunner runner) {
+    this.runner = runner;
+  }
+
+  public static void main(String[] args) throws IOException {
+    boolean quick = false;
+    String out = "benchmarks.json";
+    String filter = "";
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--quick")) {
+        quick = true;
+      }
+      else if (args[i].equals("--out")) {
+        i++;
+        out = args[i];
+      }
+      else {
+        filter = args[i];
+      }
+    }
+
+    BenchmarkRunner runner = new BenchmarkRunner(quick, filter);
+    new Benchmarks(runner).runAll();
+    runner.writeJson(out);
+    System.out.println("Wrote " + runner.results.size() + " results to " + out);
+  }
+
+  // runs every benchmark
+  void runAll() {
+    for (int[] size : SIZES) {
+      this.initializeGrid(size[0], size[1]);
+      this.parallelInit(size[0], size[1]);
+      this.placeMines(size[0], size[1]);
+      this.revealFlood(size[0], size[1]);
+      this.checkGame(size[0], size[1]);
+      this.makeScene(size[0], size[1]);
+    }
+  }
+
+  // building a board: the Cell grid and the packed board
+  void initializeGrid(int rows, int columns) {
+    int mines = rows * columns / 6;
+    String params = params(rows, columns, mines);
+    if (rows * columns <= MAX_CELL_GRID) {
+      runner.measureEach("Minesweeper.initializeGrid", params, () -> { },
+          () -> new Minesweeper(rows, columns, mines, new Random(1)));
+    }
+    runner.measureEach("PackedBoard.initializeGrid", params, () -> { },
+        () -> new PackedBoard(rows, columns, mines, new Random(1)));
+  }
+
+  // building a board in parallel on 1, 2, 4 and so on up to every core, to show how the
+  // row bands scale; only boards large enough to be built in parallel are measured
+  void parallelInit(int rows, int columns) {
+    if (rows * columns < ParallelInit.THRESHOLD) {
+      return;
+    }
+    int mines = rows * columns / 6;
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1
+        : Math.min(threads * 2, cores)) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      String params = params(rows, columns, mines) + ", \"threads\": \"" + threads + "\"";
+      PackedBoard board = new PackedBoard(rows, columns, mines, new Random(1));
+      runner.measure("ParallelInit.countAdjacentMines.packed", params, () -> {
+        ParallelInit.countAdjacentMines(board, pool);
+        return board;
+      });
+      if (rows * columns <= MAX_CELL_GRID) {
+        Minesweeper game = new Minesweeper(rows, columns, mines, new Random(1));
+        runner.measureEach("ParallelInit.buildGrid", params,
+            () -> game.grid = new ArrayList<ArrayList<Cell>>(), () -> {
+              ParallelInit.buildGrid(game, pool);
+              return game;
+            });
+      }
+      pool.shutdown();
+    }
+  }
+
+  // placing mines at several densities on boards that start out empty
+  void placeMines(int rows, int columns) {
+    for (double density : DENSITIES) {
+      int mines = (int) (rows * columns * density);
+      String params = params(rows, columns, mines);
+      if (rows * columns <= MAX_CELL_GRID) {
+        Minesweeper game = new Minesweeper(rows, columns, 0, new Random(1));
+        runner.measureEach("Minesweeper.placeMines", params, () -> {
+          game.numMines = mines;
+          for (ArrayList<Cell> row : game.grid) {
+            for (Cell cell : row) {
+              cell.isMine = false;
+            }
+          }
+        }, () -> {
+          game.placeMines(game.rand);
+          return game;
+        });
+      }
+      PackedBoard board = new PackedBoard(rows, columns, 0, new Random(1));
+      runner.measureEach("PackedBoard.placeMines", params, () -> {
+        board.numMines = mines;
+        Arrays.fill(board.cells, (byte) 0);
+      }, () -> {
+        board.placeMines(board.rand);
+        return board;
+      });
+    }
+  }
+
+  // revealing one cell of a board without mines, which floods the whole board
+  void revealFlood(int rows, int columns) {
+    String params = params(rows, columns, 0);
+    if (rows * columns <= MAX_CELL_GRID) {
+      Minesweeper[] game = new Minesweeper[1];
+      runner.measureEach("Minesweeper.revealCell.flood", params,
+          () -> game[0] = new Minesweeper(rows, columns, 0, new Random(1)), () -> {
+            game[0].revealCell(rows / 2, columns / 2);
+            return game[0].revealedSafe;
+          });
+    }
+    PackedBoard[] board = new PackedBoard[1];
+    runner.measureEach("PackedBoard.revealCell.flood", params,
+        () -> board[0] = new PackedBoard(rows, columns, 0, new Random(1)), () -> {
+          board[0].revealCell(rows / 2, columns / 2);
+          return board[0].revealedSafe;
+        });
+    // the same click on a board whose openings were indexed when it was built
+    runner.measureEach("PackedBoard.revealCell.opening", params, () -> {
+      board[0] = new PackedBoard(rows, columns, 0, new Random(1));
+      board[0].indexOpenings();
+    }, () -> {
+      board[0].revealCell(rows / 2, columns / 2);
+      return board[0].revealedSafe;
+    });
+    // undoing that flood, which flips back every cell it revealed
+    Minesweeper[] undone = new Minesweeper[1];
+    runner.measureEach("Minesweeper.undo.flood", params, () -> {
+      undone[0] = new Minesweeper(new PackedBoard(rows, columns, 0, new Random(1)));
+      undone[0].enableUndo();
+      undone[0].revealCell(rows / 2, columns / 2);
+    }, () -> {
+      undone[0].undo();
+      return undone[0].revealedSafe;
+    });
+  }
+
+  // checking whether the game is over: the full scan of checkGame against the counts
+  // that revealCell keeps
+  void checkGame(int rows, int columns) {
+    int mines = rows * columns / 6;
+    String params = params(rows, columns, mines);
+    if (rows * columns <= MAX_CELL_GRID) {
+      Minesweeper game = new Minesweeper(rows, columns, mines, new Random(1));
+      Cell safe = firstSafeCell(game);
+      runner.measure("Minesweeper.checkGame", params, () -> game.checkGame(safe));
+    }
+    PackedBoard board = new PackedBoard(rows, columns, mines, new Random(1));
+    runner.measure("PackedBoard.checkGame", params, () -> board.checkGame(0, 0));
+  }
+
+  // drawing a frame: a window of VIEW_ROWS by VIEW_COLUMNS cells on any board, every
+  // Cell.draw call of one frame, a full makeScene, and the incremental renderer with
+  // nothing and with one cell changed
+  void makeScene(int rows, int columns) {
+    int mines = rows * columns / 6;
+    String params = params(rows, columns, mines);
+    Minesweeper window = new Minesweeper(new PackedBoard(rows, columns, mines, new Random(1)));
+    window.setViewport(VIEW_ROWS, VIEW_COLUMNS);
+    runner.measure("Minesweeper.makeScene.viewport", params, () -> {
+      window.scroll(1, 1);
+      return window.makeScene();
+    });
+    window.setViewport(VIEW_ROWS, VIEW_COLUMNS);
+    window.enableIncrementalRendering();
+    runner.measure("Minesweeper.makeScene.viewport.incremental", params, () -> {
+      window.flagCell(window.top, window.left);
+      return window.makeScene();
+    });
+
+    if (rows * columns > MAX_SCENE) {
+      return;
+    }
+    Minesweeper game = new Minesweeper(rows, columns, mines, new Random(1));
+    runner.measure("Cell.draw.frame", params, () -> {
+      Object last = null;
+      for (ArrayList<Cell> row : game.grid) {
+        for (Cell cell : row) {
+          last = cell.draw();
+        }
+      }
+      return last;
+    });
+    runner.measure("Minesweeper.makeScene", params, () -> game.makeScene());
+
+    if (rows * columns > MAX_BOARD_IMAGE) {
+      return;
+    }
+    Minesweeper incremental = new Minesweeper(rows, columns, mines, new Random(1));
+    incremental.enableIncrementalRendering();
+    runner.measure("Minesweeper.makeScene.incremental.unchanged", params,
+        () -> incremental.makeScene());
+    runner.measure("Minesweeper.makeScene.incremental.oneFlag", params, () -> {
+      incremental.flagCell(0, 0);
+      return incremental.makeScene();
+    });
+  }
+
+  // the first cell of the grid that is not a mine
+  static Cell firstSafeCell(Minesweeper game) {
+    for (ArrayList<Cell> row : game.grid) {
+      for (Cell cell : row) {
+        if (!cell.isMine) {
+          return cell;
+        }
+      }
+    }
+    return game.grid.get(0).get(0);
+  }
+
+  // the JSON params of a board
+  static String params(int rows, int columns, int mines) {
+    return "\"rows\": \"" + rows + "\", \"columns\": \"" + columns + "\", \"mines\": \""
+        + mines + "\"";
+  }
+}
+
+// times benchmarks and collects their results
+class BenchmarkRunner {
+  int warmups;
+  int iterations;
+  long iterationNanos;
+  String filter;
+  ArrayList<String> results;
+  // results are folded in here so the JIT cannot throw the measured work away
+  static volatile int sink;
+
+  BenchmarkRunner(boolean quick, String filter) {
+    this.warmups = quick ? 1 : 3;
+    this.iterations = quick ? 2 : 5;
+    this.iterationNanos = quick ? 20000000L : 200000000L;
+    this.filter = filter;
+    this.results = new ArrayList<String>();
+  }
+
+  // times an operation that can be repeated without setting anything up in between,
+  // running it in a loop for the length of each iteration
+  void measure(String name, String params, Supplier<Object> op) {
+    if (!name.contains(this.filter)) {
+      return;
+    }
+    double[] scores = new double[this.iterations];
+    for (int i = -this.warmups; i < this.iterations; i++) {
+      long ops = 0;
+      long start = System.nanoTime();
+      long elapsed;
+      do {
+        consume(op.get());
+        ops++;
+        elapsed = System.nanoTime() - start;
+      } while (elapsed < this.iterationNanos);
+      if (i >= 0) {
+        scores[i] = elapsed / 1000.0 / ops;
+      }
+    }
+    this.record(name, params, scores);
+  }
+
+  // times an operation that needs a fresh setup each time it runs, leaving the setup out
+  // of the time
+  void measureEach(String name, String params, Runnable setup, Supplier<Object> op) {
+    if (!name.contains(this.filter)) {
+      return;
+    }
+    double[] scores = new double[this.iterations];
+    for (int i = -this.warmups; i < this.iterations; i++) {
+      long ops = 0;
+      long timed = 0;
+      long start = System.nanoTime();
+      do {
+        setup.run();
+        long before = System.nanoTime();
+        consume(op.get());
+        timed += System.nanoTime() - before;
+        ops++;
+      } while (System.nanoTime() - start < this.iterationNanos);
+      if (i >= 0) {
+        scores[i] = timed / 1000.0 / ops;
+      }
+    }
+    this.record(name, params, scores);
+  }
+
+  // keeps the given result alive
+  static void consume(Object result) {
+    sink += System.identityHashCode(result);
+  }
+
+  // adds a result, as a JSON object, and prints a line about it
+  void record(String name, String params, double[] scores) {
+    double mean = 0;
+    for (double score : scores) {
+      mean += score;
+    }
+    mean /= scores.length;
+    double variance = 0;
+    for (double score : scores) {
+      variance += (score - mean) * (score - mean);
+    }
+    double error = scores.length > 1 ? Math.sqrt(variance / (scores.length - 1)) : 0;
+
+    StringBuilder raw = new StringBuilder();
+    for (double score : scores) {
+      if (raw.length() > 0) {
+        raw.append(", ");
+      }
+      raw.append(score);
+    }
+    this.results.add("  {\n    \"benchmark\": \"" + name + "\",\n    \"mode\": \"avgt\",\n"
+        + "    \"threads\": 1,\n    \"warmupIterations\": " + this.warmups + ",\n"
+        + "    \"measurementIterations\": " + this.iterations + ",\n"
+        + "    \"params\": { " + params + " },\n"
+        + "    \"primaryMetric\": {\n      \"score\": " + mean + ",\n"
+        + "      \"scoreError\": " + error + ",\n      \"scoreUnit\": \"us/op\",\n"
+        + "      \"rawData\": [ [ " + raw + " ] ]\n    }\n  }");
+    System.out.println(String.format("%-45s %-50s %14.3f +- %.3f us/op", name,
+        params.replace("\"", ""), mean, error));
+  }
+
+  // writes every result to the given file as a JSON array
+  void writeJson(String file) throws IOException {
+    try (FileWriter writer = new FileWriter(file)) {
+      writer.write("[\n" + String.join(",\n", this.results) + "\n]\n");
+    }
+  }
+}
+
+// examples and tests for the benchmark harness
+class ExamplesBenchmarks {
+  BenchmarkRunner runner;
+
+  void init() {
+    this.runner = new BenchmarkRunner(true, "checkGame");
+  }
+
+  // test that measure records one result and skips benchmarks the filter leaves out
+  void testMeasure(Tester t) {
+    this.init();
+    this.runner.measure("PackedBoard.checkGame", Benchmarks.params(9, 9, 10), () -> 1);
+    this.runner.measure("PackedBoard.revealCell", Benchmarks.params(9, 9, 10), () -> 1);
+    t.checkExpect(this.runner.results.size(), 1);
+    t.checkExpect(this.runner.results.get(0).contains("\"benchmark\": \"PackedBoard.checkGame\""),
+        true);
+    t.checkExpect(this.runner.results.get(0).contains("\"rows\": \"9\""), true);
+  }
+
+  // test that measureEach leaves the setup out of the time
+  void testMeasureEach(Tester t) {
+    this.init();
+    this.runner.measureEach("checkGame.slowSetup", "", () -> {
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < 1000000) {
+        BenchmarkRunner.consume(start);
+      }
+    }, () -> 1);
+    String result = this.runner.results.get(0);
+    int score = result.indexOf("\"score\": ") + 9;
+    t.checkExpect(Double.parseDouble(result.substring(score, result.indexOf(",", score))) < 500,
+        true);
+  }
+}
@@ -0,0 +1,449 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import tester.*;
+
+// saves games to files and loads them back, three bits a cell
+//
+// a save file starts with a header:
+//   int    MAGIC
+//   short  VERSION
+//   byte   flags: COMPRESSED, SEEDED, GENERATED
+//   int    rows, columns, mines
+//   long   seed (0 unless SEEDED)
+// followed by three bit planes of (rows * columns + 7) / 8 bytes each, saying which
+// cells are mines, which are revealed and which are flagged, cell i in bit i % 8 of byte
+// i / 8. When COMPRESSED is set the planes are deflated
+//
+// uncompressed files are loaded by mapping them into memory through a FileChannel, and
+// compressed ones are inflated as a stream, so neither builds a Cell for every square.
+// Adjacent mines are not saved; a loaded board counts them as they are asked for
+class BoardIO {
+  static final int MAGIC = 0x4D535750;
+  static final int VERSION = 1;
+  static final int COMPRESSED = 1;
+  static final int SEEDED = 2;
+  static final int GENERATED = 4;
+  static final int HEADER_BYTES = 27;
+  // the planes are written this many bytes at a time
+  static final int BLOCK = 1 << 20;
+  // eight cells of a byte array read or written as one long, the first cell lowest
+  static final VarHandle EIGHT_CELLS = MethodHandles.byteArrayViewVarHandle(long[].class,
+      ByteOrder.LITTLE_ENDIAN);
+  // the low bit of each byte of a long gathered into one byte, by multiplying
+  static final long GATHER = 0x0102040810204080L;
+  static final long LOW_BITS = 0x0101010101010101L;
+  // each byte spread out over the low bits of the eight bytes of a long, the inverse of
+  // GATHER
+  static final long[] SPREAD = new long[256];
+  // where the bits written to each plane sit in a packed cell
+  static final int MINE_SHIFT = PackedBoard.MINE_SHIFT;
+  static final int REVEALED_SHIFT = Integer.numberOfTrailingZeros(PackedBoard.REVEALED);
+  static final int FLAGGED_SHIFT = Integer.numberOfTrailingZeros(PackedBoard.FLAGGED);
+
+  static {
+    for (int v = 0; v < 256; v++) {
+      for (int b = 0; b < 8; b++) {
+        SPREAD[v] |= (long) ((v >> b) & 1) << (8 * b);
+      }
+    }
+  }
+
+  // saves the given game, compressing the cells if asked to
+  static void save(Minesweeper game, Path path, boolean compress) throws IOException {
+    save(pack(game), path, compress);
+  }
+
+  // saves the given board, compressing the cells if asked to
+  static void save(PackedBoard board, Path path, boolean compress) throws IOException {
+    if (!board.topology.square) {
+      throw new IllegalArgumentException("Only square boards can be saved");
+    }
+    int flags = 0;
+    if (compress) {
+      flags |= COMPRESSED;
+    }
+    if (board.seed != null) {
+      flags |= SEEDED;
+    }
+    if (board.generated) {
+      flags |= GENERATED;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    header.putInt(MAGIC).putShort((short) VERSION).put((byte) flags);
+    header.putInt(board.rows).putInt(board.columns).putInt(board.numMines);
+    header.putLong(board.seed == null ? 0 : board.seed);
+    header.flip();
+
+    byte[][] planes = toPlanes(board.cells);
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      writeFully(channel, header);
+      if (compress) {
+        OutputStream out = new DeflaterOutputStream(Channels.newOutputStream(channel),
+            new Deflater(Deflater.BEST_SPEED), BLOCK);
+        for (byte[] plane : planes) {
+          out.write(plane);
+        }
+        out.close();
+      }
+      else {
+        for (byte[] plane : planes) {
+          for (int start = 0; start < plane.length; start += BLOCK) {
+            writeFully(channel, ByteBuffer.wrap(plane, start, Math.min(BLOCK,
+                plane.length - start)));
+          }
+        }
+      }
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  // loads a board saved by save
+  static PackedBoard load(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      if (channel.size() < HEADER_BYTES) {
+        throw new IOException("Not a Minesweeper save file: " + path);
+      }
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      while (header.hasRemaining() && channel.read(header) >= 0) {
+        // keep reading until the header is full
+      }
+      header.flip();
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a Minesweeper save file: " + path);
+      }
+      int version = header.getShort();
+      if (version != VERSION) {
+        throw new IOException("Unsupported save file version " + version + ": " + path);
+      }
+      int flags = header.get();
+      int rows = header.getInt();
+      int columns = header.getInt();
+      int mines = header.getInt();
+      long seed = header.getLong();
+      // a damaged or made-up header must not size the board
+      if (rows < 1 || columns < 1 || (long) rows * columns > Integer.MAX_VALUE - 8
+          || mines < 0 || mines > rows * columns) {
+        throw new IOException("Not a Minesweeper save file: " + path);
+      }
+
+      PackedBoard board = emptyBoard(rows, columns, mines, seed, (flags & SEEDED) != 0);
+      board.generated = (flags & GENERATED) != 0;
+      int planeBytes = (board.cells.length + 7) / 8;
+      byte[][] planes = new byte[3][planeBytes];
+      if ((flags & COMPRESSED) != 0) {
+        InputStream in = new InflaterInputStream(new BufferedInputStream(
+            Channels.newInputStream(channel.position(HEADER_BYTES)), BLOCK));
+        DataInputStream data = new DataInputStream(in);
+        for (byte[] plane : planes) {
+          data.readFully(plane);
+        }
+      }
+      else {
+        if (channel.size() < HEADER_BYTES + 3L * planeBytes) {
+          throw new IOException("Save file is cut short: " + path);
+        }
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+            3L * planeBytes);
+        for (byte[] plane : planes) {
+          mapped.get(plane);
+        }
+      }
+      fromPlanes(planes, board);
+      return board;
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  // writes all of the given buffer to the channel
+  static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  // the mine, revealed and flagged bit planes of the given cells, worked out eight
+  // cells at a time
+  static byte[][] toPlanes(byte[] cells) {
+    int size = (cells.length + 7) / 8;
+    byte[] mines = new byte[size];
+    byte[] revealed = new byte[size];
+    byte[] flagged = new byte[size];
+    int whole = cells.length & ~7;
+    for (int i = 0; i < whole; i += 8) {
+      long eight = (long) EIGHT_CELLS.get(cells, i);
+      mines[i >> 3] = (byte) ((((eight >>> MINE_SHIFT) & LOW_BITS) * GATHER) >>> 56);
+      revealed[i >> 3] = (byte) ((((eight >>> REVEALED_SHIFT) & LOW_BITS) * GATHER) >>> 56);
+      flagged[i >> 3] = (byte) ((((eight >>> FLAGGED_SHIFT) & LOW_BITS) * GATHER) >>> 56);
+    }
+    for (int i = whole; i < cells.length; i++) {
+      int cell = cells[i];
+      mines[i >> 3] |= ((cell >> MINE_SHIFT) & 1) << (i & 7);
+      revealed[i >> 3] |= ((cell >> REVEALED_SHIFT) & 1) << (i & 7);
+      flagged[i >> 3] |= ((cell >> FLAGGED_SHIFT) & 1) << (i & 7);
+    }
+    return new byte[][] { mines, revealed, flagged };
+  }
+
+  // fills in the cells of the given board from its bit planes, and counts what
+  // revealCell and flagCell would have counted
+  static void fromPlanes(byte[][] planes, PackedBoard board) {
+    byte[] cells = board.cells;
+    byte[] mines = planes[0];
+    byte[] revealed = planes[1];
+    byte[] flagged = planes[2];
+    int revealedSafe = 0;
+    int flags = 0;
+    boolean mineHit = false;
+    int whole = cells.length & ~7;
+    for (int i = 0; i < cells.length; i += 8) {
+      int mine = mines[i >> 3] & 0xFF;
+      int reveal = revealed[i >> 3] & 0xFF;
+      int flag = flagged[i >> 3] & 0xFF;
+      long eight = (SPREAD[mine] << MINE_SHIFT) | (SPREAD[reveal] << REVEALED_SHIFT)
+          | (SPREAD[flag] << FLAGGED_SHIFT);
+      if (i < whole) {
+        EIGHT_CELLS.set(cells, i, eight);
+      }
+      else {
+        for (int b = 0; i + b < cells.length; b++) {
+          cells[i + b] = (byte) (eight >>> (8 * b));
+        }
+      }
+      revealedSafe += Integer.bitCount(reveal & ~mine);
+      flags += Integer.bitCount(flag);
+      mineHit = mineHit || (reveal & mine) != 0;
+    }
+    board.revealedSafe = revealedSafe;
+    board.flagged = flags;
+    board.mineHit = mineHit;
+    board.won = board.isWon();
+    board.gameOver = mineHit || board.won;
+  }
+
+  // a board of the given size with no mines placed and nothing counted yet
+  static PackedBoard emptyBoard(int rows, int columns, int mines, long seed, boolean seeded) {
+    PackedBoard board = new PackedBoard(rows, columns, 0, new Random(seed), true);
+    board.numMines = mines;
+    if (seeded) {
+      board.seed = seed;
+    }
+    else {
+      board.rand = new Random();
+    }
+    return board;
+  }
+
+  // the cells of the given game packed into a board, sharing the board of a packed game
+  static PackedBoard pack(Minesweeper game) {
+    if (game.board != null) {
+      return game.board;
+    }
+    if (game.chunks != null) {
+      throw new IllegalArgumentException("Cannot save an endless board");
+    }
+    PackedBoard board = emptyBoard(game.rows, game.columns, game.numMines, 0, false);
+    board.rand = game.rand;
+    board.generated = game.generated;
+    for (int i = 0; i < game.rows; i++) {
+      for (int j = 0; j < game.columns; j++) {
+        Cell cell = game.grid.get(i).get(j);
+        int packed = PackedBoard.COUNTED | cell.adjacentMines;
+        if (cell.isMine) {
+          packed |= PackedBoard.MINE;
+        }
+        if (cell.isRevealed) {
+          packed |= PackedBoard.REVEALED;
+        }
+        if (cell.isFlagged) {
+          packed |= PackedBoard.FLAGGED;
+        }
+        board.cells[board.index(i, j)] = (byte) packed;
+      }
+    }
+    board.revealedSafe = game.revealedSafe;
+    board.flagged = game.flagged;
+    board.mineHit = game.mineHit;
+    board.gameOver = game.gameOver;
+    board.won = game.won;
+    return board;
+  }
+
+  // times saving and loading a board of the given size
+  //
+  // run with: java -Xmx4g -cp "bin:libs/*" BoardIO [rows] [columns] [file]
+  public static void main(String[] args) throws IOException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int columns = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    Path path = new File(args.length > 2 ? args[2] : "board.msw").toPath();
+    PackedBoard board = new PackedBoard(rows, columns, rows * columns / 6, 1L, true);
+    board.revealCell(rows / 2, columns / 2);
+    // placing the mines leaves garbage behind that would otherwise be collected, and
+    // timed, in the middle of the first load
+    System.gc();
+
+    for (boolean compress : new boolean[] { false, true }) {
+      long start = System.nanoTime();
+      save(board, path, compress);
+      long saved = System.nanoTime();
+      PackedBoard loaded = load(path);
+      long done = System.nanoTime();
+      System.out.println(String.format(
+          "%,d cells%s: saved in %.3f s, loaded in %.3f s, %,d bytes, %d revealed",
+          board.cells.length, compress ? " compressed" : "", (saved - start) / 1e9,
+          (done - saved) / 1e9, path.toFile().length(), loaded.revealedSafe));
+    }
+    path.toFile().delete();
+  }
+}
+
+// examples and tests for saving and loading games
+class ExamplesBoardIO {
+  // a temporary file that is deleted when the tests finish
+  Path tempFile() throws IOException {
+    File file = File.createTempFile("minesweeper", ".msw");
+    file.deleteOnExit();
+    return file.toPath();
+  }
+
+  // test that a board comes back from a file the way it was saved
+  void testRoundTrip(Tester t) throws IOException {
+    PackedBoard board = new PackedBoard(37, 53, 300, 9L, true);
+    board.revealCell(18, 26);
+    board.flagCell(0, 0);
+    for (boolean compress : new boolean[] { false, true }) {
+      Path path = this.tempFile();
+      BoardIO.save(board, path, compress);
+      PackedBoard loaded = BoardIO.load(path);
+      t.checkExpect(loaded.rows, 37);
+      t.checkExpect(loaded.columns, 53);
+      t.checkExpect(loaded.numMines, 300);
+      t.checkExpect(loaded.seed, 9L);
+      t.checkExpect(loaded.revealedSafe, board.revealedSafe);
+      t.checkExpect(loaded.flagged, 1);
+      t.checkExpect(loaded.isFlagged(0, 0), true);
+      t.checkExpect(loaded.isRevealed(18, 26), true);
+      t.checkExpect(loaded.adjacentMines(5, 5), board.adjacentMines(5, 5));
+      boolean same = true;
+      for (int i = 0; i < board.cells.length; i++) {
+        same = same && (loaded.cells[i] & 0x70) == (board.cells[i] & 0x70);
+      }
+      t.checkExpect(same, true);
+    }
+  }
+
+  // test that a board whose mines are not placed yet places them the same after loading
+  void testLazyBoard(Tester t) throws IOException {
+    Path path = this.tempFile();
+    BoardIO.save(new PackedBoard(9, 9, 10, 4L, true), path, false);
+    PackedBoard loaded = BoardIO.load(path);
+    t.checkExpect(loaded.generated, false);
+    loaded.revealCell(4, 4);
+    PackedBoard fresh = new PackedBoard(9, 9, 10, 4L, true);
+    fresh.revealCell(4, 4);
+    t.checkExpect(loaded.cells, fresh.cells);
+  }
+
+  // test that a game of Cell objects saves, and that a lost game loads as lost
+  void testSaveMinesweeper(Tester t) throws IOException {
+    Minesweeper game = new Minesweeper(5, 6, 8, new Random(2));
+    game.flagCell(1, 1);
+    Cell mine = game.grid.get(0).get(0);
+    for (ArrayList<Cell> row : game.grid) {
+      for (Cell cell : row) {
+        if (cell.isMine) {
+          mine = cell;
+        }
+      }
+    }
+    game.revealCell(mine.row, mine.col);
+    Path path = this.tempFile();
+    BoardIO.save(game, path, true);
+    Minesweeper loaded = new Minesweeper(BoardIO.load(path));
+    t.checkExpect(loaded.gameOver, true);
+    t.checkExpect(loaded.won, false);
+    t.checkExpect(loaded.isFlagged(1, 1), true);
+    t.checkExpect(loaded.tileState(mine.row, mine.col), TileCache.MINE);
+    t.checkExpect(loaded.board.seed, null);
+    t.checkException(new IllegalArgumentException("Cannot save an endless board"),
+        new BoardIO(), "save", new Minesweeper(new ChunkedBoard(1, 10), 5, 5), path, false);
+  }
+
+  // test that a won game loads as won
+  void testWonGame(Tester t) throws IOException {
+    PackedBoard board = new PackedBoard(4, 4, 0, 1L, false);
+    board.revealCell(0, 0);
+    Path path = this.tempFile();
+    BoardIO.save(board, path, false);
+    PackedBoard loaded = BoardIO.load(path);
+    t.checkExpect(loaded.won, true);
+    t.checkExpect(loaded.gameOver, true);
+  }
+
+  // test for the bit planes
+  void testPlanes(Tester t) {
+    byte[] cells = new byte[10];
+    cells[0] = PackedBoard.MINE;
+    cells[3] = PackedBoard.REVEALED | 2;
+    cells[9] = (byte) (PackedBoard.FLAGGED | PackedBoard.MINE | PackedBoard.COUNTED);
+    byte[][] planes = BoardIO.toPlanes(cells);
+    t.checkExpect(planes[0], new byte[] { 1, 2 });
+    t.checkExpect(planes[1], new byte[] { 8, 0 });
+    t.checkExpect(planes[2], new byte[] { 0, 2 });
+    PackedBoard board = BoardIO.emptyBoard(2, 5, 2, 0, false);
+    BoardIO.fromPlanes(planes, board);
+    t.checkExpect(board.cells[3], (byte) PackedBoard.REVEALED);
+    t.checkExpect(board.cells[9], (byte) (PackedBoard.FLAGGED | PackedBoard.MINE));
+    t.checkExpect(board.revealedSafe, 1);
+    t.checkExpect(board.flagged, 1);
+  }
+
+  // test that files that are not save files are turned away
+  void testBadFile(Tester t) throws IOException {
+    Path path = this.tempFile();
+    Files.write(path, new byte[40]);
+    t.checkException(new IOException("Not a Minesweeper save file: " + path),
+        new BoardIO(), "load", path);
+    ByteBuffer header = ByteBuffer.allocate(40);
+    header.putInt(BoardIO.MAGIC).putShort((short) 7);
+    Files.write(path, header.array());
+    t.checkException(new IOException("Unsupported save file version 7: " + path),
+        new BoardIO(), "load", path);
+    // headers whose sizes no board could have
+    int[][] sizes = { { 0, 5, 1 }, { 5, -1, 1 }, { 100000, 100000, 1 }, { 3, 3, -1 },
+        { 3, 3, 10 } };
+    for (int[] size : sizes) {
+      header = ByteBuffer.allocate(40);
+      header.putInt(BoardIO.MAGIC).putShort((short) BoardIO.VERSION).put((byte) 0)
+          .putInt(size[0]).putInt(size[1]).putInt(size[2]);
+      Files.write(path, header.array());
+      t.checkException(new IOException("Not a Minesweeper save file: " + path),
+          new BoardIO(), "load", path);
+    }
+  }
+}
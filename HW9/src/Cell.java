@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import javalib.worldimages.*;
+
+// represents a cell within a grid
+class Cell implements WorldConstants {
+  boolean isMine;
+  int adjacentMines;
+  boolean isRevealed;
+  boolean isFlagged;
+  ArrayList<Cell> neighbors;
+  // where the cell sits on its grid, or -1 if it was not placed on one
+  int row;
+  int col;
+
+  // main constructor
+  Cell(boolean isMine, int adjacentMines, boolean isRevealed, boolean isFlagged,
+      ArrayList<Cell> neighbors) {
+    this.isMine = isMine;
+    this.adjacentMines = adjacentMines;
+    this.isRevealed = isRevealed;
+    this.isFlagged = isFlagged;
+    this.neighbors = neighbors;
+    this.row = -1;
+    this.col = -1;
+  }
+
+  // empty constructor
+  Cell() {
+    this(false, 0, false, false, new ArrayList<Cell>());
+  }
+
+  // count the number of neighboring mines
+  public void countAdjacentMines() {
+    for (Cell neighbor : this.neighbors) {
+      if (neighbor.isMine) {
+        this.adjacentMines++;
+      }
+    }
+  }
+
+  // add a neighbor to this cell
+  public void addNeighbor(Cell neighbor) {
+    this.neighbors.add(neighbor);
+  }
+
+  // draws the state of the cell, using the images shared by every cell that looks the same
+  public WorldImage draw() {
+    return TileCache.of(CELL_SIZE)
+        .tile(TileCache.state(this.isMine, this.adjacentMines, this.isRevealed, this.isFlagged));
+  }
+}
@@ -0,0 +1,426 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import tester.*;
+import javalib.worldimages.*;
+
+// represents a Minesweeper board with no edges, split into square chunks that are only
+// made when something reaches them
+//
+// the mines of a chunk come from the seed of the board and the position of the chunk,
+// so a chunk can be thrown away and made again exactly as it was. Chunks the player has
+// changed, by revealing or flagging one of their cells, are kept for good; the others
+// are only needed to count the mines next to a changed chunk, and are kept in a
+// least-recently-used cache that throws the oldest away once it holds too many
+//
+// cells are packed one byte each with the bits of PackedBoard, and rows and columns run
+// over every int, negative ones included
+class ChunkedBoard {
+  static final int CHUNK_BITS = 6;
+  static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  static final int CHUNK_MASK = CHUNK_SIZE - 1;
+  // the number of untouched chunks kept when no limit is given
+  static final int DEFAULT_CACHE = 1024;
+  // the most cells one reveal floods, so a board with few mines cannot flood forever;
+  // revealing an empty cell at the edge of a flood carries on from there
+  static final int DEFAULT_FLOOD_LIMIT = 1 << 20;
+
+  long seed;
+  int minesPerChunk;
+  int floodLimit;
+  HashMap<Long, Chunk> touched;
+  LinkedHashMap<Long, Chunk> cache;
+  boolean gameOver;
+  boolean mineHit;
+  long revealedSafe;
+  int flagged;
+  // the number of chunks made so far, counting the ones made again after being evicted
+  long chunksMade;
+  // the flood's work stack of cells, each packed by position()
+  long[] pending;
+  int pendingSize;
+
+  // constructor for a board that keeps the default number of untouched chunks
+  ChunkedBoard(long seed, int minesPerChunk) {
+    this(seed, minesPerChunk, DEFAULT_CACHE);
+  }
+
+  // constructor for a board that keeps at most cacheLimit untouched chunks
+  ChunkedBoard(long seed, int minesPerChunk, int cacheLimit) {
+    if (minesPerChunk <= 0 || minesPerChunk >= CHUNK_SIZE * CHUNK_SIZE) {
+      throw new IllegalArgumentException("Cannot place " + minesPerChunk + " mines in a chunk of "
+          + CHUNK_SIZE * CHUNK_SIZE + " cells");
+    }
+    this.seed = seed;
+    this.minesPerChunk = minesPerChunk;
+    this.floodLimit = DEFAULT_FLOOD_LIMIT;
+    this.touched = new HashMap<Long, Chunk>();
+    this.cache = new LinkedHashMap<Long, Chunk>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<Long, Chunk> eldest) {
+        return this.size() > cacheLimit;
+      }
+    };
+    this.gameOver = false;
+    this.mineHit = false;
+    this.revealedSafe = 0;
+    this.flagged = 0;
+    this.chunksMade = 0;
+    this.pending = new long[64];
+    this.pendingSize = 0;
+  }
+
+  // the chunk holding the cell at the given row and col, made if it is not in memory
+  Chunk chunk(int row, int col) {
+    int chunkRow = row >> CHUNK_BITS;
+    int chunkCol = col >> CHUNK_BITS;
+    long key = position(chunkRow, chunkCol);
+    Chunk chunk = this.touched.get(key);
+    if (chunk == null) {
+      chunk = this.cache.get(key);
+    }
+    if (chunk == null) {
+      chunk = this.makeChunk(chunkRow, chunkCol);
+      this.cache.put(key, chunk);
+    }
+    return chunk;
+  }
+
+  // the chunk holding the cell at the given row and col, moved out of the cache so it is
+  // never evicted
+  Chunk touch(int row, int col) {
+    Chunk chunk = this.chunk(row, col);
+    if (!chunk.touched) {
+      long key = position(chunk.chunkRow, chunk.chunkCol);
+      this.cache.remove(key);
+      this.touched.put(key, chunk);
+      chunk.touched = true;
+    }
+    return chunk;
+  }
+
+  // makes the chunk at the given chunk row and col, with mines chosen by a Random seeded
+  // from the board's seed and the chunk's position
+  Chunk makeChunk(int chunkRow, int chunkCol) {
+    this.chunksMade++;
+    Chunk chunk = new Chunk(chunkRow, chunkCol);
+    Random random = new Random(mix(this.seed, position(chunkRow, chunkCol)));
+    for (int index : MinePlacement.choose(random, CHUNK_SIZE * CHUNK_SIZE, minesPerChunk)) {
+      chunk.cells[index] |= PackedBoard.MINE;
+    }
+    return chunk;
+  }
+
+  // the given row and col packed into one long
+  static long position(int row, int col) {
+    return ((long) row << 32) | (col & 0xFFFFFFFFL);
+  }
+
+  // a seed for the chunk at the given position, which neighboring chunks do not share
+  static long mix(long seed, long position) {
+    long mixed = seed ^ (position * 0x9E3779B97F4A7C15L);
+    mixed = (mixed ^ (mixed >>> 30)) * 0xBF58476D1CE4E5B9L;
+    mixed = (mixed ^ (mixed >>> 27)) * 0x94D049BB133111EBL;
+    return mixed ^ (mixed >>> 31);
+  }
+
+  // the position of the cell at the given row and col within its chunk
+  static int cellIndex(int row, int col) {
+    return ((row & CHUNK_MASK) << CHUNK_BITS) | (col & CHUNK_MASK);
+  }
+
+  // the number of chunks in memory
+  int chunksInMemory() {
+    return this.touched.size() + this.cache.size();
+  }
+
+  // is the cell at the given row and col a mine?
+  boolean isMine(int row, int col) {
+    return (this.chunk(row, col).cells[cellIndex(row, col)] & PackedBoard.MINE) != 0;
+  }
+
+  // has the cell at the given row and col been revealed?
+  boolean isRevealed(int row, int col) {
+    return (this.chunk(row, col).cells[cellIndex(row, col)] & PackedBoard.REVEALED) != 0;
+  }
+
+  // has the cell at the given row and col been flagged?
+  boolean isFlagged(int row, int col) {
+    return (this.chunk(row, col).cells[cellIndex(row, col)] & PackedBoard.FLAGGED) != 0;
+  }
+
+  // the number of mines around the cell at the given row and col, counted the first
+  // time it is asked for, reaching into the neighboring chunks at the edges
+  int adjacentMines(int row, int col) {
+    Chunk chunk = this.chunk(row, col);
+    int index = cellIndex(row, col);
+    byte cell = chunk.cells[index];
+    if ((cell & PackedBoard.COUNTED) != 0) {
+      return cell & PackedBoard.ADJACENT_MASK;
+    }
+    int count = 0;
+    for (int x = -1; x <= 1; x++) {
+      for (int y = -1; y <= 1; y++) {
+        if ((x != 0 || y != 0) && this.isMine(row + x, col + y)) {
+          count++;
+        }
+      }
+    }
+    // the chunk may have been evicted while its neighbors were made, which only means
+    // the count is worked out again next time
+    chunk.cells[index] = (byte) ((cell & ~PackedBoard.ADJACENT_MASK) | PackedBoard.COUNTED
+        | count);
+    return count;
+  }
+
+  // flags the indicated cell and if cell is already flagged, undoes it
+  public void flagCell(int row, int col) {
+    Chunk chunk = this.touch(row, col);
+    int index = cellIndex(row, col);
+    chunk.cells[index] ^= PackedBoard.FLAGGED;
+    if ((chunk.cells[index] & PackedBoard.FLAGGED) != 0) {
+      this.flagged++;
+    }
+    else {
+      this.flagged--;
+    }
+  }
+
+  // reveals a cell when clicked, flooding outward from it if it has no adjacent mines;
+  // the board has no end, so revealing a mine is the only way the game ends
+  public void revealCell(int row, int col) {
+    Chunk chunk = this.touch(row, col);
+    int index = cellIndex(row, col);
+    byte cell = chunk.cells[index];
+    if ((cell & PackedBoard.FLAGGED) != 0) {
+      return;
+    }
+    if ((cell & PackedBoard.REVEALED) == 0) {
+      chunk.cells[index] |= PackedBoard.REVEALED;
+      if ((cell & PackedBoard.MINE) != 0) {
+        this.mineHit = true;
+        this.gameOver = true;
+      }
+      else {
+        this.revealedSafe++;
+      }
+    }
+    if ((cell & PackedBoard.MINE) == 0 && this.adjacentMines(row, col) == 0) {
+      this.revealedSafe += this.flooding(row, col);
+    }
+  }
+
+  // reveals every hidden non-mine cell reachable from the given cell through empty
+  // cells, across chunk edges, stopping after floodLimit cells; returns how many cells
+  // were revealed
+  public int flooding(int row, int col) {
+    long start = Metrics.start();
+    int revealed = 0;
+    this.pendingSize = 0;
+    this.push(position(row, col));
+    while (this.pendingSize > 0 && revealed < this.floodLimit) {
+      this.pendingSize--;
+      long next = this.pending[this.pendingSize];
+      int r = (int) (next >> 32);
+      int c = (int) next;
+      for (int x = -1; x <= 1 && revealed < this.floodLimit; x++) {
+        for (int y = -1; y <= 1 && revealed < this.floodLimit; y++) {
+          int nr = r + x;
+          int nc = c + y;
+          Chunk chunk = this.chunk(nr, nc);
+          int index = cellIndex(nr, nc);
+          if ((chunk.cells[index] & (PackedBoard.MINE | PackedBoard.REVEALED)) == 0) {
+            chunk = this.touch(nr, nc);
+            chunk.cells[index] |= PackedBoard.REVEALED;
+            revealed++;
+            if (this.adjacentMines(nr, nc) == 0) {
+              this.push(position(nr, nc));
+            }
+          }
+        }
+      }
+    }
+    Metrics.flood(start, revealed);
+    return revealed;
+  }
+
+  // adds a cell to the flood's work stack
+  void push(long position) {
+    if (this.pendingSize == this.pending.length) {
+      long[] bigger = new long[this.pending.length * 2];
+      System.arraycopy(this.pending, 0, bigger, 0, this.pendingSize);
+      this.pending = bigger;
+    }
+    this.pending[this.pendingSize] = position;
+    this.pendingSize++;
+  }
+}
+
+// represents one square chunk of a chunked board
+class Chunk {
+  int chunkRow;
+  int chunkCol;
+  byte[] cells;
+  // has the player changed any cell of this chunk?
+  boolean touched;
+
+  Chunk(int chunkRow, int chunkCol) {
+    this.chunkRow = chunkRow;
+    this.chunkCol = chunkCol;
+    this.cells = new byte[ChunkedBoard.CHUNK_SIZE * ChunkedBoard.CHUNK_SIZE];
+    this.touched = false;
+  }
+}
+
+// examples and tests for the chunked board
+class ExamplesChunkedBoard {
+  ChunkedBoard board, small, dense;
+
+  void init() {
+    this.board = new ChunkedBoard(7, 600);
+    this.small = new ChunkedBoard(7, 600, 4);
+    this.dense = new ChunkedBoard(7, 4095);
+  }
+
+  // the first cell of the given row with no adjacent mines, or -1
+  int emptyCell(ChunkedBoard board, int row) {
+    for (int col = 0; col < ChunkedBoard.CHUNK_SIZE; col++) {
+      if (!board.isMine(row, col) && board.adjacentMines(row, col) == 0) {
+        return col;
+      }
+    }
+    return -1;
+  }
+
+  // test that the same seed always gives the same chunk, and chunks differ
+  void testMakeChunk(Tester t) {
+    this.init();
+    Chunk chunk = this.board.makeChunk(3, -2);
+    int mines = 0;
+    for (byte cell : chunk.cells) {
+      if ((cell & PackedBoard.MINE) != 0) {
+        mines++;
+      }
+    }
+    t.checkExpect(mines, 600);
+    t.checkExpect(new ChunkedBoard(7, 600).makeChunk(3, -2).cells, chunk.cells);
+    t.checkExpect(this.board.makeChunk(3, -1).cells.equals(chunk.cells), false);
+  }
+
+  // test for cellIndex and position with negative rows and columns
+  void testCoordinates(Tester t) {
+    t.checkExpect(ChunkedBoard.cellIndex(0, 0), 0);
+    t.checkExpect(ChunkedBoard.cellIndex(-1, -1), 4095);
+    t.checkExpect(ChunkedBoard.cellIndex(65, 2), 66);
+    t.checkExpect(ChunkedBoard.position(-1, 5) >> 32, -1L);
+    t.checkExpect((int) ChunkedBoard.position(-1, -5), -5);
+    this.init();
+    t.checkExpect(this.board.chunk(-1, -1).chunkRow, -1);
+    t.checkExpect(this.board.chunk(64, -65).chunkCol, -2);
+  }
+
+  // test for adjacentMines across chunk edges
+  void testAdjacentMines(Tester t) {
+    this.init();
+    int count = 0;
+    for (int x = -1; x <= 1; x++) {
+      for (int y = -1; y <= 1; y++) {
+        if ((x != 0 || y != 0) && this.board.isMine(x, y)) {
+          count++;
+        }
+      }
+    }
+    t.checkExpect(this.board.adjacentMines(0, 0), count);
+    t.checkExpect(this.board.chunksInMemory(), 4);
+    t.checkExpect(this.dense.adjacentMines(0, 0) >= 4, true);
+  }
+
+  // test that untouched chunks are evicted and made again the same, while touched ones
+  // are kept
+  void testEviction(Tester t) {
+    this.init();
+    this.small.flagCell(0, 0);
+    boolean mine = this.small.isMine(0, 70);
+    for (int col = 0; col < 20; col++) {
+      this.small.isMine(0, col * ChunkedBoard.CHUNK_SIZE);
+    }
+    t.checkExpect(this.small.chunksInMemory(), 5);
+    t.checkExpect(this.small.isFlagged(0, 0), true);
+    long made = this.small.chunksMade;
+    t.checkExpect(this.small.isMine(0, 70), mine);
+    t.checkExpect(this.small.chunksMade, made + 1);
+  }
+
+  // test for flagCell
+  void testFlagCell(Tester t) {
+    this.init();
+    this.board.flagCell(-5, 1000);
+    t.checkExpect(this.board.isFlagged(-5, 1000), true);
+    t.checkExpect(this.board.flagged, 1);
+    t.checkExpect(this.board.chunk(-5, 1000).touched, true);
+    this.board.flagCell(-5, 1000);
+    t.checkExpect(this.board.flagged, 0);
+  }
+
+  // test for revealCell on a mine, a number and an empty cell
+  void testRevealCell(Tester t) {
+    this.init();
+    int col = this.emptyCell(this.board, 10);
+    this.board.revealCell(10, col);
+    t.checkExpect(this.board.isRevealed(10, col), true);
+    t.checkExpect(this.board.revealedSafe > 1, true);
+    t.checkExpect(this.board.gameOver, false);
+    this.board.flagCell(20, 20);
+    this.board.revealCell(20, 20);
+    t.checkExpect(this.board.isRevealed(20, 20), false);
+    int mine = 0;
+    while (!this.dense.isMine(0, mine)) {
+      mine++;
+    }
+    this.dense.revealCell(0, mine);
+    t.checkExpect(this.dense.gameOver, true);
+    t.checkExpect(this.dense.mineHit, true);
+  }
+
+  // test that a flood crosses chunk edges and stops at the limit
+  void testFlooding(Tester t) {
+    ChunkedBoard sparse = new ChunkedBoard(3, 1, 16);
+    sparse.floodLimit = 50000;
+    int col = this.emptyCell(sparse, 0);
+    sparse.revealCell(0, col);
+    t.checkExpect(sparse.revealedSafe, 50001L);
+    t.checkExpect(sparse.touched.size() > 4, true);
+    t.checkExpect(sparse.isRevealed(-1, col), true);
+  }
+
+  // test that a chunked board needs at least one mine and one safe cell a chunk
+  boolean testInvalid(Tester t) {
+    return t.checkConstructorException(
+        new IllegalArgumentException("Cannot place 0 mines in a chunk of 4096 cells"),
+        "ChunkedBoard", 1L, 0)
+        && t.checkConstructorException(
+            new IllegalArgumentException("Cannot place 4096 mines in a chunk of 4096 cells"),
+            "ChunkedBoard", 1L, 4096);
+  }
+
+  // test for a Minesweeper game showing a window onto a chunked board
+  void testChunkedGame(Tester t) {
+    this.init();
+    Minesweeper game = new Minesweeper(this.board, 10, 12);
+    t.checkExpect(game.rows, 10);
+    t.checkExpect(game.columns, 12);
+    int col = this.emptyCell(this.board, 0);
+    game.top = -5;
+    game.left = col - 3;
+    game.onMouseClicked(new Posn(3 * 20 + 5, 5 * 20 + 5), "LeftButton");
+    t.checkExpect(this.board.isRevealed(0, col), true);
+    t.checkExpect(game.isRevealed(5, 3), true);
+    t.checkExpect((long) game.revealedSafe, this.board.revealedSafe);
+    t.checkExpect(game.tileState(5, 3), TileCache.EMPTY);
+    game.flagCell(0, 0);
+    t.checkExpect(this.board.isFlagged(-5, col - 3), true);
+    t.checkExpect(game.makeScene().width, 240);
+    game.enableIncrementalRendering();
+    t.checkExpect(game.makeScene().height, 200);
+  }
+}
@@ -0,0 +1,97 @@
+import tester.*;
+
+// represents the cells of a board that have changed since the last frame, as indices
+// row * columns + col; once more than a quarter of the board has changed it gives up
+// on listing cells and records that the whole board is dirty
+class DirtyRegion {
+  int limit;
+  int[] cells;
+  int size;
+  boolean all;
+
+  DirtyRegion(int rows, int columns) {
+    this.limit = Math.max(1, rows * columns / 4);
+    this.cells = new int[Math.min(64, this.limit)];
+    this.size = 0;
+    this.all = true;
+  }
+
+  // marks the cell at the given index as changed
+  void mark(int index) {
+    if (this.all) {
+      return;
+    }
+    if (this.size == this.limit) {
+      this.markAll();
+      return;
+    }
+    if (this.size == this.cells.length) {
+      int[] bigger = new int[Math.min(this.cells.length * 2, this.limit)];
+      System.arraycopy(this.cells, 0, bigger, 0, this.size);
+      this.cells = bigger;
+    }
+    this.cells[this.size] = index;
+    this.size++;
+  }
+
+  // marks every cell of the board as changed
+  void markAll() {
+    this.all = true;
+    this.size = 0;
+  }
+
+  // has nothing changed since the last clear?
+  boolean isClean() {
+    return !this.all && this.size == 0;
+  }
+
+  // forgets all changes, once they have been drawn
+  void clear() {
+    this.all = false;
+    this.size = 0;
+  }
+}
+
+// examples and tests for dirty regions
+class ExamplesDirtyRegion {
+  DirtyRegion region;
+
+  void init() {
+    // a 4x4 board, which is given up on after 4 changed cells
+    this.region = new DirtyRegion(4, 4);
+    this.region.clear();
+  }
+
+  // test for mark and isClean
+  void testMark(Tester t) {
+    this.init();
+    t.checkExpect(this.region.isClean(), true);
+    this.region.mark(5);
+    this.region.mark(7);
+    t.checkExpect(this.region.isClean(), false);
+    t.checkExpect(this.region.size, 2);
+    t.checkExpect(this.region.cells[1], 7);
+    t.checkExpect(this.region.all, false);
+  }
+
+  // test that too many changes turn into a full redraw
+  void testMarkOverLimit(Tester t) {
+    this.init();
+    for (int i = 0; i < 5; i++) {
+      this.region.mark(i);
+    }
+    t.checkExpect(this.region.all, true);
+    t.checkExpect(this.region.size, 0);
+  }
+
+  // test for markAll and clear
+  void testMarkAllAndClear(Tester t) {
+    this.init();
+    this.region.markAll();
+    t.checkExpect(this.region.isClean(), false);
+    this.region.clear();
+    t.checkExpect(this.region.isClean(), true);
+    // a new region starts out needing a full draw
+    t.checkExpect(new DirtyRegion(2, 2).all, true);
+  }
+}
@@ -0,0 +1,188 @@
+import java.util.Random;
+import tester.*;
+
+// reveals the region around an empty cell of a packed board with an explicit work
+// queue instead of recursion, so one click on a huge empty area cannot overflow the
+// stack
+//
+// the cells revealed by the last fill are left in revealed[0, size), in the order they
+// were revealed, so callers can redraw just those cells; the same array doubles as the
+// work queue and is reused from one fill to the next
+//
+// on a board with an OpeningIndex, a fill from an empty cell reveals its opening from
+// the index instead of searching for it
+class FloodFill {
+  PackedBoard board;
+  int[] revealed;
+  int size;
+  int[] neighbors;
+
+  FloodFill(PackedBoard board) {
+    this.board = board;
+    this.revealed = new int[64];
+    this.size = 0;
+    this.neighbors = new int[Topology.MAX_NEIGHBORS];
+  }
+
+  // reveals every hidden non-mine cell reachable from the cell at the given index
+  // through empty cells, and returns how many cells were revealed
+  int flood(int index) {
+    byte[] cells = board.cells;
+    this.size = 0;
+    if (board.openings != null && board.openings.opening[index] >= 0) {
+      return board.openings.reveal(board.openings.opening[index], this);
+    }
+    this.expand(index, cells);
+    return this.spread(cells);
+  }
+
+  // reveals every hidden non-mine cell reachable through empty cells from any of the
+  // first count cells of the given indexes, spreading from all of them together so
+  // that no cell is visited twice, and returns how many cells were revealed
+  int floodAll(int[] indexes, int count) {
+    byte[] cells = board.cells;
+    this.size = 0;
+    OpeningIndex openings = board.openings;
+    for (int k = 0; k < count; k++) {
+      if (openings != null && openings.opening[indexes[k]] >= 0) {
+        openings.reveal(openings.opening[indexes[k]], this);
+      }
+      else {
+        this.expand(indexes[k], cells);
+      }
+    }
+    if (openings != null) {
+      return this.size;
+    }
+    return this.spread(cells);
+  }
+
+  // expands every empty cell revealed so far, and the empty cells those reveal, until
+  // there are none left
+  int spread(byte[] cells) {
+    for (int next = 0; next < this.size; next++) {
+      int cell = this.revealed[next];
+      if (board.adjacent(cell) == 0) {
+        this.expand(cell, cells);
+      }
+    }
+    return this.size;
+  }
+
+  // reveals the hidden non-mine neighbors of the cell at the given index and queues them
+  void expand(int index, byte[] cells) {
+    int count = board.neighbors(index, this.neighbors);
+    for (int k = 0; k < count; k++) {
+      int neighbor = this.neighbors[k];
+      if ((cells[neighbor] & (PackedBoard.MINE | PackedBoard.REVEALED)) == 0) {
+        cells[neighbor] |= PackedBoard.REVEALED;
+        this.add(neighbor);
+      }
+    }
+  }
+
+  // adds the cell at the given index to the cells revealed
+  void add(int index) {
+    if (this.size == this.revealed.length) {
+      this.grow(board.cells.length);
+    }
+    this.revealed[this.size] = index;
+    this.size++;
+  }
+
+  // doubles the queue, never past the number of cells on the board
+  void grow(int limit) {
+    int[] bigger = new int[(int) Math.min((long) this.revealed.length * 2, limit)];
+    System.arraycopy(this.revealed, 0, bigger, 0, this.size);
+    this.revealed = bigger;
+  }
+}
+
+// examples and tests for the flood fill
+class ExamplesFloodFill {
+  PackedBoard board, empty;
+  Minesweeper game;
+
+  void init() {
+    this.board = new PackedBoard(16, 30, 99, new Random(3));
+    this.game = new Minesweeper(16, 30, 99, new Random(3));
+    this.empty = new PackedBoard(3, 3, 0, new Random());
+  }
+
+  // test for flood on a board with no mines
+  void testFloodEmpty(Tester t) {
+    this.init();
+    this.empty.cells[0] |= PackedBoard.REVEALED;
+    t.checkExpect(this.empty.flood.flood(0), 8);
+    t.checkExpect(this.empty.flood.revealed[0], 1);
+    t.checkExpect(this.empty.isRevealed(2, 2), true);
+    // nothing is left to reveal, and the buffer is reused
+    int[] buffer = this.empty.flood.revealed;
+    t.checkExpect(this.empty.flood.flood(0), 0);
+    t.checkExpect(this.empty.flood.revealed == buffer, true);
+  }
+
+  // test for floodAll, which spreads from several cells together
+  void testFloodAll(Tester t) {
+    this.init();
+    // two empty regions split by a column of mines
+    PackedBoard split = new PackedBoard(3, 7, 0, new Random());
+    for (int row = 0; row < 3; row++) {
+      split.cells[row * 7 + 3] |= PackedBoard.MINE;
+    }
+    split.countAdjacentMines();
+    split.cells[0] |= PackedBoard.REVEALED;
+    split.cells[6] |= PackedBoard.REVEALED;
+    int[] starts = { 0, 6, 0 };
+    // each side has nine cells, and its corner was already revealed
+    t.checkExpect(split.flood.floodAll(starts, 2), 16);
+    t.checkExpect(split.isRevealed(2, 2), true);
+    t.checkExpect(split.isRevealed(2, 4), true);
+    t.checkExpect(split.isRevealed(1, 3), false);
+    // starting twice from the same cell reveals nothing twice
+    t.checkExpect(split.flood.floodAll(starts, 3), 0);
+  }
+
+  // test that flooding stops at mines and numbered cells
+  void testFloodStops(Tester t) {
+    this.init();
+    PackedBoard line = new PackedBoard(1, 5, 0, new Random());
+    line.cells[4] |= PackedBoard.MINE;
+    line.countAdjacentMines();
+    line.revealCell(0, 0);
+    t.checkExpect(line.isRevealed(0, 2), true);
+    t.checkExpect(line.isRevealed(0, 3), true);
+    t.checkExpect(line.isRevealed(0, 4), false);
+    t.checkExpect(line.flood.size, 3);
+  }
+
+  // test that every reveal floods the same cells as the Cell grid of Minesweeper
+  void testSameAsMinesweeper(Tester t) {
+    this.init();
+    boolean same = true;
+    for (int i = 0; i < 16; i++) {
+      for (int j = 0; j < 30; j++) {
+        if (!this.board.isMine(i, j) && !this.board.isRevealed(i, j)) {
+          this.board.revealCell(i, j);
+          this.game.revealCell(i, j);
+          for (int x = 0; x < 16; x++) {
+            for (int y = 0; y < 30; y++) {
+              same = same
+                  && this.board.isRevealed(x, y) == this.game.grid.get(x).get(y).isRevealed;
+            }
+          }
+        }
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // stress test: one click on a 4096x4096 board with no mines reveals all of it
+  void testFloodStress(Tester t) {
+    PackedBoard huge = new PackedBoard(4096, 4096, 0, new Random());
+    huge.revealCell(2048, 2048);
+    t.checkExpect(huge.flood.size, 4096 * 4096 - 1);
+    t.checkExpect(huge.isRevealed(0, 0), true);
+    t.checkExpect(huge.isRevealed(4095, 4095), true);
+  }
+}
@@ -0,0 +1,554 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.imageio.ImageIO;
+import tester.*;
+
+// draws a packed board without a window, straight into a raster of pixels, for
+// pictures of boards far too big to put on screen through a WorldScene
+//
+// every cell is copied from the pixels of its tile, so the picture looks like the game;
+// cells smaller than CELL_SIZE are shrunk from the full-size tiles by averaging, down
+// to one pixel per cell, where each state is a single color
+//
+// the rows of the board are split into bands that are drawn in parallel by a fork-join
+// pool; a PNG is written one band at a time, each band filtered and compressed on its
+// own and written in order as soon as it and the bands before it are done, so a picture
+// bigger than memory can still be written
+class FrameRenderer implements WorldConstants {
+  // about how many pixels each band of a PNG holds
+  static final int BAND_PIXELS = 1 << 20;
+  static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+  // the largest number of ints an array can hold on most virtual machines
+  static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+  PackedBoard board;
+  int cellSize;
+  // whether mines that have not been revealed are drawn as if they had been
+  boolean showMines;
+  ForkJoinPool pool;
+  // the pixels of each state's tile at this cell size, row by row
+  int[][] sprites;
+  int width;
+  int height;
+  int bandPixels;
+
+  FrameRenderer(PackedBoard board, int cellSize, boolean showMines, ForkJoinPool pool) {
+    checkSize(board.rows, board.columns, cellSize);
+    this.board = board;
+    this.cellSize = cellSize;
+    this.showMines = showMines;
+    this.pool = pool;
+    this.sprites = sprites(cellSize);
+    this.width = board.columns * cellSize;
+    this.height = board.rows * cellSize;
+    this.bandPixels = BAND_PIXELS;
+  }
+
+  // checks that a board of the given size can be drawn at the given number of pixels per
+  // cell, which takes a row of cells to fit in one array and the height in an int
+  static void checkSize(int rows, int columns, int cellSize) {
+    if (cellSize < 1) {
+      throw new IllegalArgumentException("A cell must be at least one pixel wide");
+    }
+    if ((long) columns * cellSize * cellSize * 4 > MAX_ARRAY
+        || (long) rows * cellSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("A " + rows + "x" + columns
+          + " board is too large to draw at " + cellSize + " pixels per cell");
+    }
+  }
+
+  // checks that an image of the given size fits in one array
+  static void checkImage(int width, int height) {
+    if ((long) width * height > MAX_ARRAY) {
+      throw new IllegalArgumentException("An image of " + (long) width * height
+          + " pixels is too large to hold in memory; write it as a PNG instead");
+    }
+  }
+
+  // the pixels of every state's tile at the given cell size
+  static int[][] sprites(int cellSize) {
+    int[][] sprites = new int[TileCache.STATES][];
+    if (cellSize >= CELL_SIZE) {
+      TileCache tiles = TileCache.of(cellSize);
+      for (int state = 0; state < TileCache.STATES; state++) {
+        sprites[state] = tiles.pixels(state);
+      }
+      return sprites;
+    }
+    TileCache tiles = TileCache.of(CELL_SIZE);
+    for (int state = 0; state < TileCache.STATES; state++) {
+      sprites[state] = shrink(tiles.pixels(state), CELL_SIZE, cellSize);
+    }
+    return sprites;
+  }
+
+  // the given square of pixels shrunk to the given size, each pixel the average of the
+  // pixels it covers
+  static int[] shrink(int[] pixels, int from, int to) {
+    int[] shrunk = new int[to * to];
+    for (int y = 0; y < to; y++) {
+      for (int x = 0; x < to; x++) {
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        int count = 0;
+        for (int sy = y * from / to; sy < (y + 1) * from / to; sy++) {
+          for (int sx = x * from / to; sx < (x + 1) * from / to; sx++) {
+            int argb = pixels[sy * from + sx];
+            red += (argb >> 16) & 0xFF;
+            green += (argb >> 8) & 0xFF;
+            blue += argb & 0xFF;
+            count++;
+          }
+        }
+        shrunk[y * to + x] = 0xFF000000 | (red / count) << 16 | (green / count) << 8
+            | blue / count;
+      }
+    }
+    return shrunk;
+  }
+
+  // the state of the tile of the cell at the given index, which only reads the board,
+  // so that many bands can be drawn at once
+  int state(int index, int[] around) {
+    byte cell = board.cells[index];
+    if ((cell & PackedBoard.REVEALED) == 0) {
+      if ((cell & PackedBoard.FLAGGED) != 0) {
+        return TileCache.FLAGGED;
+      }
+      if (this.showMines && (cell & PackedBoard.MINE) != 0) {
+        return TileCache.MINE;
+      }
+      return TileCache.HIDDEN;
+    }
+    if ((cell & PackedBoard.MINE) != 0) {
+      return TileCache.MINE;
+    }
+    if ((cell & PackedBoard.COUNTED) != 0) {
+      return TileCache.EMPTY + (cell & PackedBoard.ADJACENT_MASK);
+    }
+    // counted here rather than by the board, which would write the count back
+    int count = 0;
+    int size = board.topology.neighbors(index, around);
+    for (int k = 0; k < size; k++) {
+      if ((board.cells[around[k]] & PackedBoard.MINE) != 0) {
+        count++;
+      }
+    }
+    return TileCache.EMPTY + count;
+  }
+
+  // draws the rows of cells from the row from up to but not including to into the
+  // given raster, starting at the given offset, width pixels to a line
+  void paint(int from, int to, int[] raster, int offset) {
+    int size = this.cellSize;
+    int columns = board.columns;
+    int[] states = new int[columns];
+    int[] around = new int[Topology.MAX_NEIGHBORS];
+    for (int row = from; row < to; row++) {
+      for (int col = 0; col < columns; col++) {
+        states[col] = this.state(row * columns + col, around);
+      }
+      int line = offset + (row - from) * size * this.width;
+      if (size == 1) {
+        for (int col = 0; col < columns; col++) {
+          raster[line + col] = this.sprites[states[col]][0];
+        }
+        continue;
+      }
+      for (int y = 0; y < size; y++) {
+        int at = line + y * this.width;
+        for (int col = 0; col < columns; col++) {
+          System.arraycopy(this.sprites[states[col]], y * size, raster, at, size);
+          at += size;
+        }
+      }
+    }
+  }
+
+  // the whole board drawn into an image, as long as its pixels fit in one array
+  BufferedImage render() {
+    checkImage(this.width, this.height);
+    BufferedImage image = new BufferedImage(this.width, this.height,
+        BufferedImage.TYPE_INT_RGB);
+    int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    int rowPixels = this.width * this.cellSize;
+    ParallelInit.run(this.pool, board.rows, rowPixels,
+        (from, to) -> this.paint(from, to, raster, from * rowPixels));
+    return image;
+  }
+
+  // writes the whole board to the given stream as a PNG, holding only as many bands
+  // in memory as the pool has threads to work on them, twice over
+  void writePng(OutputStream out) throws IOException {
+    int rowsPerBand = Math.max(1, this.bandPixels / (this.width * this.cellSize));
+    int bands = (board.rows + rowsPerBand - 1) / rowsPerBand;
+    int window = 2 * this.pool.getParallelism();
+    ArrayDeque<ForkJoinTask<EncodedBand>> pending =
+        new ArrayDeque<ForkJoinTask<EncodedBand>>();
+
+    out.write(SIGNATURE);
+    byte[] header = new byte[13];
+    putInt(header, 0, this.width);
+    putInt(header, 4, this.height);
+    // eight bits per channel, red, green and blue, compressed with deflate, filtered
+    // line by line and not interlaced
+    header[8] = 8;
+    header[9] = 2;
+    chunk(out, "IHDR", header, header.length);
+    // the zlib header of the deflate stream the bands make up between them: a 32K
+    // window, compressed for speed
+    chunk(out, "IDAT", new byte[] { 0x78, 0x01 }, 2);
+
+    long adler = 1;
+    int next = 0;
+    try {
+      while (next < bands || !pending.isEmpty()) {
+        while (next < bands && pending.size() < window) {
+          int from = next * rowsPerBand;
+          int to = Math.min(board.rows, from + rowsPerBand);
+          boolean last = next == bands - 1;
+          pending.add(this.pool.submit(() -> this.encode(from, to, last)));
+          next++;
+        }
+        EncodedBand band = pending.remove().join();
+        chunk(out, "IDAT", band.deflated, band.deflated.length);
+        adler = combine(adler, band.adler, band.length);
+      }
+    }
+    finally {
+      for (ForkJoinTask<EncodedBand> task : pending) {
+        task.cancel(true);
+      }
+    }
+
+    byte[] checksum = new byte[4];
+    putInt(checksum, 0, (int) adler);
+    chunk(out, "IDAT", checksum, 4);
+    chunk(out, "IEND", new byte[0], 0);
+    out.flush();
+  }
+
+  // draws, filters and compresses the rows of cells from the row from up to but not
+  // including to, ending the deflate stream if they are the last rows
+  EncodedBand encode(int from, int to, boolean last) {
+    int lines = (to - from) * this.cellSize;
+    int[] raster = new int[lines * this.width];
+    this.paint(from, to, raster, 0);
+
+    // each line starts with its filter: none for the first line of a band, so that it
+    // does not depend on the band before, and up for the rest, which for tiles repeated
+    // down a row is mostly zeros
+    int stride = 1 + 3 * this.width;
+    byte[] raw = new byte[lines * stride];
+    for (int y = 0; y < lines; y++) {
+      int at = y * stride + 1;
+      for (int x = 0; x < this.width; x++) {
+        int rgb = raster[y * this.width + x];
+        raw[at] = (byte) (rgb >> 16);
+        raw[at + 1] = (byte) (rgb >> 8);
+        raw[at + 2] = (byte) rgb;
+        at += 3;
+      }
+    }
+    for (int y = lines - 1; y > 0; y--) {
+      int at = y * stride;
+      raw[at] = 2;
+      for (int k = 1; k < stride; k++) {
+        raw[at + k] -= raw[at - stride + k];
+      }
+    }
+
+    Adler32 adler = new Adler32();
+    adler.update(raw);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    deflater.setInput(raw);
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 8 + 64);
+    byte[] buffer = new byte[1 << 16];
+    if (last) {
+      deflater.finish();
+      while (!deflater.finished()) {
+        deflated.write(buffer, 0, deflater.deflate(buffer));
+      }
+    }
+    else {
+      // flushed so the stream ends on a byte boundary and the next band can follow it
+      int written;
+      do {
+        written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+        deflated.write(buffer, 0, written);
+      } while (written == buffer.length);
+    }
+    deflater.end();
+    return new EncodedBand(deflated.toByteArray(), adler.getValue(), raw.length);
+  }
+
+  // the Adler-32 of two runs of bytes one after the other, from the Adler-32 of each
+  // and the length of the second
+  static long combine(long first, long second, long length) {
+    final long base = 65521;
+    long rem = length % base;
+    long sum1 = first & 0xFFFF;
+    long sum2 = rem * sum1 % base;
+    sum1 += (second & 0xFFFF) + base - 1;
+    sum2 += ((first >>> 16) & 0xFFFF) + ((second >>> 16) & 0xFFFF) + base - rem;
+    if (sum1 >= base) {
+      sum1 -= base;
+    }
+    if (sum1 >= base) {
+      sum1 -= base;
+    }
+    if (sum2 >= 2 * base) {
+      sum2 -= 2 * base;
+    }
+    if (sum2 >= base) {
+      sum2 -= base;
+    }
+    return sum1 | sum2 << 16;
+  }
+
+  // writes a PNG chunk of the given type holding the first length bytes of data
+  static void chunk(OutputStream out, String type, byte[] data, int length)
+      throws IOException {
+    byte[] prefix = new byte[8];
+    putInt(prefix, 0, length);
+    for (int k = 0; k < 4; k++) {
+      prefix[4 + k] = (byte) type.charAt(k);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(prefix, 4, 4);
+    crc.update(data, 0, length);
+    byte[] suffix = new byte[4];
+    putInt(suffix, 0, (int) crc.getValue());
+    out.write(prefix);
+    out.write(data, 0, length);
+    out.write(suffix);
+  }
+
+  // writes the given int into bytes at the given offset, most significant byte first
+  static void putInt(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+
+  // draws a board that has been played for a while to a PNG and reports how long it
+  // took, with the rows, columns, mines, pixels per cell, file and threads as arguments
+  public static void main(String[] args) throws IOException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int columns = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+    int mines = args.length > 2 ? Integer.parseInt(args[2]) : rows * columns / 6;
+    int cellSize = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+    String file = args.length > 4 ? args[4] : "board.png";
+    int threads = args.length > 5 ? Integer.parseInt(args[5])
+        : Runtime.getRuntime().availableProcessors();
+
+    PackedBoard board = new PackedBoard(rows, columns, mines, 1, true);
+    board.indexOpenings();
+    Random random = new Random(1);
+    board.revealCell(rows / 2, columns / 2);
+    for (int click = 0; click < rows * columns / 100; click++) {
+      int index = random.nextInt(rows * columns);
+      if ((board.cells[index] & PackedBoard.MINE) != 0) {
+        board.flagCell(index / columns, index % columns);
+      }
+      else {
+        board.revealCell(index / columns, index % columns);
+      }
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    FrameRenderer renderer = new FrameRenderer(board, cellSize, true, pool);
+    long start = System.nanoTime();
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+      renderer.writePng(out);
+    }
+    long millis = (System.nanoTime() - start) / 1000000;
+    System.out.println("Drew a " + rows + "x" + columns + " board, " + renderer.width + "x"
+        + renderer.height + " pixels, to " + file + " in " + millis + " ms on " + threads
+        + " threads");
+    pool.shutdown();
+  }
+}
+
+// represents one band of a PNG, filtered and compressed
+class EncodedBand {
+  byte[] deflated;
+  // the Adler-32 of the band's bytes before they were compressed, and how many
+  long adler;
+  int length;
+
+  EncodedBand(byte[] deflated, long adler, int length) {
+    this.deflated = deflated;
+    this.adler = adler;
+    this.length = length;
+  }
+}
+
+// examples and tests for the frame renderer
+class ExamplesFrameRenderer implements WorldConstants {
+  PackedBoard board;
+  // one pool for every test, rather than one per test
+  ForkJoinPool pool = new ForkJoinPool(2);
+
+  void init() {
+    this.board = new PackedBoard(16, 30, 99, new Random(4));
+    this.board.revealCell(0, 0);
+    this.board.revealCell(8, 15);
+    this.board.flagCell(15, 29);
+  }
+
+  // the pixels of the given image, row by row
+  int[] pixels(BufferedImage image) {
+    return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0,
+        image.getWidth());
+  }
+
+  // the given renderer's board written as a PNG and read back
+  BufferedImage roundTrip(FrameRenderer renderer) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    renderer.writePng(out);
+    return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  // test that each cell is drawn with the pixels of its tile
+  void testRender(Tester t) {
+    this.init();
+    BufferedImage image = new FrameRenderer(this.board, CELL_SIZE, false, this.pool).render();
+    t.checkExpect(image.getWidth(), 30 * CELL_SIZE);
+    t.checkExpect(image.getHeight(), 16 * CELL_SIZE);
+    TileCache tiles = TileCache.of(CELL_SIZE);
+    boolean same = true;
+    for (int row = 0; row < 16; row++) {
+      for (int col = 0; col < 30; col++) {
+        int[] tile = image.getRGB(col * CELL_SIZE, row * CELL_SIZE, CELL_SIZE, CELL_SIZE,
+            null, 0, CELL_SIZE);
+        int[] expected = tiles.pixels(TileCache.state(this.board.isMine(row, col),
+            this.board.adjacentMines(row, col), this.board.isRevealed(row, col),
+            this.board.isFlagged(row, col)));
+        for (int k = 0; k < tile.length; k++) {
+          same = same && tile[k] == expected[k];
+        }
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // test that at one pixel per cell each state is its own color, and that mines are
+  // only shown when asked for
+  void testOnePixelPerCell(Tester t) {
+    this.init();
+    FrameRenderer hidden = new FrameRenderer(this.board, 1, false, this.pool);
+    FrameRenderer shown = new FrameRenderer(this.board, 1, true, this.pool);
+    int[] colors = new int[TileCache.STATES];
+    for (int state = 0; state < TileCache.STATES; state++) {
+      colors[state] = hidden.sprites[state][0];
+    }
+    t.checkExpect(colors[TileCache.MINE], 0xFFFF0000);
+    t.checkExpect(colors[TileCache.FLAGGED], 0xFF000000 | java.awt.Color.ORANGE.getRGB());
+    t.checkExpect(colors[TileCache.HIDDEN] != colors[TileCache.EMPTY], true);
+    t.checkExpect(colors[TileCache.EMPTY] != colors[TileCache.EMPTY + 1], true);
+
+    int mine = 0;
+    while (!this.board.isMine(mine / 30, mine % 30) || this.board.isFlagged(mine / 30,
+        mine % 30)) {
+      mine++;
+    }
+    t.checkExpect(hidden.render().getRGB(mine % 30, mine / 30), colors[TileCache.HIDDEN]);
+    t.checkExpect(shown.render().getRGB(mine % 30, mine / 30), colors[TileCache.MINE]);
+    t.checkExpect(shown.render().getRGB(29, 15), colors[TileCache.FLAGGED]);
+  }
+
+  // test for shrink
+  void testShrink(Tester t) {
+    t.checkExpect(FrameRenderer.shrink(new int[] { 0xFF000000, 0xFFFFFFFF, 0xFFFFFFFF,
+        0xFF000000 }, 2, 1), new int[] { 0xFF7F7F7F });
+    t.checkExpect(FrameRenderer.shrink(new int[] { 0xFF0000FF, 0xFF0000FF, 0xFF00FF00,
+        0xFF00FF00 }, 2, 2), new int[] { 0xFF0000FF, 0xFF0000FF, 0xFF00FF00, 0xFF00FF00 });
+  }
+
+  // test that a PNG written in many bands reads back as the same picture
+  void testWritePng(Tester t) throws IOException {
+    this.init();
+    for (int cellSize : new int[] { 1, 5, CELL_SIZE }) {
+      FrameRenderer renderer = new FrameRenderer(this.board, cellSize, true, this.pool);
+      t.checkExpect(this.pixels(this.roundTrip(renderer)), this.pixels(renderer.render()));
+      // a band of a single row of cells
+      renderer.bandPixels = 1;
+      t.checkExpect(this.pixels(this.roundTrip(renderer)), this.pixels(renderer.render()));
+    }
+  }
+
+  // test that revealed cells not yet counted are counted without changing the board
+  void testUncounted(Tester t) {
+    this.init();
+    PackedBoard board = new PackedBoard(3, 3, 1, new Random());
+    Arrays.fill(board.cells, (byte) 0);
+    board.cells[4] = PackedBoard.MINE;
+    board.cells[0] = PackedBoard.REVEALED;
+    FrameRenderer renderer = new FrameRenderer(board, 1, false, this.pool);
+    t.checkExpect(renderer.state(0, new int[Topology.MAX_NEIGHBORS]), TileCache.EMPTY + 1);
+    t.checkExpect(board.cells[0], (byte) PackedBoard.REVEALED);
+  }
+
+  // test for combine
+  void testCombine(Tester t) {
+    byte[] bytes = new byte[100000];
+    new Random(3).nextBytes(bytes);
+    Adler32 whole = new Adler32();
+    whole.update(bytes);
+    Adler32 first = new Adler32();
+    first.update(bytes, 0, 70000);
+    Adler32 second = new Adler32();
+    second.update(bytes, 70000, 30000);
+    t.checkExpect(FrameRenderer.combine(first.getValue(), second.getValue(), 30000),
+        whole.getValue());
+    t.checkExpect(FrameRenderer.combine(1, whole.getValue(), 100000), whole.getValue());
+  }
+
+  // test for the errors of the renderer
+  void testErrors(Tester t) {
+    this.init();
+    t.checkConstructorException(
+        new IllegalArgumentException("A cell must be at least one pixel wide"),
+        "FrameRenderer", this.board, 0, false, this.pool);
+    // checked on the sizes alone, since boards this big would take hundreds of megabytes
+    t.checkException(new IllegalArgumentException(
+        "A 1x100000000 board is too large to draw at 20 pixels per cell"),
+        new FrameRenderer(this.board, 1, false, this.pool), "checkSize", 1, 100000000,
+        CELL_SIZE);
+    t.checkException(new IllegalArgumentException(
+        "A 2147483647x1 board is too large to draw at 2 pixels per cell"),
+        new FrameRenderer(this.board, 1, false, this.pool), "checkSize", Integer.MAX_VALUE,
+        1, 2);
+    t.checkException(new IllegalArgumentException("An image of 4000000000 pixels is too "
+        + "large to hold in memory; write it as a PNG instead"),
+        new FrameRenderer(this.board, 1, false, this.pool), "checkImage", 2000, 2000000);
+  }
+
+  // stress test: a 5000x5000 board written at one pixel per cell
+  void testLargeBoard(Tester t) throws IOException {
+    this.init();
+    PackedBoard huge = new PackedBoard(5000, 5000, 4000000, new Random(5));
+    huge.revealCell(2500, 2500);
+    FrameRenderer renderer = new FrameRenderer(huge, 1, true, this.pool);
+    BufferedImage image = this.roundTrip(renderer);
+    t.checkExpect(image.getWidth(), 5000);
+    t.checkExpect(this.pixels(image), this.pixels(renderer.render()));
+  }
+}
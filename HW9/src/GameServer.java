@@ -0,0 +1,778 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import tester.*;
+
+// hosts many games at once for players who connect over TCP on localhost, one command
+// per line:
+//
+//   NEW rows columns mines seed     starts a game, first click safe     OK id
+//   SHARED rows columns mines seed  starts a board for many players     OK id
+//   REVEAL id row col               reveals a cell                      OK state safe flags
+//   FLAG id row col                 flags or unflags a cell             OK state safe flags
+//   CLOSE id                        ends a game                         OK
+//
+// where state is PLAYING, WON or LOST, safe is the number of safe cells revealed and
+// flags the number of flags; anything that goes wrong is answered with ERROR and why
+//
+// every connection is read and written by one thread with a selector, so thousands of
+// players do not need thousands of threads; the moves themselves run on a pool of
+// workers, through a SerialExecutor for each game, so the moves on one game are made one
+// at a time in the order they arrived while different games are played in parallel
+//
+// a game belongs to the connection that started it, which can have at most
+// MAX_GAMES_PER_CONNECTION open at once, and is closed when that connection closes, so
+// a player who starts games and leaves cannot fill up the memory
+//
+// replies to commands on the same game come back in order, so a player who waits for
+// each reply, as LoadGenerator does, always knows which command it answers; a shared
+// board is a SharedBoard, whose moves are made on any worker as soon as they arrive, so
+// players on it see the moves of the others between their own, and their replies may
+// come back in any order; on either kind of game, CLOSE waits for every move sent
+// before it to be made, and moves sent after it are answered with an error
+//
+// run with: java -cp "bin:libs/*" GameServer [port] [threads]
+class GameServer implements Runnable {
+  static final int DEFAULT_PORT = 7878;
+  // the longest command, in bytes, that is read
+  static final int LINE_LIMIT = 256;
+  // the most games one connection can have open at once
+  static final int MAX_GAMES_PER_CONNECTION = 16;
+
+  ServerSocketChannel server;
+  Selector selector;
+  ExecutorService workers;
+  ConcurrentHashMap<Integer, HostedGame> games;
+  AtomicInteger nextId;
+  // connections with replies waiting to be written by the selector thread
+  ConcurrentLinkedQueue<Connection> writable;
+  // whether the selector has been woken to write replies and has not got to them yet,
+  // so that a burst of replies wakes it only once
+  AtomicBoolean woken;
+  volatile boolean running;
+  Thread thread;
+
+  // a server on the given port of localhost, or any free port if it is 0, playing moves
+  // on the given number of worker threads
+  GameServer(int port, int threads) throws IOException {
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    this.server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+    this.server.configureBlocking(false);
+    this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+    this.workers = Executors.newFixedThreadPool(threads, task -> {
+      Thread worker = new Thread(task, "game-worker");
+      worker.setDaemon(true);
+      return worker;
+    });
+    this.games = new ConcurrentHashMap<Integer, HostedGame>();
+    this.nextId = new AtomicInteger();
+    this.writable = new ConcurrentLinkedQueue<Connection>();
+    this.woken = new AtomicBoolean();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    int threads = args.length > 1 ? Integer.parseInt(args[1])
+        : Runtime.getRuntime().availableProcessors();
+    GameServer server = new GameServer(port, threads);
+    Metrics.install();
+    server.start();
+    System.out.println("Serving games on port " + server.port() + " with " + threads
+        + " worker threads");
+    server.thread.join();
+  }
+
+  // the port the server is listening on
+  int port() throws IOException {
+    return ((InetSocketAddress) this.server.getLocalAddress()).getPort();
+  }
+
+  // starts serving on a thread of its own
+  void start() {
+    this.running = true;
+    this.thread = new Thread(this, "game-server");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  // stops serving and closes every connection
+  void stop() throws IOException, InterruptedException {
+    this.running = false;
+    this.selector.wakeup();
+    this.thread.join();
+    for (SelectionKey key : this.selector.keys()) {
+      key.channel().close();
+    }
+    this.selector.close();
+    this.workers.shutdown();
+  }
+
+  // accepts connections, reads commands and writes replies until stopped
+  public void run() {
+    try {
+      while (this.running) {
+        this.selector.select();
+        // before writing, so that a reply queued from here on wakes the selector again
+        this.woken.set(false);
+        Connection waiting;
+        while ((waiting = this.writable.poll()) != null) {
+          this.flush(waiting);
+        }
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            this.accept();
+            continue;
+          }
+          Connection connection = (Connection) key.attachment();
+          if (key.isReadable()) {
+            this.read(connection);
+          }
+          if (key.isValid() && key.isWritable()) {
+            this.flush(connection);
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // accepts every connection that is waiting; a connection that cannot be accepted or
+  // set up, as when the process has run out of open files, is dropped on its own so
+  // that every other connection and game is kept
+  void accept() {
+    while (true) {
+      SocketChannel channel;
+      try {
+        channel = this.server.accept();
+      }
+      catch (IOException e) {
+        // tried again the next time the selector finds a connection waiting
+        return;
+      }
+      if (channel == null) {
+        return;
+      }
+      try {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Connection connection = new Connection(this, channel);
+        connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+      }
+      catch (IOException e) {
+        try {
+          channel.close();
+        }
+        catch (IOException closing) {
+          // it is being thrown away either way
+        }
+      }
+    }
+  }
+
+  // reads what has arrived on the given connection and handles every whole line of it
+  void read(Connection connection) {
+    ByteBuffer in = connection.in;
+    int read;
+    try {
+      read = connection.channel.read(in);
+    }
+    catch (IOException e) {
+      read = -1;
+    }
+    if (read < 0) {
+      this.close(connection);
+      return;
+    }
+    in.flip();
+    int start = 0;
+    for (int i = 0; i < in.limit(); i++) {
+      if (in.get(i) == '\n') {
+        if (connection.discarding) {
+          // the end of a line that was too long, none of which is a command
+          connection.discarding = false;
+        }
+        else {
+          String line = new String(in.array(), start, i - start, StandardCharsets.US_ASCII);
+          this.handle(connection, line.trim());
+        }
+        start = i + 1;
+      }
+    }
+    if (connection.discarding) {
+      start = in.limit();
+    }
+    in.position(start);
+    in.compact();
+    if (!in.hasRemaining()) {
+      in.clear();
+      connection.discarding = true;
+      connection.send("ERROR Commands are at most " + LINE_LIMIT + " bytes");
+    }
+  }
+
+  // writes as much of the replies waiting on the given connection as the socket takes,
+  // waiting for it to be writable again if that is not all of them
+  void flush(Connection connection) {
+    if (!connection.key.isValid()) {
+      return;
+    }
+    try {
+      ByteBuffer reply;
+      while ((reply = connection.out.peek()) != null) {
+        connection.channel.write(reply);
+        if (reply.hasRemaining()) {
+          connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+        connection.out.poll();
+      }
+      connection.key.interestOps(SelectionKey.OP_READ);
+    }
+    catch (IOException e) {
+      this.close(connection);
+    }
+  }
+
+  // closes the given connection and the games it started
+  void close(Connection connection) {
+    connection.closed = true;
+    for (int id : connection.games) {
+      this.remove(id);
+    }
+    connection.key.cancel();
+    try {
+      connection.channel.close();
+    }
+    catch (IOException e) {
+      // it is being thrown away either way
+    }
+  }
+
+  // starts the given command, replying on the given connection once it has been played
+  void handle(Connection connection, String line) {
+    if (line.isEmpty()) {
+      return;
+    }
+    String[] words = line.split(" +");
+    String command = words[0];
+    try {
+      if (command.equals("NEW") || command.equals("SHARED")) {
+        expect(words, 5, command + " rows columns mines seed");
+        boolean shared = command.equals("SHARED");
+        int rows = Integer.parseInt(words[1]);
+        int columns = Integer.parseInt(words[2]);
+        int mines = Integer.parseInt(words[3]);
+        long seed = Long.parseLong(words[4]);
+        if (connection.open.incrementAndGet() > MAX_GAMES_PER_CONNECTION) {
+          connection.open.decrementAndGet();
+          throw new IllegalArgumentException("A connection can have at most "
+              + MAX_GAMES_PER_CONNECTION + " games open");
+        }
+        // building a board can take a while, so it is not done on the selector thread
+        this.workers.execute(() -> connection.reply(() -> {
+          HostedGame game;
+          try {
+            game = new HostedGame(rows, columns, mines, seed, shared, this.workers);
+          }
+          catch (RuntimeException e) {
+            connection.open.decrementAndGet();
+            throw e;
+          }
+          int id = this.nextId.incrementAndGet();
+          game.owner = connection;
+          this.games.put(id, game);
+          connection.games.add(id);
+          // the connection may have closed while the board was being built
+          if (connection.closed) {
+            this.remove(id);
+          }
+          return "OK " + id;
+        }));
+      }
+      else if (command.equals("REVEAL") || command.equals("FLAG")) {
+        expect(words, 4, command + " id row col");
+        HostedGame game = this.game(words[1]);
+        int row = Integer.parseInt(words[2]);
+        int col = Integer.parseInt(words[3]);
+        boolean reveal = command.equals("REVEAL");
+        if (!game.begin()) {
+          throw new IllegalArgumentException("No game " + words[1]);
+        }
+        game.moves.execute(() -> {
+          try {
+            connection.reply(() -> game.move(reveal, row, col));
+          }
+          finally {
+            game.end();
+          }
+        });
+      }
+      else if (command.equals("CLOSE")) {
+        expect(words, 2, "CLOSE id");
+        int id = Integer.parseInt(words[1]);
+        HostedGame game = this.game(words[1]);
+        // once the moves already sent to it are made, which on a shared board may be
+        // on any worker and in any order
+        if (!game.close(() -> connection.reply(() -> {
+          this.remove(id);
+          return "OK";
+        }))) {
+          throw new IllegalArgumentException("No game " + words[1]);
+        }
+      }
+      else {
+        throw new IllegalArgumentException("Unknown command " + command);
+      }
+    }
+    catch (IllegalArgumentException e) {
+      connection.send("ERROR " + e.getMessage());
+    }
+  }
+
+  // removes the game with the given id, if it is still open, from the server and from
+  // the games of the connection that started it
+  void remove(int id) {
+    HostedGame game = this.games.remove(id);
+    if (game != null && game.owner != null) {
+      game.owner.games.remove(id);
+      game.owner.open.decrementAndGet();
+    }
+  }
+
+  // the game with the given id
+  HostedGame game(String id) {
+    HostedGame game = this.games.get(Integer.parseInt(id));
+    if (game == null) {
+      throw new IllegalArgumentException("No game " + id);
+    }
+    return game;
+  }
+
+  // checks that a command has the given number of words
+  static void expect(String[] words, int count, String usage) {
+    if (words.length != count) {
+      throw new IllegalArgumentException("Expected " + usage);
+    }
+  }
+}
+
+// a player's connection to the server
+class Connection {
+  GameServer server;
+  SocketChannel channel;
+  SelectionKey key;
+  ByteBuffer in;
+  // whether the rest of a line that was too long is being thrown away, up to its end
+  boolean discarding;
+  // the ids of the games this connection started that are still open
+  Set<Integer> games;
+  // the number of games this connection has open or being built
+  AtomicInteger open;
+  volatile boolean closed;
+  // replies waiting to be written, added by any thread and written by the selector
+  ConcurrentLinkedQueue<ByteBuffer> out;
+
+  Connection(GameServer server, SocketChannel channel) {
+    this.server = server;
+    this.channel = channel;
+    this.in = ByteBuffer.allocate(GameServer.LINE_LIMIT);
+    this.out = new ConcurrentLinkedQueue<ByteBuffer>();
+    this.games = ConcurrentHashMap.newKeySet();
+    this.open = new AtomicInteger();
+  }
+
+  // runs the given command and sends what it returns, or the error it throws
+  void reply(Supplier<String> command) {
+    String reply;
+    try {
+      reply = command.get();
+    }
+    catch (RuntimeException e) {
+      reply = "ERROR " + e.getMessage();
+    }
+    this.send(reply);
+  }
+
+  // queues the given line to be written by the selector thread
+  void send(String line) {
+    this.out.add(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.US_ASCII)));
+    this.server.writable.add(this);
+    if (this.server.woken.compareAndSet(false, true)) {
+      this.server.selector.wakeup();
+    }
+  }
+}
+
+// a game hosted by the server, and the executor its moves are made on
+class HostedGame {
+  // the most cells a hosted board can have, so that one player cannot use up the memory
+  // every other game needs
+  static final long MAX_CELLS = 10L * 1000 * 1000;
+
+  // the board of a game played one move at a time, or null if it is a shared board;
+  // only the board is kept, as BatchSimulator does, so no window or tiles are built
+  PackedBoard board;
+  // the shared board, or null if it is a game played one move at a time
+  SharedBoard shared;
+  // the connection that started this game, which closes it when it closes
+  Connection owner;
+  // the moves begun on this game and not yet made, plus one for the game itself until
+  // CLOSE is sent; whoever brings it to zero runs onClose
+  AtomicInteger active;
+  AtomicBoolean closing;
+  volatile Runnable onClose;
+  // where the moves on this game are made: one at a time for a game, and on any worker
+  // for a shared board, which many moves can be made on at once
+  Executor moves;
+
+  // a game whose mines are placed once the first cell is revealed, or a shared board
+  // whose mines are placed from the seed right away
+  HostedGame(int rows, int columns, int mines, long seed, boolean shared, Executor workers) {
+    this.active = new AtomicInteger(1);
+    this.closing = new AtomicBoolean();
+    if (rows < 1 || columns < 1 || (long) rows * columns > MAX_CELLS) {
+      throw new IllegalArgumentException("Boards have from 1 to " + MAX_CELLS + " cells");
+    }
+    if (shared) {
+      this.shared = new SharedBoard(rows, columns, mines, seed);
+      this.moves = workers;
+    }
+    else {
+      this.board = new PackedBoard(rows, columns, mines, seed, true);
+      this.moves = new SerialExecutor(workers);
+    }
+  }
+
+  // counts a move as begun, unless the game is being closed
+  boolean begin() {
+    int now;
+    do {
+      now = this.active.get();
+      if (now == 0 || this.closing.get()) {
+        return false;
+      }
+    } while (!this.active.compareAndSet(now, now + 1));
+    return true;
+  }
+
+  // counts a move as made, closing the game if it was the last one before CLOSE
+  void end() {
+    if (this.active.decrementAndGet() == 0) {
+      this.onClose.run();
+    }
+  }
+
+  // runs the given task once every move begun so far has been made, or returns false if
+  // the game is already being closed
+  boolean close(Runnable then) {
+    if (!this.closing.compareAndSet(false, true)) {
+      return false;
+    }
+    this.onClose = then;
+    this.end();
+    return true;
+  }
+
+  // reveals or flags the cell at the given row and col, unless the game is over, and
+  // returns the state of the game
+  String move(boolean reveal, int row, int col) {
+    VisibleBoard visible = this.shared != null ? this.shared : this.board;
+    if (row < 0 || row >= visible.rows() || col < 0 || col >= visible.columns()) {
+      throw new IllegalArgumentException("No cell at " + row + ", " + col);
+    }
+    if (this.shared != null) {
+      if (!shared.gameOver()) {
+        if (reveal) {
+          shared.revealCell(row, col);
+        }
+        else {
+          shared.flagCell(row, col);
+        }
+      }
+      return this.status();
+    }
+    if (!board.gameOver) {
+      if (reveal) {
+        long start = Metrics.start();
+        board.revealCell(row, col);
+        Metrics.stop(Metrics.REVEAL, start);
+      }
+      else {
+        board.flagCell(row, col);
+      }
+    }
+    return this.status();
+  }
+
+  // the reply to a move: OK, whether the game is being played, won or lost, and its counts
+  String status() {
+    if (this.shared != null) {
+      String state = shared.won ? "WON" : shared.mineHit ? "LOST" : "PLAYING";
+      return "OK " + state + " " + shared.revealedSafe.get() + " " + shared.flagged.get();
+    }
+    String state = board.won ? "WON" : board.gameOver ? "LOST" : "PLAYING";
+    return "OK " + state + " " + board.revealedSafe + " " + board.flagged;
+  }
+}
+
+// runs the tasks given to it one at a time, in the order they were given, on a shared
+// pool of threads; only one task is ever handed to the pool at once, and it runs up to
+// BATCH tasks before handing the rest back so that a busy game cannot hold a thread
+class SerialExecutor implements Executor {
+  static final int BATCH = 64;
+
+  Executor workers;
+  ConcurrentLinkedQueue<Runnable> tasks;
+  // whether a drain is waiting for or running on a worker
+  AtomicBoolean scheduled;
+
+  SerialExecutor(Executor workers) {
+    this.workers = workers;
+    this.tasks = new ConcurrentLinkedQueue<Runnable>();
+    this.scheduled = new AtomicBoolean();
+  }
+
+  // queues the given task to run after every task given before it
+  public void execute(Runnable task) {
+    this.tasks.add(task);
+    this.schedule();
+  }
+
+  // hands a drain to the pool if there are tasks and none is running
+  void schedule() {
+    if (!this.tasks.isEmpty() && this.scheduled.compareAndSet(false, true)) {
+      this.workers.execute(this::drain);
+    }
+  }
+
+  // runs the waiting tasks, then looks again for any added while it was finishing
+  void drain() {
+    try {
+      Runnable task;
+      for (int ran = 0; ran < BATCH && (task = this.tasks.poll()) != null; ran++) {
+        task.run();
+      }
+    }
+    finally {
+      this.scheduled.set(false);
+      this.schedule();
+    }
+  }
+}
+
+// examples and tests for the game server
+class ExamplesGameServer {
+  // sends a line and returns the reply
+  String ask(PrintWriter out, BufferedReader in, String line) throws IOException {
+    out.print(line + "\n");
+    out.flush();
+    return in.readLine();
+  }
+
+  // test every command, and the errors for the commands that cannot be played
+  void testProtocol(Tester t) throws IOException, InterruptedException {
+    GameServer server = new GameServer(0, 2);
+    server.start();
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+    PrintWriter out = new PrintWriter(socket.getOutputStream());
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.US_ASCII));
+    HostedGame same = new HostedGame(9, 9, 10, 3L, false, Runnable::run);
+    t.checkExpect(this.ask(out, in, "NEW 9 9 10 3"), "OK 1");
+    t.checkExpect(this.ask(out, in, "REVEAL 1 4 4"), same.move(true, 4, 4));
+    t.checkExpect(this.ask(out, in, "FLAG 1 0 0"), same.move(false, 0, 0));
+    t.checkExpect(this.ask(out, in, "REVEAL 1 9 0"), "ERROR No cell at 9, 0");
+    t.checkExpect(this.ask(out, in, "REVEAL 5 0 0"), "ERROR No game 5");
+    t.checkExpect(this.ask(out, in, "REVEAL 1 0"), "ERROR Expected REVEAL id row col");
+    t.checkExpect(this.ask(out, in, "REVEAL 1 a 0"), "ERROR For input string: \"a\"");
+    t.checkExpect(this.ask(out, in, "JUMP 1"), "ERROR Unknown command JUMP");
+    t.checkExpect(this.ask(out, in, "NEW 2 2 4 1"),
+        "ERROR Cannot place 4 mines in 4 cells and keep the first click safe");
+    t.checkExpect(this.ask(out, in, "NEW 100000 100000 10 1"),
+        "ERROR Boards have from 1 to 10000000 cells");
+    HostedGame together = new HostedGame(9, 9, 10, 3L, true, Runnable::run);
+    t.checkExpect(this.ask(out, in, "SHARED 9 9 10 3"), "OK 2");
+    t.checkExpect(this.ask(out, in, "REVEAL 2 8 8"), together.move(true, 8, 8));
+    t.checkExpect(this.ask(out, in, "FLAG 2 0 0"), together.move(false, 0, 0));
+    t.checkExpect(this.ask(out, in, "CLOSE 1"), "OK");
+    t.checkExpect(this.ask(out, in, "FLAG 1 0 0"), "ERROR No game 1");
+    socket.close();
+    server.stop();
+  }
+
+  // test that a line that is too long is answered with one error, and that none of it,
+  // even the part after the limit, is taken as a command
+  void testLongLine(Tester t) throws IOException, InterruptedException {
+    GameServer server = new GameServer(0, 1);
+    server.start();
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+    PrintWriter out = new PrintWriter(socket.getOutputStream());
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.US_ASCII));
+    t.checkExpect(this.ask(out, in, "x".repeat(GameServer.LINE_LIMIT) + "NEW 9 9 10 3"),
+        "ERROR Commands are at most 256 bytes");
+    t.checkExpect(this.ask(out, in, "JUMP 1"), "ERROR Unknown command JUMP");
+    t.checkExpect(this.ask(out, in, "NEW 9 9 10 3"), "OK 1");
+    socket.close();
+    server.stop();
+  }
+
+  // test that a connection can only have so many games open, and that its games are
+  // closed when it is
+  void testGamesOfConnection(Tester t) throws IOException, InterruptedException {
+    GameServer server = new GameServer(0, 2);
+    server.start();
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+    PrintWriter out = new PrintWriter(socket.getOutputStream());
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.US_ASCII));
+    Socket other = new Socket(InetAddress.getLoopbackAddress(), server.port());
+    PrintWriter otherOut = new PrintWriter(other.getOutputStream());
+    BufferedReader otherIn = new BufferedReader(new InputStreamReader(
+        other.getInputStream(), StandardCharsets.US_ASCII));
+    t.checkExpect(this.ask(otherOut, otherIn, "NEW 9 9 10 3"), "OK 1");
+    boolean started = true;
+    for (int k = 0; k < GameServer.MAX_GAMES_PER_CONNECTION; k++) {
+      started = started && this.ask(out, in, "NEW 9 9 10 3").startsWith("OK ");
+    }
+    t.checkExpect(started, true);
+    t.checkExpect(this.ask(out, in, "NEW 9 9 10 3"),
+        "ERROR A connection can have at most 16 games open");
+    t.checkExpect(this.ask(out, in, "CLOSE 2"), "OK");
+    t.checkExpect(this.ask(out, in, "NEW 9 9 10 3").startsWith("OK "), true);
+    t.checkExpect(server.games.size(), 17);
+    socket.close();
+    for (int wait = 0; wait < 500 && server.games.size() > 1; wait++) {
+      Thread.sleep(10);
+    }
+    t.checkExpect(server.games.size(), 1);
+    t.checkExpect(server.games.containsKey(1), true);
+    other.close();
+    server.stop();
+  }
+
+  // test that closing a shared board waits for the moves sent before it, and that moves
+  // sent after it are turned away
+  void testCloseShared(Tester t) throws IOException, InterruptedException {
+    GameServer server = new GameServer(0, 4);
+    server.start();
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+    PrintWriter out = new PrintWriter(socket.getOutputStream());
+    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+        StandardCharsets.US_ASCII));
+    t.checkExpect(this.ask(out, in, "SHARED 100 100 100 3"), "OK 1");
+    for (int k = 0; k < 200; k++) {
+      out.print("FLAG 1 " + k / 100 + " " + k % 100 + "\n");
+    }
+    out.print("CLOSE 1\nFLAG 1 5 5\n");
+    out.flush();
+    // the move after CLOSE is turned away at once, so its error can come back among the
+    // replies to the moves, but the reply to CLOSE only comes after all of them
+    int moves = 0;
+    int errors = 0;
+    boolean closedLast = false;
+    for (int k = 0; k < 202; k++) {
+      String reply = in.readLine();
+      if (reply.startsWith("OK PLAYING")) {
+        moves++;
+      }
+      else if (reply.equals("ERROR No game 1")) {
+        errors++;
+      }
+      else if (reply.equals("OK")) {
+        closedLast = moves == 200;
+      }
+    }
+    t.checkExpect(moves, 200);
+    t.checkExpect(errors, 1);
+    t.checkExpect(closedLast, true);
+    HostedGame game = new HostedGame(3, 3, 1, 1L, true, Runnable::run);
+    t.checkExpect(game.begin(), true);
+    boolean[] closed = new boolean[1];
+    t.checkExpect(game.close(() -> closed[0] = true), true);
+    t.checkExpect(closed[0], false);
+    t.checkExpect(game.begin(), false);
+    t.checkExpect(game.close(() -> closed[0] = true), false);
+    game.end();
+    t.checkExpect(closed[0], true);
+    socket.close();
+    server.stop();
+  }
+
+  // test that a connection that cannot be accepted is dropped without an exception that
+  // would stop the selector thread
+  void testAcceptFailure(Tester t) throws IOException {
+    GameServer server = new GameServer(0, 1);
+    server.server.close();
+    server.accept();
+    t.checkExpect(server.selector.isOpen(), true);
+    server.selector.close();
+    server.workers.shutdown();
+  }
+
+  // test that the moves on one game are made one at a time and in order, even when they
+  // come from many threads at once
+  void testSerialExecutor(Tester t) throws InterruptedException {
+    ExecutorService workers = Executors.newFixedThreadPool(4);
+    SerialExecutor moves = new SerialExecutor(workers);
+    int[] count = new int[1];
+    int[] lastOfThread = new int[8];
+    boolean[] problem = new boolean[1];
+    AtomicBoolean inside = new AtomicBoolean();
+    CountDownLatch done = new CountDownLatch(8 * 1000);
+    Thread[] threads = new Thread[8];
+    for (int k = 0; k < 8; k++) {
+      int thread = k;
+      threads[k] = new Thread(() -> {
+        for (int i = 1; i <= 1000; i++) {
+          int move = i;
+          moves.execute(() -> {
+            if (!inside.compareAndSet(false, true) || lastOfThread[thread] != move - 1) {
+              problem[0] = true;
+            }
+            lastOfThread[thread] = move;
+            count[0]++;
+            inside.set(false);
+            done.countDown();
+          });
+        }
+      });
+      threads[k].start();
+    }
+    done.await();
+    t.checkExpect(count[0], 8000);
+    t.checkExpect(problem[0], false);
+    workers.shutdown();
+  }
+}
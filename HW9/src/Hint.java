@@ -0,0 +1,21 @@
+// represents a move suggested by the solver
+class Hint {
+  int row;
+  int col;
+  // whether the cell should be flagged rather than revealed
+  boolean isMine;
+  // the chance that the cell is a mine, which is 0 or 1 when it was deduced
+  double mineChance;
+
+  Hint(int row, int col, boolean isMine, double mineChance) {
+    this.row = row;
+    this.col = col;
+    this.isMine = isMine;
+    this.mineChance = mineChance;
+  }
+
+  // was this move deduced rather than guessed?
+  boolean isCertain() {
+    return this.mineChance == 0 || this.mineChance == 1;
+  }
+}
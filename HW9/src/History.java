@@ -0,0 +1,189 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import tester.*;
+
+// the moves of a game, kept so that they can be undone and redone
+//
+// a move is kept as the cells whose revealed or flagged state it flipped, along with the
+// game's counts from before and after it, so it takes four bytes for each cell it
+// changed instead of a copy of the board; undoing or redoing a move flips the same
+// cells back or forward and puts the counts back
+//
+// mines stay where they are: undoing the first reveal of a first-click-safe game hides
+// the cells again but does not take back the mines placed around that reveal
+class History {
+  ArrayList<Move> moves;
+  // how many of the moves are in effect; the rest have been undone and can be redone
+  int applied;
+
+  History() {
+    this.moves = new ArrayList<Move>();
+    this.applied = 0;
+  }
+
+  // adds a move that was just made, dropping any moves that were undone before it
+  void record(Move move) {
+    while (this.moves.size() > this.applied) {
+      this.moves.remove(this.moves.size() - 1);
+    }
+    this.moves.add(move);
+    this.applied++;
+  }
+
+  // is there a move to undo?
+  boolean canUndo() {
+    return this.applied > 0;
+  }
+
+  // is there a move to redo?
+  boolean canRedo() {
+    return this.applied < this.moves.size();
+  }
+
+  // the move to undo, which is then counted as undone
+  Move undo() {
+    if (!this.canUndo()) {
+      throw new IllegalStateException("There is no move to undo");
+    }
+    this.applied--;
+    return this.moves.get(this.applied);
+  }
+
+  // the move to redo, which is then counted as made again
+  Move redo() {
+    if (!this.canRedo()) {
+      throw new IllegalStateException("There is no move to redo");
+    }
+    this.applied++;
+    return this.moves.get(this.applied - 1);
+  }
+}
+
+// examples and tests for undoing and redoing moves
+class ExamplesHistory {
+  // a game of the given size with undo, and no mines unless some are asked for
+  Minesweeper game(int rows, int columns, int mines, boolean packed) {
+    Minesweeper game = packed
+        ? new Minesweeper(new PackedBoard(rows, columns, mines, new Random(4)))
+        : new Minesweeper(rows, columns, mines, new Random(4));
+    game.enableUndo();
+    return game;
+  }
+
+  // is the cell at the given row and col of the given game a mine?
+  boolean isMine(Minesweeper game, int row, int col) {
+    if (game.board != null) {
+      return game.board.isMine(row, col);
+    }
+    return game.grid.get(row).get(col).isMine;
+  }
+
+  // test undoing and redoing a flood on both kinds of board
+  void testFlood(Tester t) {
+    for (boolean packed : new boolean[] { false, true }) {
+      Minesweeper game = this.game(20, 30, 0, packed);
+      game.revealCell(5, 5);
+      t.checkExpect(game.won, true);
+      t.checkExpect(game.history.moves.get(0).cells.length, 600);
+      game.undo();
+      t.checkExpect(game.revealedSafe, 0);
+      t.checkExpect(game.won, false);
+      t.checkExpect(game.gameOver, false);
+      t.checkExpect(game.isRevealed(5, 5), false);
+      t.checkExpect(game.isRevealed(19, 29), false);
+      game.redo();
+      t.checkExpect(game.revealedSafe, 600);
+      t.checkExpect(game.won, true);
+      t.checkExpect(game.isRevealed(19, 29), true);
+    }
+  }
+
+  // test undoing a flag and a reveal that hit a mine
+  void testFlagAndMine(Tester t) {
+    for (boolean packed : new boolean[] { false, true }) {
+      Minesweeper game = this.game(4, 4, 15, packed);
+      // a mine other than the flagged cell
+      int mine = 1;
+      while (!this.isMine(game, mine / 4, mine % 4)) {
+        mine++;
+      }
+      game.flagCell(0, 0);
+      t.checkExpect(game.flagged, 1);
+      game.revealCell(mine / 4, mine % 4);
+      t.checkExpect(game.mineHit, true);
+      game.undo();
+      t.checkExpect(game.mineHit, false);
+      t.checkExpect(game.gameOver, false);
+      t.checkExpect(game.isRevealed(mine / 4, mine % 4), false);
+      game.undo();
+      t.checkExpect(game.flagged, 0);
+      t.checkExpect(game.isFlagged(0, 0), false);
+      t.checkExpect(game.history.canUndo(), false);
+      t.checkException(new IllegalStateException("There is no move to undo"), game, "undo");
+    }
+  }
+
+  // test that a move made after an undo drops the moves that could have been redone, and
+  // that moves that change nothing are not kept
+  void testNewMoveDropsRedo(Tester t) {
+    Minesweeper game = this.game(3, 3, 0, true);
+    game.flagCell(0, 0);
+    game.flagCell(1, 1);
+    game.undo();
+    t.checkExpect(game.history.canRedo(), true);
+    game.flagCell(2, 2);
+    t.checkExpect(game.history.canRedo(), false);
+    t.checkExpect(game.history.moves.size(), 2);
+    t.checkException(new IllegalStateException("There is no move to redo"), game, "redo");
+    game.revealCell(0, 0);
+    t.checkExpect(game.history.moves.size(), 2);
+  }
+
+  // test that a game made from a first-click-safe grid keeps its mines when the first
+  // reveal is undone
+  void testFirstClick(Tester t) {
+    Minesweeper game = new Minesweeper(9, 9, 10, 7L, true);
+    game.enableUndo();
+    game.revealCell(4, 4);
+    game.undo();
+    t.checkExpect(game.generated, true);
+    t.checkExpect(game.isRevealed(4, 4), false);
+    game.redo();
+    t.checkExpect(game.isRevealed(4, 4), true);
+    t.checkExpect(this.isMine(game, 4, 4), false);
+  }
+
+  // test the keys and the games that cannot undo
+  void testKeysAndErrors(Tester t) throws IOException {
+    Minesweeper game = this.game(3, 3, 0, false);
+    game.flagCell(1, 1);
+    game.onKeyEvent("u");
+    t.checkExpect(game.isFlagged(1, 1), false);
+    game.onKeyEvent("r");
+    t.checkExpect(game.isFlagged(1, 1), true);
+    Minesweeper endless = new Minesweeper(new ChunkedBoard(1L, 600), 30, 40);
+    t.checkException(new IllegalArgumentException("Cannot undo moves on an endless board"),
+        endless, "enableUndo");
+    Path path = Files.createTempFile("history", ".msj");
+    Minesweeper journaled = new Minesweeper(new PackedBoard(9, 9, 10, 7L, true));
+    journaled.startJournal(path);
+    t.checkException(new IllegalArgumentException("Cannot undo moves in a journaled game"),
+        journaled, "enableUndo");
+    journaled.stopJournal();
+    Files.delete(path);
+  }
+
+  // test that undoing a flood of a million cells takes milliseconds
+  void testLargeFlood(Tester t) {
+    Minesweeper game = this.game(1000, 1000, 0, true);
+    game.revealCell(500, 500);
+    long start = System.nanoTime();
+    game.undo();
+    long millis = (System.nanoTime() - start) / 1000000;
+    t.checkExpect(game.revealedSafe, 0);
+    t.checkExpect(millis < 500, true);
+  }
+}
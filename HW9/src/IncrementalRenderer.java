@@ -0,0 +1,181 @@
+import java.util.HashMap;
+import java.util.Random;
+import java.awt.Color;
+import tester.*;
+import javalib.impworld.*;
+import javalib.worldimages.*;
+
+// draws the window of a Minesweeper game into one cached image, redrawing only the
+// tiles its dirty region lists and handing back the previous scene when nothing has
+// changed
+class IncrementalRenderer implements WorldConstants {
+  Minesweeper game;
+  ComputedPixelImage boardImage;
+  WorldScene scene;
+  HashMap<Integer, Color> colors;
+  // the number of tiles painted by the last render
+  int painted;
+
+  IncrementalRenderer(Minesweeper game) {
+    this.game = game;
+    this.boardImage = new ComputedPixelImage(game.viewColumns * CELL_SIZE,
+        game.viewRows * CELL_SIZE);
+    this.scene = null;
+    this.colors = new HashMap<Integer, Color>();
+  }
+
+  // the scene for the current state of the game
+  WorldScene render(DirtyRegion dirty) {
+    if (this.scene != null && dirty.isClean()) {
+      return this.scene;
+    }
+
+    this.painted = 0;
+    int top = game.viewTop();
+    int left = game.viewLeft();
+    if (dirty.all) {
+      for (int i = 0; i < game.viewRows; i++) {
+        for (int j = 0; j < game.viewColumns; j++) {
+          this.paintTile(i, j, top + i, left + j);
+        }
+      }
+    }
+    else {
+      // changed cells outside the window are left for when it scrolls over them, which
+      // redraws the whole window anyway
+      for (int k = 0; k < dirty.size; k++) {
+        int row = dirty.cells[k] / game.columns;
+        int col = dirty.cells[k] % game.columns;
+        if (row >= top && row < top + game.viewRows && col >= left
+            && col < left + game.viewColumns) {
+          this.paintTile(row - top, col - left, row, col);
+        }
+      }
+    }
+    dirty.clear();
+
+    int width = game.viewColumns * CELL_SIZE;
+    int height = game.viewRows * CELL_SIZE;
+    this.scene = new WorldScene(width, height);
+    this.scene.placeImageXY(this.boardImage, width / 2, height / 2);
+    if (game.gameOver) {
+      this.scene.placeImageXY(game.gameOverText(), width / 2, height / 2);
+    }
+    return this.scene;
+  }
+
+  // copies the image of the cell at the given row and col of the game into the window
+  // image at the given row and col of the window, one run of same-colored pixels at a time
+  void paintTile(int viewRow, int viewCol, int row, int col) {
+    this.painted++;
+    int[] pixels = game.tiles.pixels(game.tileState(row, col));
+    int left = viewCol * CELL_SIZE;
+    int top = viewRow * CELL_SIZE;
+    for (int y = 0; y < CELL_SIZE; y++) {
+      int x = 0;
+      while (x < CELL_SIZE) {
+        int argb = pixels[y * CELL_SIZE + x];
+        int end = x + 1;
+        while (end < CELL_SIZE && pixels[y * CELL_SIZE + end] == argb) {
+          end++;
+        }
+        this.boardImage.setPixels(left + x, top + y, end - x, 1, this.color(argb));
+        x = end;
+      }
+    }
+  }
+
+  // the shared Color for the given packed ARGB value
+  Color color(int argb) {
+    Color color = this.colors.get(argb);
+    if (color == null) {
+      color = new Color(argb, true);
+      this.colors.put(argb, color);
+    }
+    return color;
+  }
+}
+
+// examples and tests for the incremental renderer
+class ExamplesIncrementalRenderer {
+  Minesweeper game, packed;
+
+  void init() {
+    this.game = new Minesweeper(3, 4, 0, new Random(1));
+    this.game.enableIncrementalRendering();
+    this.packed = new Minesweeper(new PackedBoard(3, 4, 12, new Random(1)));
+    this.packed.enableIncrementalRendering();
+  }
+
+  // test that a frame with no changes reuses the last scene
+  void testUnchangedFrame(Tester t) {
+    this.init();
+    WorldScene first = this.game.makeScene();
+    t.checkExpect(this.game.dirty.isClean(), true);
+    t.checkExpect(this.game.makeScene() == first, true);
+  }
+
+  // test that flagging a cell redraws just that tile
+  void testFlagRedraw(Tester t) {
+    this.init();
+    this.game.makeScene();
+    t.checkExpect(this.game.renderer.boardImage.getPixel(30, 10), Color.WHITE);
+    this.game.flagCell(0, 1);
+    t.checkExpect(this.game.dirty.size, 1);
+    WorldScene flagged = this.game.makeScene();
+    t.checkExpect(this.game.renderer.boardImage.getPixel(30, 10), Color.ORANGE);
+    t.checkExpect(this.game.renderer.boardImage.getPixel(50, 10), Color.WHITE);
+    t.checkExpect(this.game.makeScene() == flagged, true);
+  }
+
+  // test that the cells revealed by a flood are redrawn
+  void testFloodRedraw(Tester t) {
+    this.init();
+    this.game.makeScene();
+    this.game.revealCell(2, 3);
+    // the flood changed the whole board, so all of it is redrawn
+    t.checkExpect(this.game.dirty.all, true);
+    this.game.makeScene();
+    t.checkExpect(this.game.renderer.boardImage.getPixel(10, 10), Color.LIGHT_GRAY);
+    t.checkExpect(this.game.renderer.boardImage.getPixel(70, 50), Color.LIGHT_GRAY);
+  }
+
+  // test that a game drawing from frozen tiles draws the same pixels
+  void testFrozenTiles(Tester t) {
+    this.init();
+    this.game.useFrozenTiles();
+    this.game.flagCell(1, 2);
+    this.game.makeScene();
+    t.checkExpect(this.game.drawCell(1, 2) instanceof FrozenImage, true);
+    t.checkExpect(this.game.renderer.boardImage.getPixel(50, 30), Color.ORANGE);
+  }
+
+  // test that only the window is drawn, from wherever it has scrolled to
+  void testViewport(Tester t) {
+    Minesweeper big = new Minesweeper(new PackedBoard(1000, 1000, 0, new Random(1)));
+    big.setViewport(4, 5);
+    big.enableIncrementalRendering();
+    big.makeScene();
+    t.checkExpect(big.renderer.boardImage.getWidth(), 100.0);
+    big.scroll(10, 20);
+    big.flagCell(11, 22);
+    big.flagCell(500, 500);
+    big.makeScene();
+    t.checkExpect(big.renderer.boardImage.getPixel(50, 30), Color.ORANGE);
+    t.checkExpect(big.renderer.boardImage.getPixel(30, 30), Color.WHITE);
+    big.flagCell(10, 20);
+    big.makeScene();
+    t.checkExpect(big.renderer.boardImage.getPixel(10, 10), Color.ORANGE);
+  }
+
+  // test that revealing a mine on a packed board redraws that tile
+  void testPackedRedraw(Tester t) {
+    this.init();
+    this.packed.makeScene();
+    this.packed.revealCell(1, 1);
+    t.checkExpect(this.packed.dirty.size, 1);
+    this.packed.makeScene();
+    t.checkExpect(this.packed.renderer.boardImage.getPixel(30, 30), Color.RED);
+    t.checkExpect(this.packed.renderer.boardImage.getPixel(50, 30), Color.WHITE);
+  }
+}
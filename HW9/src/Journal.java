@@ -0,0 +1,437 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import tester.*;
+import javalib.worldimages.*;
+
+// records the moves of a game to a file as they are made, so the game can be replayed
+//
+// a journal starts with a header:
+//   int      MAGIC
+//   short    VERSION
+//   boolean  whether the first click is safe
+//   int      rows, columns, mines
+//   long     seed
+// followed by one varint per move, the index of the cell times two plus the kind of move,
+// so most moves take two or three bytes. The header and the seed are all it takes to
+// build the same board again, and the moves only ever go on the end
+//
+// writes go through a buffer and reach the file in batches, when it fills, on flush, or
+// on close
+class Journal {
+  static final int MAGIC = 0x4D534A4E;
+  static final int VERSION = 1;
+  static final int REVEAL = 0;
+  static final int FLAG = 1;
+  static final int BUFFER = 1 << 16;
+
+  int columns;
+  DataOutputStream out;
+  int moves;
+
+  Journal(int columns, DataOutputStream out) {
+    this.columns = columns;
+    this.out = out;
+    this.moves = 0;
+  }
+
+  // starts a journal of the given game at the given path
+  static Journal create(Path path, Minesweeper game) throws IOException {
+    if (game.chunks != null) {
+      throw new IllegalArgumentException("Cannot journal a game on a chunked board");
+    }
+    if (game.seed == null) {
+      throw new IllegalArgumentException("Cannot journal a game without a seed");
+    }
+    if (game.revealedSafe != 0 || game.flagged != 0 || game.mineHit) {
+      throw new IllegalArgumentException("Cannot journal a game that has already started");
+    }
+    // a replay plays the moves on a packed board, and a grid of Cells takes some moves
+    // differently, such as revealing a flagged cell that is already revealed, which
+    // hides it again
+    if (game.board == null) {
+      throw new IllegalArgumentException("Cannot journal a game that is not on a packed "
+          + "board");
+    }
+    boolean firstClickSafe = !game.board.generated;
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(path), BUFFER));
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeBoolean(firstClickSafe);
+    out.writeInt(game.rows);
+    out.writeInt(game.columns);
+    out.writeInt(game.numMines);
+    out.writeLong(game.seed);
+    return new Journal(game.columns, out);
+  }
+
+  // adds a move of the given kind on the cell at the given row and col
+  void record(int kind, int row, int col) {
+    try {
+      writeVarint(this.out, (long) (row * columns + col) * 2 + kind);
+      this.moves++;
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // sends every buffered move to the file
+  void flush() throws IOException {
+    this.out.flush();
+  }
+
+  // sends every buffered move to the file and closes it
+  void close() throws IOException {
+    this.out.close();
+  }
+
+  // writes the given number seven bits at a time, lowest first, with the top bit of each
+  // byte saying whether another follows
+  static void writeVarint(DataOutputStream out, long value) throws IOException {
+    while (value >= 0x80) {
+      out.write((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  // reads a number written by writeVarint, or returns -1 at the end of the file or of a
+  // move that was cut short by a crash
+  static long readVarint(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int next = in.read();
+      if (next < 0) {
+        return -1;
+      }
+      value |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Journal move is too long");
+  }
+}
+
+// replays a journal on a packed board, without drawing anything, and can jump to any
+// move by starting from the closest snapshot before it
+//
+// a snapshot of the board, as the three bit planes BoardIO saves, is kept every
+// interval moves the replay passes, so going back or far forward only replays the moves
+// since the last snapshot
+class Replay {
+  static final int DEFAULT_INTERVAL = 4096;
+
+  int rows;
+  int columns;
+  int numMines;
+  long seed;
+  boolean firstClickSafe;
+  // the moves, as written by Journal.record
+  long[] moves;
+  int size;
+  int interval;
+  PackedBoard board;
+  // the number of moves played on board
+  int position;
+  // snapshot k is the board after k * interval moves; the first is the new board
+  ArrayList<byte[][]> snapshots;
+  ArrayList<Boolean> generated;
+
+  Replay(int rows, int columns, int numMines, long seed, boolean firstClickSafe,
+      long[] moves, int size, int interval) {
+    this.rows = rows;
+    this.columns = columns;
+    this.numMines = numMines;
+    this.seed = seed;
+    this.firstClickSafe = firstClickSafe;
+    this.moves = moves;
+    this.size = size;
+    this.interval = interval;
+    this.snapshots = new ArrayList<byte[][]>();
+    this.generated = new ArrayList<Boolean>();
+    this.snapshots.add(null);
+    this.generated.add(!firstClickSafe);
+    this.restore(0);
+  }
+
+  // reads the journal at the given path, taking the default number of moves between
+  // snapshots
+  static Replay load(Path path) throws IOException {
+    return load(path, DEFAULT_INTERVAL);
+  }
+
+  // reads the journal at the given path, taking a snapshot every interval moves
+  static Replay load(Path path, int interval) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        Files.newInputStream(path), Journal.BUFFER));
+    try {
+      if (in.readInt() != Journal.MAGIC) {
+        throw new IOException("Not a Minesweeper journal: " + path);
+      }
+      int version = in.readShort();
+      if (version != Journal.VERSION) {
+        throw new IOException("Unsupported journal version " + version + ": " + path);
+      }
+      boolean firstClickSafe = in.readBoolean();
+      int rows = in.readInt();
+      int columns = in.readInt();
+      int mines = in.readInt();
+      long seed = in.readLong();
+      long[] moves = new long[64];
+      int size = 0;
+      for (long move = Journal.readVarint(in); move >= 0; move = Journal.readVarint(in)) {
+        if (size == moves.length) {
+          moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size] = move;
+        size++;
+      }
+      return new Replay(rows, columns, mines, seed, firstClickSafe, moves, size, interval);
+    }
+    catch (EOFException e) {
+      throw new IOException("Not a Minesweeper journal: " + path);
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  // plays the next move, returning false if there are none left
+  boolean step() {
+    if (this.position == this.size) {
+      return false;
+    }
+    long move = this.moves[this.position];
+    int index = (int) (move >>> 1);
+    if ((move & 1) == Journal.FLAG) {
+      this.board.flagCell(index / columns, index % columns);
+    }
+    else {
+      this.board.revealCell(index / columns, index % columns);
+    }
+    this.position++;
+    if (this.position % this.interval == 0
+        && this.snapshots.size() == this.position / this.interval) {
+      this.snapshots.add(BoardIO.toPlanes(this.board.cells));
+      this.generated.add(this.board.generated);
+    }
+    return true;
+  }
+
+  // plays every move that is left
+  void playToEnd() {
+    while (this.step()) {
+      // each step plays one move
+    }
+  }
+
+  // puts the board as it was after the given number of moves
+  void seek(int move) {
+    move = Math.max(0, Math.min(move, this.size));
+    int snapshot = Math.min(move / this.interval, this.snapshots.size() - 1);
+    if (move < this.position || snapshot * this.interval > this.position) {
+      this.restore(snapshot);
+    }
+    while (this.position < move) {
+      this.step();
+    }
+  }
+
+  // puts the board as it was at the given snapshot
+  void restore(int snapshot) {
+    byte[][] planes = this.snapshots.get(snapshot);
+    if (planes == null) {
+      this.board = new PackedBoard(rows, columns, numMines, seed, firstClickSafe);
+    }
+    else {
+      // a board that is not generated yet has not used its Random, so a fresh one from
+      // the seed places the same mines
+      this.board = BoardIO.emptyBoard(rows, columns, numMines, seed, true);
+      this.board.generated = this.generated.get(snapshot);
+      BoardIO.fromPlanes(planes, this.board);
+    }
+    this.position = snapshot * this.interval;
+  }
+
+  // times replaying a journal of random moves on a board of the given size
+  //
+  // run with: java -cp "bin:libs/*" Replay [rows] [columns] [moves]
+  public static void main(String[] args) throws IOException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int columns = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int count = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+    File file = File.createTempFile("minesweeper", ".journal");
+    file.deleteOnExit();
+
+    Minesweeper game = new Minesweeper(new PackedBoard(rows, columns, rows * columns / 100,
+        1L, true));
+    game.startJournal(file.toPath());
+    Random random = new Random(2);
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      int row = random.nextInt(rows);
+      int col = random.nextInt(columns);
+      // mines are flagged rather than revealed, so the game lasts every move
+      if (game.board.isMine(row, col) || random.nextInt(4) == 0) {
+        game.flagCell(row, col);
+      }
+      else {
+        game.revealCell(row, col);
+      }
+    }
+    game.stopJournal();
+    long recorded = System.nanoTime();
+
+    Replay replay = Replay.load(file.toPath());
+    long loaded = System.nanoTime();
+    replay.playToEnd();
+    long played = System.nanoTime();
+    replay.seek(count / 2 + 1);
+    long sought = System.nanoTime();
+    System.out.println(String.format("%,d moves, %,d bytes: played and recorded in %.3f s, "
+        + "loaded in %.3f s, replayed in %.3f s (%,.0f moves/s), sought back to the middle "
+        + "in %.3f s", count, file.length(), (recorded - start) / 1e9, (loaded - recorded) / 1e9,
+        (played - loaded) / 1e9, count * 1e9 / (played - loaded), (sought - played) / 1e9));
+  }
+}
+
+// examples and tests for the journal and replays
+class ExamplesJournal {
+
+  // a temporary file that is deleted when the tests finish
+  Path tempFile() throws IOException {
+    File file = File.createTempFile("minesweeper", ".journal");
+    file.deleteOnExit();
+    return file.toPath();
+  }
+
+  // plays the given number of moves of the solver on the given game
+  void play(Minesweeper game, int moves) {
+    for (int i = 0; i < moves && game.autoPlay(); i++) {
+      // each call plays one move
+    }
+  }
+
+  // test that replaying a journal ends on the same board the game did
+  void testReplay(Tester t) throws IOException {
+    Path path = this.tempFile();
+    Minesweeper game = new Minesweeper(new PackedBoard(16, 30, 99, 5L, true));
+    game.startJournal(path);
+    Journal journal = game.journal;
+    game.onMouseClicked(new Posn(100, 100), "RightButton");
+    this.play(game, 1000);
+    game.stopJournal();
+
+    Replay replay = Replay.load(path, 2);
+    t.checkExpect(replay.size, journal.moves);
+    t.checkExpect(replay.size > 2, true);
+    replay.playToEnd();
+    t.checkExpect(replay.board.gameOver, game.gameOver);
+    t.checkExpect(replay.board.won, game.won);
+    t.checkExpect(replay.board.revealedSafe, game.revealedSafe);
+    t.checkExpect(replay.board.isFlagged(5, 5), game.isFlagged(5, 5));
+    t.checkExpect(BoardIO.toPlanes(replay.board.cells),
+        BoardIO.toPlanes(BoardIO.pack(game).cells));
+  }
+
+  // test that the journal is closed as soon as the game ends, with every move on disk
+  // and nothing left to close when the program exits
+  void testStopAtEnd(Tester t) throws IOException {
+    Path path = this.tempFile();
+    Minesweeper game = new Minesweeper(new PackedBoard(9, 9, 10, 3L, true));
+    game.startJournal(path);
+    Thread hook = game.journalHook;
+    game.flagCell(0, 0);
+    game.revealCell(4, 4);
+    t.checkExpect(path.toFile().length(), 0L);
+    int mine = 0;
+    while (!game.board.isMine(mine / 9, mine % 9)) {
+      mine++;
+    }
+    game.revealCell(mine / 9, mine % 9);
+    t.checkExpect(game.gameOver, true);
+    t.checkExpect(Replay.load(path).size, 3);
+    t.checkExpect(game.journal, null);
+    t.checkExpect(Runtime.getRuntime().removeShutdownHook(hook), false);
+    // moves after the end are not recorded
+    game.flagCell(0, 1);
+    t.checkExpect(Replay.load(path).size, 3);
+  }
+
+  // test that seeking lands on the same board as playing the moves one at a time
+  void testSeek(Tester t) throws IOException {
+    Path path = this.tempFile();
+    Minesweeper game = new Minesweeper(new PackedBoard(30, 30, 150, 6L, true));
+    game.startJournal(path);
+    this.play(game, 200);
+    game.journal.flush();
+
+    Replay replay = Replay.load(path, 4);
+    Replay stepped = Replay.load(path, 4);
+    int middle = replay.size / 2 + 1;
+    replay.playToEnd();
+    replay.seek(middle);
+    t.checkExpect(replay.position, middle);
+    for (int i = 0; i < middle; i++) {
+      stepped.step();
+    }
+    t.checkExpect(replay.board.cells.length, stepped.board.cells.length);
+    t.checkExpect(BoardIO.toPlanes(replay.board.cells), BoardIO.toPlanes(stepped.board.cells));
+    t.checkExpect(replay.board.revealedSafe, stepped.board.revealedSafe);
+    replay.seek(0);
+    t.checkExpect(replay.board.revealedSafe, 0);
+    replay.seek(replay.size + 10);
+    t.checkExpect(replay.position, replay.size);
+    t.checkExpect(replay.step(), false);
+    game.stopJournal();
+  }
+
+  // test for varints, and a journal whose last move was cut short
+  void testVarint(Tester t) throws IOException {
+    Path path = this.tempFile();
+    DataOutputStream out = new DataOutputStream(Files.newOutputStream(path));
+    Journal.writeVarint(out, 5);
+    Journal.writeVarint(out, 300);
+    Journal.writeVarint(out, 1L << 40);
+    out.write(0x80);
+    out.close();
+    t.checkExpect(path.toFile().length(), 10L);
+    DataInputStream in = new DataInputStream(Files.newInputStream(path));
+    t.checkExpect(Journal.readVarint(in), 5L);
+    t.checkExpect(Journal.readVarint(in), 300L);
+    t.checkExpect(Journal.readVarint(in), 1L << 40);
+    t.checkExpect(Journal.readVarint(in), -1L);
+    in.close();
+  }
+
+  // test that only games that can be replayed are journaled
+  void testCreate(Tester t) throws IOException {
+    Path path = this.tempFile();
+    Minesweeper started = new Minesweeper(5, 5, 3, 1L, false);
+    started.flagCell(0, 0);
+    t.checkException(new IllegalArgumentException("Cannot journal a game without a seed"),
+        new Minesweeper(5, 5, 3, new Random(1)), "startJournal", path);
+    t.checkException(new IllegalArgumentException("Cannot journal a game that has already started"),
+        started, "startJournal", path);
+    t.checkException(new IllegalArgumentException("Cannot journal a game on a chunked board"),
+        new Minesweeper(new ChunkedBoard(1, 10), 5, 5), "startJournal", path);
+    t.checkException(new IllegalArgumentException("Cannot journal a game that is not on a "
+        + "packed board"), new Minesweeper(5, 5, 3, 1L, true), "startJournal", path);
+    Files.write(path, new byte[3]);
+    t.checkException(new IOException("Not a Minesweeper journal: " + path), new Replay(1, 1, 0,
+        1, false, new long[0], 0, 1), "load", path);
+  }
+}
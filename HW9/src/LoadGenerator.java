@@ -0,0 +1,235 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import tester.*;
+
+// plays many games on a GameServer at once and measures how long each command takes to
+// be answered
+//
+// each client starts a game, then reveals (and now and then flags) random cells until it
+// has sent its share of commands, closing each game that ends and starting another; it
+// waits for every reply before sending its next command, so the time from sending a
+// command to reading its reply is that command's latency
+//
+// all the clients are driven by one thread with a selector, so ten thousand of them do
+// not need ten thousand threads; run the server in a process of its own, since each
+// client and its connection on the server take a file descriptor each
+//
+// run with: java -cp "bin:libs/*" LoadGenerator [clients] [commands] [rows] [columns]
+//   [mines] [port]
+class LoadGenerator {
+  String host;
+  int port;
+  int clients;
+  int commands;
+  int rows;
+  int columns;
+  int mines;
+  // the latency of every command answered so far, in nanoseconds
+  long[] latencies;
+  int answered;
+  int errors;
+  long elapsed;
+
+  LoadGenerator(String host, int port, int clients, int commands, int rows, int columns,
+      int mines) {
+    this.host = host;
+    this.port = port;
+    this.clients = clients;
+    this.commands = commands;
+    this.rows = rows;
+    this.columns = columns;
+    this.mines = mines;
+    this.latencies = new long[clients * commands];
+  }
+
+  public static void main(String[] args) throws IOException {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int commands = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int rows = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+    int columns = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+    int mines = args.length > 4 ? Integer.parseInt(args[4]) : 99;
+    int port = args.length > 5 ? Integer.parseInt(args[5]) : GameServer.DEFAULT_PORT;
+    LoadGenerator load = new LoadGenerator("localhost", port, clients, commands, rows,
+        columns, mines);
+    load.run();
+    System.out.println(load.report());
+  }
+
+  // connects every client and plays until each has had all its commands answered
+  void run() throws IOException {
+    Selector selector = Selector.open();
+    LoadClient[] all = new LoadClient[this.clients];
+    for (int i = 0; i < this.clients; i++) {
+      SocketChannel channel = SocketChannel.open(new InetSocketAddress(this.host, this.port));
+      channel.socket().setTcpNoDelay(true);
+      channel.configureBlocking(false);
+      all[i] = new LoadClient(this, channel, i);
+      all[i].key = channel.register(selector, SelectionKey.OP_READ, all[i]);
+    }
+    long start = System.nanoTime();
+    int playing = this.clients;
+    for (LoadClient client : all) {
+      client.next();
+    }
+    while (playing > 0) {
+      selector.select();
+      Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+      while (keys.hasNext()) {
+        SelectionKey key = keys.next();
+        keys.remove();
+        LoadClient client = (LoadClient) key.attachment();
+        if (key.isValid() && key.isWritable()) {
+          client.write();
+        }
+        if (key.isValid() && key.isReadable() && client.read()) {
+          playing--;
+        }
+      }
+    }
+    this.elapsed = System.nanoTime() - start;
+    selector.close();
+  }
+
+  // records that a command was answered after the given number of nanoseconds
+  void answered(long nanos, boolean error) {
+    this.latencies[this.answered] = nanos;
+    this.answered++;
+    if (error) {
+      this.errors++;
+    }
+  }
+
+  // the latency at the given percentile of the commands answered, in microseconds
+  double percentile(long[] sorted, double percent) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+    return sorted[Math.max(0, index)] / 1000.0;
+  }
+
+  // a line about the throughput and latencies of the run
+  String report() {
+    long[] sorted = Arrays.copyOf(this.latencies, this.answered);
+    Arrays.sort(sorted);
+    return String.format("%d clients, %d commands in %.2f s, %.0f commands/s, %d errors, "
+        + "latency us: p50 %.0f, p99 %.0f, p99.9 %.0f, max %.0f", this.clients,
+        this.answered, this.elapsed / 1e9, this.answered / (this.elapsed / 1e9), this.errors,
+        this.percentile(sorted, 50), this.percentile(sorted, 99),
+        this.percentile(sorted, 99.9), this.percentile(sorted, 100));
+  }
+}
+
+// one simulated player of a LoadGenerator
+class LoadClient {
+  LoadGenerator load;
+  SocketChannel channel;
+  SelectionKey key;
+  Random rand;
+  ByteBuffer in;
+  ByteBuffer out;
+  // the game being played, or 0 before the first one has started
+  int game;
+  // whether the game has ended and should be closed before the next command
+  boolean ended;
+  int sent;
+  long sentAt;
+
+  LoadClient(LoadGenerator load, SocketChannel channel, int number) {
+    this.load = load;
+    this.channel = channel;
+    this.rand = new Random(number);
+    this.in = ByteBuffer.allocate(GameServer.LINE_LIMIT);
+  }
+
+  // sends the next command: a new game when there is none, closing one that has ended,
+  // and otherwise a reveal, or a flag one time in ten
+  void next() throws IOException {
+    String command;
+    if (this.game == 0) {
+      command = "NEW " + load.rows + " " + load.columns + " " + load.mines + " "
+          + this.rand.nextLong();
+    }
+    else if (this.ended) {
+      command = "CLOSE " + this.game;
+      this.game = 0;
+    }
+    else {
+      command = (this.rand.nextInt(10) == 0 ? "FLAG " : "REVEAL ") + this.game + " "
+          + this.rand.nextInt(load.rows) + " " + this.rand.nextInt(load.columns);
+    }
+    this.sent++;
+    this.out = ByteBuffer.wrap((command + "\n").getBytes(StandardCharsets.US_ASCII));
+    this.sentAt = System.nanoTime();
+    this.write();
+  }
+
+  // writes what is left of the command, waiting for the socket if it does not all fit
+  void write() throws IOException {
+    this.channel.write(this.out);
+    this.key.interestOps(this.out.hasRemaining()
+        ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+  }
+
+  // reads the reply to the last command, if it has all arrived, and sends the next one;
+  // returns true once the last command has been answered
+  boolean read() throws IOException {
+    if (this.channel.read(this.in) < 0) {
+      throw new IOException("The server closed the connection");
+    }
+    int end = this.in.position();
+    if (end == 0 || this.in.get(end - 1) != '\n') {
+      return false;
+    }
+    long nanos = System.nanoTime() - this.sentAt;
+    String reply = new String(this.in.array(), 0, end - 1, StandardCharsets.US_ASCII);
+    this.in.clear();
+    load.answered(nanos, reply.startsWith("ERROR"));
+    if (this.game == 0 && reply.startsWith("OK ") && !this.ended) {
+      this.game = Integer.parseInt(reply.substring(3));
+    }
+    else {
+      this.ended = reply.startsWith("OK WON") || reply.startsWith("OK LOST");
+    }
+    if (this.sent == load.commands) {
+      this.channel.close();
+      return true;
+    }
+    this.next();
+    return false;
+  }
+}
+
+// examples and tests for the load generator
+class ExamplesLoadGenerator {
+  // test that a small load is played to the end with every command answered
+  void testRun(Tester t) throws IOException, InterruptedException {
+    GameServer server = new GameServer(0, 2);
+    server.start();
+    LoadGenerator load = new LoadGenerator("localhost", server.port(), 20, 50, 9, 9, 10);
+    load.run();
+    t.checkExpect(load.answered, 1000);
+    t.checkExpect(load.errors, 0);
+    t.checkExpect(load.report().startsWith("20 clients, 1000 commands in "), true);
+    // every game that ended was closed, so only the ones still being played are left
+    t.checkExpect(server.games.size() <= 20, true);
+    server.stop();
+  }
+
+  // test the percentiles of a few latencies
+  void testPercentile(Tester t) {
+    LoadGenerator load = new LoadGenerator("localhost", 0, 1, 4, 9, 9, 10);
+    long[] sorted = { 1000, 2000, 3000, 4000 };
+    t.checkInexact(load.percentile(sorted, 50), 2.0, 0.001);
+    t.checkInexact(load.percentile(sorted, 99), 4.0, 0.001);
+    t.checkInexact(load.percentile(new long[0], 99), 0.0, 0.001);
+  }
+}
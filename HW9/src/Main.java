@@ -1,9 +1,27 @@
+import java.util.Random;
+
 public class Main {
   public static void main(String[] args) {
     // Create an instance of Minesweeper with a grid size and number of mines
-    Minesweeper game = new Minesweeper(10, 10, 10);  // 10x10 grid with 10 mines
+    // 10x10 grid with 10 mines, placed once the first cell is clicked so it is never a mine
+    Minesweeper game = new Minesweeper(10, 10, 10, new Random(), true);
+    if (args.length > 0 && args[0].equals("endless")) {
+      // a 30x40 window onto a board with no edges and 600 mines in every 64x64 chunk
+      game = new Minesweeper(new ChunkedBoard(new Random().nextLong(), 600), 30, 40);
+    }
+    else {
+      // undo and redo moves with u and r
+      game.enableUndo();
+    }
+    // show at most 30x40 cells at a time, scrolled with the arrow keys or the mouse
+    game.setViewport(30, 40);
+    // only redraw the cells that change from one tick to the next
+    game.enableIncrementalRendering();
+    // show the metrics through JMX, recorded when run with -Dminesweeper.metrics=true
+    Metrics.install();
 
     // Start the game
-    game.bigBang(game.columns * WorldConstants.CELL_SIZE, game.rows * WorldConstants.CELL_SIZE, 0.1);
+    game.bigBang(game.viewColumns * WorldConstants.CELL_SIZE,
+        game.viewRows * WorldConstants.CELL_SIZE, 0.1);
   }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+import java.util.Random;
+
+// compares the heap used by the Cell grid that Minesweeper.initializeGrid builds with
+// the heap used by a PackedBoard of the same size
+//
+// run with: java -cp "bin:libs/*" MemoryFootprint [rows] [columns] [mines]
+class MemoryFootprint {
+  public static void main(String[] args) {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int columns = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int mines = args.length > 2 ? Integer.parseInt(args[2]) : rows * columns / 6;
+    long cells = (long) rows * columns;
+
+    long before = usedHeap();
+    Minesweeper game = new Minesweeper(rows, columns, mines, new Random(1));
+    long gridBytes = usedHeap() - before;
+    System.out.println(report("Cell grid", gridBytes, cells, game.rows, game.columns));
+    game = null;
+
+    before = usedHeap();
+    PackedBoard board = new PackedBoard(rows, columns, mines, new Random(1));
+    long packedBytes = usedHeap() - before;
+    System.out.println(report("PackedBoard", packedBytes, cells, board.rows, board.columns));
+  }
+
+  // a line describing how much heap the given layout takes
+  static String report(String layout, long bytes, long cells, int rows, int columns) {
+    return String.format("%-12s %dx%d  %,14d bytes  %8.2f bytes/cell", layout, rows, columns,
+        bytes, (double) bytes / cells);
+  }
+
+  // the heap in use after asking for a collection
+  static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
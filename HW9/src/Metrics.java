@@ -0,0 +1,330 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import tester.*;
+
+// counts and latency histograms for the hot paths of the game: revealing cells, the
+// size and time of every flood, checking for the end of a game, drawing a frame and the
+// cells drawn in it, and building a board
+//
+// recording is off unless the JVM is started with -Dminesweeper.metrics=true or it is
+// turned on through JMX; while it is off every hot path pays one read of a boolean, so
+// the hooks can stay in for good
+//
+// Main and GameServer call install, which shows the metrics through JMX, under
+// minesweeper:type=Metrics, and prints them every ten seconds while they are on, or as
+// often as -Dminesweeper.metrics.dump says in seconds
+class Metrics implements MetricsMXBean {
+  static volatile boolean enabled = Boolean.getBoolean("minesweeper.metrics");
+
+  static final Histogram REVEAL = new Histogram("revealCell", "ns");
+  static final Histogram REVEAL_BATCH = new Histogram("revealCells", "ns");
+  static final Histogram FLOOD_CELLS = new Histogram("flood.cells", "cells");
+  static final Histogram FLOOD_TIME = new Histogram("flood.time", "ns");
+  static final Histogram CHECK_GAME = new Histogram("checkGame", "ns");
+  static final Histogram FRAME = new Histogram("makeScene", "ns");
+  static final Histogram FRAME_CELLS = new Histogram("makeScene.cells", "cells");
+  static final Histogram BOARD_BUILD = new Histogram("board.build", "ns");
+  static final Histogram[] ALL = { REVEAL, REVEAL_BATCH, FLOOD_CELLS, FLOOD_TIME, CHECK_GAME, FRAME,
+      FRAME_CELLS, BOARD_BUILD };
+
+  static final String NAME = "minesweeper:type=Metrics";
+  static final Metrics INSTANCE = new Metrics();
+  static ScheduledExecutorService dumper;
+
+  // shows the metrics through JMX and starts printing them to standard error; calling it
+  // again does nothing
+  static synchronized void install() {
+    if (dumper != null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      ObjectName name = new ObjectName(NAME);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(INSTANCE, name);
+      }
+    }
+    catch (JMException e) {
+      throw new IllegalStateException("Cannot register " + NAME, e);
+    }
+    long seconds = Integer.getInteger("minesweeper.metrics.dump", 10);
+    dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "metrics-dump");
+      thread.setDaemon(true);
+      return thread;
+    });
+    dumper.scheduleAtFixedRate(() -> {
+      if (enabled) {
+        System.err.print(report());
+      }
+    }, seconds, seconds, TimeUnit.SECONDS);
+  }
+
+  // the time to pass to stop at the end of whatever is being timed, or 0 if nothing is
+  // being recorded
+  static long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  // records the time since the given start in the given histogram, unless start is 0
+  static void stop(Histogram histogram, long start) {
+    if (start != 0) {
+      histogram.record(System.nanoTime() - start);
+    }
+  }
+
+  // records the size and time of a flood that revealed the given number of cells
+  static void flood(long start, int revealed) {
+    if (start != 0) {
+      FLOOD_TIME.record(System.nanoTime() - start);
+      FLOOD_CELLS.record(revealed);
+    }
+  }
+
+  // every metric, one line each
+  static String report() {
+    StringBuilder out = new StringBuilder();
+    for (Histogram histogram : ALL) {
+      out.append(histogram).append('\n');
+    }
+    return out.toString();
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean on) {
+    enabled = on;
+  }
+
+  public Map<String, Long> getCounts() {
+    Map<String, Long> counts = new LinkedHashMap<String, Long>();
+    for (Histogram histogram : ALL) {
+      counts.put(histogram.name, histogram.count());
+    }
+    return counts;
+  }
+
+  public Map<String, Long> getP99() {
+    Map<String, Long> p99 = new LinkedHashMap<String, Long>();
+    for (Histogram histogram : ALL) {
+      p99.put(histogram.name, histogram.percentile(99));
+    }
+    return p99;
+  }
+
+  public String getReport() {
+    return report();
+  }
+
+  public void reset() {
+    for (Histogram histogram : ALL) {
+      histogram.reset();
+    }
+  }
+}
+
+// counts values into buckets that grow with the size of the value, the way HdrHistogram
+// does: values below 64 get a bucket each, and above that every power of two is split
+// into 32 buckets, so any percentile is within about 3% of the true value, every
+// value up to Long.MAX_VALUE fits in under 2000 buckets, and recording one is a few
+// atomic adds with no allocation
+class Histogram {
+  static final int SUB_BITS = 5;
+  static final int SUB = 1 << SUB_BITS;
+  static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+  String name;
+  String unit;
+  AtomicLongArray buckets;
+  LongAdder count;
+  LongAdder sum;
+  AtomicLong max;
+
+  Histogram(String name, String unit) {
+    this.name = name;
+    this.unit = unit;
+    this.buckets = new AtomicLongArray(BUCKETS);
+    this.count = new LongAdder();
+    this.sum = new LongAdder();
+    this.max = new AtomicLong();
+  }
+
+  // the bucket the given value is counted in
+  static int index(long value) {
+    if (value < 2 * SUB) {
+      return (int) Math.max(value, 0);
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return (shift + 1) * SUB + (int) (value >>> shift) - SUB;
+  }
+
+  // the largest value counted in the given bucket
+  static long highest(int index) {
+    if (index < 2 * SUB) {
+      return index;
+    }
+    int shift = index / SUB - 1;
+    long sub = index % SUB + SUB;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  // counts the given value
+  void record(long value) {
+    this.buckets.incrementAndGet(index(value));
+    this.count.increment();
+    this.sum.add(value);
+    long most = this.max.get();
+    while (value > most && !this.max.compareAndSet(most, value)) {
+      most = this.max.get();
+    }
+  }
+
+  // the number of values counted
+  long count() {
+    return this.count.sum();
+  }
+
+  // the average of the values counted, or 0 if there are none
+  double mean() {
+    long count = this.count();
+    return count == 0 ? 0 : (double) this.sum.sum() / count;
+  }
+
+  // the value the given percent of the values counted are at or below, to within the
+  // width of its bucket, or 0 if there are none
+  long percentile(double percent) {
+    long count = this.count();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(highest(i), this.max.get());
+      }
+    }
+    return this.max.get();
+  }
+
+  // forgets every value counted
+  void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      this.buckets.set(i, 0);
+    }
+    this.count.reset();
+    this.sum.reset();
+    this.max.set(0);
+  }
+
+  // the name, count and spread of the values, with times shown in microseconds
+  public String toString() {
+    double scale = this.unit.equals("ns") ? 1000.0 : 1.0;
+    String unit = this.unit.equals("ns") ? "us" : this.unit;
+    return String.format("%-16s count %,d mean %.1f p50 %.1f p99 %.1f p99.9 %.1f max %.1f %s",
+        this.name, this.count(), this.mean() / scale, this.percentile(50) / scale,
+        this.percentile(99) / scale, this.percentile(99.9) / scale, this.max.get() / scale,
+        unit);
+  }
+}
+
+// examples and tests for the metrics
+class ExamplesMetrics {
+  // test the buckets values are counted in
+  void testBuckets(Tester t) {
+    t.checkExpect(Histogram.index(0), 0);
+    t.checkExpect(Histogram.index(-5), 0);
+    t.checkExpect(Histogram.index(63), 63);
+    t.checkExpect(Histogram.index(64), 64);
+    t.checkExpect(Histogram.index(65), 64);
+    t.checkExpect(Histogram.index(66), 65);
+    t.checkExpect(Histogram.index(128), 96);
+    t.checkExpect(Histogram.index(Long.MAX_VALUE), Histogram.BUCKETS - 1);
+    t.checkExpect(Histogram.highest(63), 63L);
+    t.checkExpect(Histogram.highest(64), 65L);
+    t.checkExpect(Histogram.highest(96), 131L);
+    t.checkExpect(Histogram.highest(Histogram.BUCKETS - 1), Long.MAX_VALUE);
+    boolean fits = true;
+    for (long value = 1; value < 1000000; value = value * 3 + 1) {
+      int index = Histogram.index(value);
+      fits = fits && Histogram.highest(index) >= value
+          && (index == 0 || Histogram.highest(index - 1) < value);
+    }
+    t.checkExpect(fits, true);
+  }
+
+  // test the percentiles of values spread evenly and of no values
+  void testPercentiles(Tester t) {
+    Histogram histogram = new Histogram("test", "ns");
+    t.checkExpect(histogram.percentile(99), 0L);
+    for (long value = 1; value <= 100000; value++) {
+      histogram.record(value);
+    }
+    t.checkExpect(histogram.count(), 100000L);
+    t.checkInexact(histogram.mean(), 50000.5, 0.0001);
+    t.checkInexact((double) histogram.percentile(50), 50000.0, 0.04);
+    t.checkInexact((double) histogram.percentile(99), 99000.0, 0.04);
+    t.checkExpect(histogram.percentile(100), 100000L);
+    t.checkExpect(histogram.toString().startsWith("test             count 100,000 mean 50.0"),
+        true);
+    histogram.reset();
+    t.checkExpect(histogram.count(), 0L);
+    t.checkExpect(histogram.percentile(50), 0L);
+  }
+
+  // test that the hooks in the game record only while metrics are on
+  void testHooks(Tester t) {
+    boolean was = Metrics.enabled;
+    Metrics.INSTANCE.reset();
+    Metrics.enabled = false;
+    new Minesweeper(10, 10, 0, new Random(1)).revealCell(0, 0);
+    t.checkExpect(Metrics.REVEAL.count(), 0L);
+    Metrics.enabled = true;
+    Minesweeper game = new Minesweeper(10, 10, 0, new Random(1));
+    game.revealCell(0, 0);
+    game.checkGame(game.grid.get(0).get(0));
+    game.makeScene();
+    Minesweeper packed = new Minesweeper(new PackedBoard(5, 5, 0, new Random(1)));
+    packed.revealCell(2, 2);
+    Metrics.enabled = was;
+    t.checkExpect(Metrics.REVEAL.count(), 2L);
+    t.checkExpect(Metrics.FLOOD_CELLS.count(), 2L);
+    t.checkExpect(Metrics.FLOOD_CELLS.max.get(), 99L);
+    t.checkExpect(Metrics.FLOOD_TIME.count(), 2L);
+    t.checkExpect(Metrics.CHECK_GAME.count() >= 2, true);
+    t.checkExpect(Metrics.FRAME.count(), 1L);
+    t.checkExpect(Metrics.FRAME_CELLS.max.get(), 100L);
+    t.checkExpect(Metrics.BOARD_BUILD.count(), 2L);
+    Metrics.INSTANCE.reset();
+  }
+
+  // test the metrics as JMX shows them
+  void testMXBean(Tester t) throws JMException {
+    Metrics.install();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName(Metrics.NAME);
+    t.checkExpect(server.isRegistered(name), true);
+    Metrics.BOARD_BUILD.record(1000);
+    t.checkExpect(server.getAttribute(name, "Enabled"), Metrics.enabled);
+    t.checkExpect(((String) server.getAttribute(name, "Report")).contains("board.build"),
+        true);
+    t.checkExpect(Metrics.INSTANCE.getCounts().get("board.build"), 1L);
+    t.checkExpect(Metrics.INSTANCE.getP99().get("board.build"), 1000L);
+    server.invoke(name, "reset", new Object[0], new String[0]);
+    t.checkExpect(Metrics.BOARD_BUILD.count(), 0L);
+  }
+}
@@ -0,0 +1,23 @@
+import java.util.Map;
+
+// what Metrics shows through JMX, under minesweeper:type=Metrics; JMX can only see an
+// interface that is public, so this one lives in a file of its own
+public interface MetricsMXBean {
+  // is anything being recorded?
+  boolean isEnabled();
+
+  // starts or stops recording
+  void setEnabled(boolean enabled);
+
+  // how many values each metric has recorded, by name
+  Map<String, Long> getCounts();
+
+  // the 99th percentile of each metric, in nanoseconds or cells, by name
+  Map<String, Long> getP99();
+
+  // every metric as text, one line each
+  String getReport();
+
+  // forgets everything recorded so far
+  void reset();
+}
@@ -0,0 +1,103 @@
+import java.util.HashSet;
+import java.util.Random;
+import tester.*;
+
+// chooses where mines go, in time bounded by the size of the board no matter how many
+// of its cells are mines
+class MinePlacement {
+  // k distinct numbers from 0 to n - 1, in the order they were drawn; the same Random
+  // seed always gives the same numbers
+  static int[] choose(Random random, int n, int k) {
+    if (n < 0 || k < 0 || k > n) {
+      throw new IllegalArgumentException(
+          "Cannot place " + k + " mines in " + n + " cells");
+    }
+    if (k <= n / 4) {
+      return chooseSparse(random, n, k);
+    }
+    return chooseDense(random, n, k);
+  }
+
+  // Floyd's sampling algorithm, which draws exactly k times and only remembers what it
+  // has drawn, for boards that are mostly safe
+  static int[] chooseSparse(Random random, int n, int k) {
+    int[] chosen = new int[k];
+    HashSet<Integer> seen = new HashSet<Integer>();
+    for (int i = 0; i < k; i++) {
+      int last = n - k + i;
+      int pick = random.nextInt(last + 1);
+      if (!seen.add(pick)) {
+        pick = last;
+        seen.add(pick);
+      }
+      chosen[i] = pick;
+    }
+    return chosen;
+  }
+
+  // a Fisher-Yates shuffle stopped after k swaps, for boards that are mostly mines
+  static int[] chooseDense(Random random, int n, int k) {
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    int[] chosen = new int[k];
+    for (int i = 0; i < k; i++) {
+      int pick = i + random.nextInt(n - i);
+      int swap = order[pick];
+      order[pick] = order[i];
+      order[i] = swap;
+      chosen[i] = swap;
+    }
+    return chosen;
+  }
+}
+
+// examples and tests for mine placement
+class ExamplesMinePlacement {
+
+  // tests that the chosen numbers are distinct and in range
+  boolean distinct(int[] chosen, int n) {
+    boolean[] seen = new boolean[n];
+    for (int pick : chosen) {
+      if (pick < 0 || pick >= n || seen[pick]) {
+        return false;
+      }
+      seen[pick] = true;
+    }
+    return true;
+  }
+
+  // test for choose on sparse and dense boards
+  boolean testChoose(Tester t) {
+    return t.checkExpect(this.distinct(MinePlacement.choose(new Random(1), 100, 10), 100), true)
+        && t.checkExpect(MinePlacement.choose(new Random(1), 100, 10).length, 10)
+        && t.checkExpect(this.distinct(MinePlacement.choose(new Random(1), 100, 99), 100), true)
+        && t.checkExpect(this.distinct(MinePlacement.choose(new Random(1), 50, 50), 50), true)
+        && t.checkExpect(MinePlacement.choose(new Random(1), 0, 0).length, 0);
+  }
+
+  // test that the same seed gives the same choice
+  boolean testChooseDeterministic(Tester t) {
+    return t.checkExpect(MinePlacement.choose(new Random(5), 480, 99),
+        MinePlacement.choose(new Random(5), 480, 99))
+        && t.checkExpect(MinePlacement.choose(new Random(5), 480, 400),
+            MinePlacement.choose(new Random(5), 480, 400));
+  }
+
+  // test that choose rejects impossible requests
+  boolean testChooseInvalid(Tester t) {
+    return t.checkException(new IllegalArgumentException("Cannot place 7 mines in 6 cells"),
+        new MinePlacement(), "choose", new Random(), 6, 7)
+        && t.checkException(new IllegalArgumentException("Cannot place -1 mines in 6 cells"),
+            new MinePlacement(), "choose", new Random(), 6, -1);
+  }
+
+  // test that a full board of mines is placed without looping forever
+  boolean testFullBoard(Tester t) {
+    PackedBoard full = new PackedBoard(100, 100, 10000, new Random(2));
+    return t.checkExpect(full.isMine(0, 0), true)
+        && t.checkExpect(full.isMine(99, 99), true)
+        && t.checkExpect(full.adjacentMines(50, 50), 8);
+  }
+}
@@ -1,61 +1,472 @@
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import tester.*;
 import javalib.impworld.*;
 import java.awt.Color;
 import javalib.worldimages.*;
 import java.util.Random;
-
-
-// represents the constants in the code
-interface WorldConstants {
-  int CELL_SIZE = 20;
-
-}
+import java.util.concurrent.ForkJoinPool;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 
 // represents a world class to animate an array of cells
-class Minesweeper extends World implements WorldConstants {
+class Minesweeper extends World implements WorldConstants, VisibleBoard {
   int rows;
   int columns;
   int numMines;
   ArrayList<ArrayList<Cell>> grid;
+  PackedBoard board;
+  ChunkedBoard chunks;
+  // the row and col of the board shown in the top left corner of the window
+  int top;
+  int left;
+  // the number of rows and columns of cells the window shows
+  int viewRows;
+  int viewColumns;
+  // where the mouse is in the window, or null if it is outside
+  Posn mouse;
   boolean gameOver;
+  boolean won;
+  boolean mineHit;
+  int revealedSafe;
+  int flagged;
   Random rand;
+  // the seed the Random was made from, or null if it was handed in already made
+  Long seed;
+  // where moves are recorded, or null if they are not
+  Journal journal;
+  // closes the journal if the program exits while it is open
+  Thread journalHook;
+  // the moves that can be undone and redone, or null if they are not kept
+  History history;
+  ArrayList<Cell> flooded;
+  ArrayDeque<Cell> floodQueue;
+  DirtyRegion dirty;
+  IncrementalRenderer renderer;
+  TileCache tiles;
+  boolean generated;
+  Solver solver;
 
   // constructor for use in real game
   Minesweeper(int rows, int columns, int numMines) {
-    this.rows = rows;
-    this.columns = columns;
-    this.numMines = numMines;
-    this.grid = new ArrayList<ArrayList<Cell>>();
-    this.gameOver = false;
-    this.rand = new Random();
-    initializeGrid();
+    this(rows, columns, numMines, new Random());
   }
 
   // constructor for use in testing, with a specified Random object
   Minesweeper(int rows, int columns, int numMines, Random rand) {
+    this(rows, columns, numMines, rand, false);
+  }
+
+  // constructor that makes its own Random from the given seed, and remembers the seed
+  Minesweeper(int rows, int columns, int numMines, long seed, boolean firstClickSafe) {
+    this(rows, columns, numMines, new Random(seed), firstClickSafe);
+    this.seed = seed;
+  }
+
+  // constructor that, when firstClickSafe is true, builds the grid without mines and
+  // places them once the first cell is revealed, away from that cell
+  Minesweeper(int rows, int columns, int numMines, Random rand, boolean firstClickSafe) {
+    if (firstClickSafe && (numMines < 0 || numMines >= rows * columns)) {
+      throw new IllegalArgumentException("Cannot place " + numMines + " mines in "
+          + rows * columns + " cells and keep the first click safe");
+    }
     this.rows = rows;
     this.columns = columns;
     this.numMines = numMines;
     this.grid = new ArrayList<ArrayList<Cell>>();
     this.gameOver = false;
+    this.won = false;
+    this.mineHit = false;
+    this.revealedSafe = 0;
+    this.flagged = 0;
     this.rand = rand;
-    initializeGrid();
+    this.flooded = new ArrayList<Cell>();
+    this.floodQueue = new ArrayDeque<Cell>();
+    this.dirty = new DirtyRegion(rows, columns);
+    this.tiles = TileCache.of(CELL_SIZE);
+    this.viewRows = rows;
+    this.viewColumns = columns;
+    this.generated = !firstClickSafe;
+    long start = Metrics.start();
+    if (this.generated) {
+      initializeGrid();
+    }
+    else {
+      buildGrid();
+    }
+    Metrics.stop(Metrics.BOARD_BUILD, start);
+  }
+
+  // constructor for a game kept in a packed board instead of a grid of cells, for
+  // boards too large to hold one Cell object per cell
+  Minesweeper(PackedBoard board) {
+    this.rows = board.rows;
+    this.columns = board.columns;
+    this.numMines = board.numMines;
+    this.board = board;
+    this.gameOver = board.gameOver;
+    this.won = board.won;
+    this.mineHit = board.mineHit;
+    this.revealedSafe = board.revealedSafe;
+    this.flagged = board.flagged;
+    this.rand = board.rand;
+    this.seed = board.seed;
+    this.generated = true;
+    this.dirty = new DirtyRegion(rows, columns);
+    this.tiles = TileCache.of(CELL_SIZE);
+    this.viewRows = rows;
+    this.viewColumns = columns;
+  }
+
+  // the number of rows of the board
+  public int rows() {
+    return this.rows;
+  }
+
+  // the number of columns of the board
+  public int columns() {
+    return this.columns;
+  }
+
+  // the number of mines on the board
+  public int mineCount() {
+    return this.numMines;
+  }
+
+  // the topology of a packed board, or the usual eight neighbors of the Cell grid
+  public Topology topology() {
+    if (this.board != null) {
+      return board.topology;
+    }
+    return Topology.square(this.rows, this.columns);
+  }
+
+  // has the cell at the given row and col been revealed?
+  public boolean isRevealed(int row, int col) {
+    if (this.board != null) {
+      return board.isRevealed(row, col);
+    }
+    if (this.chunks != null) {
+      return chunks.isRevealed(top + row, left + col);
+    }
+    return this.grid.get(row).get(col).isRevealed;
+  }
+
+  // has the cell at the given row and col been flagged?
+  public boolean isFlagged(int row, int col) {
+    if (this.board != null) {
+      return board.isFlagged(row, col);
+    }
+    if (this.chunks != null) {
+      return chunks.isFlagged(top + row, left + col);
+    }
+    return this.grid.get(row).get(col).isFlagged;
+  }
+
+  // the number of mines around the cell at the given row and col
+  public int adjacentMines(int row, int col) {
+    if (this.board != null) {
+      return board.adjacentMines(row, col);
+    }
+    if (this.chunks != null) {
+      return chunks.adjacentMines(top + row, left + col);
+    }
+    return this.grid.get(row).get(col).adjacentMines;
+  }
+
+  // the next move the solver would make from what the player can see: a safe cell to
+  // reveal, a mine to flag, or failing both the cell least likely to be a mine; null
+  // once every cell is known
+  Hint hint() {
+    if (this.solver == null) {
+      this.solver = new Solver(this);
+    }
+    return this.solver.hint();
+  }
+
+  // makes the move the solver suggests, returning false once there is nothing to do
+  boolean autoPlay() {
+    if (this.gameOver) {
+      return false;
+    }
+    Hint hint = this.hint();
+    if (hint == null) {
+      return false;
+    }
+    if (hint.isMine) {
+      this.flagCell(hint.row, hint.col);
+    }
+    else {
+      this.revealCell(hint.row, hint.col);
+    }
+    return true;
+  }
+
+  // tells the solver, if there is one, that the given cell may have been revealed;
+  // cells that were not built by initializeGrid have no position, so the solver is
+  // thrown away and built again by the next hint
+  void updateSolver(Cell cell) {
+    if (this.solver != null) {
+      if (cell.row < 0) {
+        this.solver = null;
+      }
+      else {
+        this.solver.update(cell.row * columns + cell.col);
+      }
+    }
+  }
+
+  // constructor for a window of the given number of rows and columns onto a chunked
+  // board with no edges; the counts of mines and safe cells are only those in view
+  Minesweeper(ChunkedBoard chunks, int rows, int columns) {
+    this.rows = rows;
+    this.columns = columns;
+    this.numMines = (int) ((long) rows * columns * chunks.minesPerChunk
+        / (ChunkedBoard.CHUNK_SIZE * ChunkedBoard.CHUNK_SIZE));
+    this.chunks = chunks;
+    this.top = 0;
+    this.left = 0;
+    this.gameOver = chunks.gameOver;
+    this.won = false;
+    this.mineHit = chunks.mineHit;
+    this.revealedSafe = (int) chunks.revealedSafe;
+    this.flagged = chunks.flagged;
+    this.generated = true;
+    this.dirty = new DirtyRegion(rows, columns);
+    this.tiles = TileCache.of(CELL_SIZE);
+    this.viewRows = rows;
+    this.viewColumns = columns;
+  }
+
+  // records every move from here on to a journal at the given path, from which the game
+  // can be replayed; the game must have been made from a seed and not started yet
+  void startJournal(Path path) throws IOException {
+    if (this.history != null) {
+      throw new IllegalArgumentException("Cannot journal a game whose moves can be undone");
+    }
+    if (this.board != null && !this.board.topology.square) {
+      throw new IllegalArgumentException("Cannot journal a game that is not on a square "
+          + "board");
+    }
+    Journal journal = Journal.create(path, this);
+    this.journal = journal;
+    // so that the moves still in its buffer reach the file if the program exits first
+    this.journalHook = new Thread(() -> {
+      try {
+        journal.close();
+      }
+      catch (IOException e) {
+        // nothing more can be done as the program exits
+      }
+    }, "journal-close");
+    Runtime.getRuntime().addShutdownHook(this.journalHook);
+  }
+
+  // closes the journal, sending the moves still in its buffer to the file, and records
+  // no more moves
+  void stopJournal() {
+    if (this.journal == null) {
+      return;
+    }
+    try {
+      this.journal.close();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    finally {
+      try {
+        Runtime.getRuntime().removeShutdownHook(this.journalHook);
+      }
+      catch (IllegalStateException e) {
+        // the program is already exiting, and the hook closes the journal again
+      }
+      this.journal = null;
+      this.journalHook = null;
+    }
+  }
+
+  // stops the journal if the last move ended the game, so that its moves, which are the
+  // ones most wanted when the game is looked into later, are on disk at once
+  void stopJournalAtEnd(boolean wasOver) {
+    if (this.gameOver && !wasOver) {
+      this.stopJournal();
+    }
+  }
+
+  // keeps every move from now on so that it can be undone and redone; the moves of an
+  // endless board are not kept, and a journal has no way to record an undo
+  void enableUndo() {
+    if (this.chunks != null) {
+      throw new IllegalArgumentException("Cannot undo moves on an endless board");
+    }
+    if (this.journal != null) {
+      throw new IllegalArgumentException("Cannot undo moves in a journaled game");
+    }
+    this.history = new History();
+  }
+
+  // takes back the last move that has not been undone
+  void undo() {
+    if (this.history == null) {
+      throw new IllegalStateException("There is no move to undo");
+    }
+    this.apply(this.history.undo(), false);
+  }
+
+  // makes the last undone move again
+  void redo() {
+    if (this.history == null) {
+      throw new IllegalStateException("There is no move to redo");
+    }
+    this.apply(this.history.redo(), true);
+  }
+
+  // flips back the cells the given move changed, and puts back the counts from before
+  // it, or from after it when it is being redone
+  void apply(Move move, boolean redo) {
+    if (this.board != null) {
+      byte[] cells = board.cells;
+      int bit = move.flag ? PackedBoard.FLAGGED : PackedBoard.REVEALED;
+      for (int index : move.cells) {
+        cells[index] ^= bit;
+        this.dirty.mark(index);
+      }
+    }
+    else {
+      for (int index : move.cells) {
+        Cell cell = grid.get(index / columns).get(index % columns);
+        if (move.flag) {
+          cell.isFlagged = !cell.isFlagged;
+        }
+        else {
+          cell.isRevealed = !cell.isRevealed;
+        }
+        this.dirty.mark(index);
+      }
+    }
+    int end = redo ? move.endAfter : move.endBefore;
+    this.revealedSafe = redo ? move.revealedSafeAfter : move.revealedSafeBefore;
+    this.flagged = redo ? move.flaggedAfter : move.flaggedBefore;
+    this.mineHit = (end & Move.MINE_HIT) != 0;
+    this.won = (end & Move.WON) != 0;
+    this.gameOver = (end & Move.GAME_OVER) != 0;
+    if (this.board != null) {
+      board.revealedSafe = this.revealedSafe;
+      board.flagged = this.flagged;
+      board.mineHit = this.mineHit;
+      board.won = this.won;
+      board.gameOver = this.gameOver;
+    }
+    // the solver cannot take back what it has seen, so it starts over
+    this.solver = null;
+  }
+
+  // keeps the move just made, given the cells whose state it flipped and the counts
+  // from before it, unless it changed nothing
+  void recordMove(boolean flag, int[] cells, int revealedSafeBefore, int flaggedBefore,
+      int endBefore) {
+    if (cells.length > 0) {
+      this.history.record(new Move(flag, cells, revealedSafeBefore, flaggedBefore, endBefore,
+          this.revealedSafe, this.flagged, Move.end(this.mineHit, this.won, this.gameOver)));
+    }
+  }
+
+  // shows only the given number of rows and columns of the board at a time, which can be
+  // scrolled around the board; a window onto a chunked board is resized instead
+  void setViewport(int viewRows, int viewColumns) {
+    if (this.chunks != null) {
+      this.rows = viewRows;
+      this.columns = viewColumns;
+      this.dirty = new DirtyRegion(viewRows, viewColumns);
+      this.solver = null;
+    }
+    this.viewRows = Math.min(viewRows, this.rows);
+    this.viewColumns = Math.min(viewColumns, this.columns);
+    this.scroll(0, 0);
+    if (this.renderer != null) {
+      this.renderer = new IncrementalRenderer(this);
+    }
+    this.dirty.markAll();
+  }
+
+  // moves the window the given number of rows and columns over the board, as far as the
+  // edges of the board allow
+  void scroll(int rowsDown, int columnsRight) {
+    int top = this.top + rowsDown;
+    int left = this.left + columnsRight;
+    if (this.chunks == null) {
+      top = Math.max(0, Math.min(top, this.rows - this.viewRows));
+      left = Math.max(0, Math.min(left, this.columns - this.viewColumns));
+    }
+    if (top != this.top || left != this.left) {
+      this.top = top;
+      this.left = left;
+      this.dirty.markAll();
+      if (this.chunks != null) {
+        // the solver of a chunked game works on what is in the window
+        this.solver = null;
+      }
+    }
+  }
+
+  // the row of this game's cells shown at the top of the window; a chunked game already
+  // counts its rows from the top of the window
+  int viewTop() {
+    if (this.chunks != null) {
+      return 0;
+    }
+    return this.top;
+  }
+
+  // the column of this game's cells shown at the left of the window
+  int viewLeft() {
+    if (this.chunks != null) {
+      return 0;
+    }
+    return this.left;
+  }
+
+  // draws cells from bitmaps made ahead of time rather than from shape images, which is
+  // quicker for the largest boards
+  void useFrozenTiles() {
+    this.tiles = TileCache.frozen(CELL_SIZE);
+    this.dirty.markAll();
+  }
+
+  // draws every frame from a cached board image, redrawing only the cells that have
+  // changed since the last frame
+  void enableIncrementalRendering() {
+    this.renderer = new IncrementalRenderer(this);
+    this.dirty.markAll();
   }
 
   // initialize the grid with cells
   void initializeGrid() {
+    buildGrid();
+    placeMines(rand);
+    countAdjacentMines();
+  }
+
+  // fills the grid with cells that are not mines and links each cell to its neighbors
+  void buildGrid() {
+    if (rows * columns >= ParallelInit.THRESHOLD) {
+      ParallelInit.buildGrid(this, ForkJoinPool.commonPool());
+      return;
+    }
     for (int i = 0; i < rows; i++) {
       ArrayList<Cell> row = new ArrayList<>();
       for (int j = 0; j < columns; j++) {
         Cell cell = new Cell(false, 0, false, false, new ArrayList<Cell>());
+        cell.row = i;
+        cell.col = j;
         row.add(cell);
       }
       grid.add(row);
     }
 
-    placeMines(rand);
-
     for (int i = 0; i < rows; i++) {
       for (int j = 0; j < columns; j++) {
         Cell cell = grid.get(i).get(j);
@@ -70,13 +481,40 @@ class Minesweeper extends World implements WorldConstants {
         }
       }
     }
+  }
 
+  // counts the adjacent mines of every cell on the grid, which must not have been counted
+  // yet; large grids are counted in parallel
+  void countAdjacentMines() {
+    if (rows * columns >= ParallelInit.THRESHOLD) {
+      ParallelInit.countAdjacentMines(this, ForkJoinPool.commonPool());
+      return;
+    }
     for (ArrayList<Cell> row : this.grid) {
       for (Cell cell : row) {
         cell.countAdjacentMines();
       }
     }
+  }
 
+  // places the mines once the given cell has been revealed for the first time, keeping
+  // that cell and, if there is room, its neighbors free of mines
+  void generateAround(Cell clickedCell) {
+    ArrayList<Cell> kept = new ArrayList<Cell>();
+    kept.add(clickedCell);
+    if (rows * columns - 1 - clickedCell.neighbors.size() >= numMines) {
+      kept.addAll(clickedCell.neighbors);
+    }
+    // mark the kept cells as mines for a moment so that placeMines passes over them
+    for (Cell cell : kept) {
+      cell.isMine = true;
+    }
+    placeMines(rand);
+    for (Cell cell : kept) {
+      cell.isMine = false;
+    }
+    countAdjacentMines();
+    this.generated = true;
   }
 
   // checks to see if the inputed row and col are valid cells on the grid
@@ -84,58 +522,112 @@ class Minesweeper extends World implements WorldConstants {
     return row >= 0 && row < rows && col >= 0 && col < columns;
   }
 
-  // randomly place mines on the grid
+  // randomly place mines on cells of the grid that are not mines yet, choosing them all
+  // in one pass so that even a board that is nearly all mines is placed quickly
   void placeMines(Random random) {
-    int minesPlaced = 0;
-    while (minesPlaced < numMines) {
-      int row = random.nextInt(rows);
-      int col = random.nextInt(columns);
-
-      Cell currentCell = this.grid.get(row).get(col);
-      if (!currentCell.isMine) {
-        currentCell.isMine = true;
-        minesPlaced++;
+    ArrayList<Cell> safeCells = new ArrayList<Cell>();
+    for (ArrayList<Cell> row : this.grid) {
+      for (Cell cell : row) {
+        if (!cell.isMine) {
+          safeCells.add(cell);
+        }
       }
     }
+
+    for (int index : MinePlacement.choose(random, safeCells.size(), numMines)) {
+      safeCells.get(index).isMine = true;
+    }
   }
 
   // draws the words onto the background
   public WorldScene makeScene() {
-    WorldScene scene = new WorldScene(columns * CELL_SIZE, rows * CELL_SIZE);
+    long start = Metrics.start();
+    WorldScene scene = this.drawScene();
+    if (start != 0) {
+      Metrics.stop(Metrics.FRAME, start);
+      Metrics.FRAME_CELLS.record(this.renderer != null ? this.renderer.painted
+          : viewRows * viewColumns);
+    }
+    return scene;
+  }
 
-    for (int i = 0; i < rows; i++) {
-      for (int j = 0; j < columns; j++) {
-        Cell currentCell = this.grid.get(i).get(j);
-        scene.placeImageXY(currentCell.draw(), j * CELL_SIZE + CELL_SIZE / 2,
+  // draws the cells in the window, and the end of the game once it is over
+  WorldScene drawScene() {
+    if (this.renderer != null) {
+      return this.renderer.render(this.dirty);
+    }
+    WorldScene scene = new WorldScene(viewColumns * CELL_SIZE, viewRows * CELL_SIZE);
+
+    // only the cells in the window are drawn, so a frame costs the same on any board
+    int top = this.viewTop();
+    int left = this.viewLeft();
+    for (int i = 0; i < viewRows; i++) {
+      for (int j = 0; j < viewColumns; j++) {
+        scene.placeImageXY(this.drawCell(top + i, left + j), j * CELL_SIZE + CELL_SIZE / 2,
             i * CELL_SIZE + CELL_SIZE / 2);
       }
     }
 
     if (gameOver) {
-      String message = "You Win!";
-      for (int i = 0; i < rows; i++) {
-        for (int j = 0; j < columns; j++) {
-          Cell cell = grid.get(i).get(j);
-          if (cell.isMine && cell.isRevealed) {
-            message = "You Lose";
-          }
-        }
-      }
-      TextImage gameOverText = new TextImage(message, 24, Color.RED);
-      scene.placeImageXY(gameOverText, columns * CELL_SIZE / 2, rows * CELL_SIZE / 2);
+      scene.placeImageXY(this.gameOverText(), viewColumns * CELL_SIZE / 2,
+          viewRows * CELL_SIZE / 2);
     }
 
     return scene;
   }
 
-  // reveals a cell if left click and flags a cell if right click
+  // the message shown once the game is over
+  WorldImage gameOverText() {
+    String message = "You Lose";
+    if (this.won) {
+      message = "You Win!";
+    }
+    return new TextImage(message, 24, Color.RED);
+  }
+
+  // records that the given cell needs to be drawn again; cells that were not built by
+  // initializeGrid have no position, so the whole board is redrawn
+  void markDirty(Cell cell) {
+    if (cell.row < 0) {
+      this.dirty.markAll();
+    }
+    else {
+      this.dirty.mark(cell.row * columns + cell.col);
+    }
+  }
+
+  // draws the cell at the given row and col, from whichever board backs this game
+  WorldImage drawCell(int row, int col) {
+    return this.tiles.tile(this.tileState(row, col));
+  }
+
+  // the way the cell at the given row and col looks, as numbered by TileCache.state
+  int tileState(int row, int col) {
+    if (this.board != null) {
+      return TileCache.state(board.isMine(row, col), board.adjacentMines(row, col),
+          board.isRevealed(row, col), board.isFlagged(row, col));
+    }
+    if (this.chunks != null) {
+      return TileCache.state(chunks.isMine(top + row, left + col),
+          chunks.adjacentMines(top + row, left + col), chunks.isRevealed(top + row, left + col),
+          chunks.isFlagged(top + row, left + col));
+    }
+    Cell cell = this.grid.get(row).get(col);
+    return TileCache.state(cell.isMine, cell.adjacentMines, cell.isRevealed, cell.isFlagged);
+  }
+
+  // reveals a cell if left click, flags a cell if right click, and reveals around a
+  // number if middle click
   public void onMouseClicked(Posn pos, String button) {
     if (!gameOver) {
-      int row = pos.y / CELL_SIZE;
-      int col = pos.x / CELL_SIZE;
+      int row = this.viewTop() + pos.y / CELL_SIZE;
+      int col = this.viewLeft() + pos.x / CELL_SIZE;
       if (button.equals("RightButton")) {
         this.flagCell(row, col);
       }
+      else if (button.equals("MiddleButton")) {
+        this.chordCell(row, col);
+      }
       else if (button.equals("LeftButton")) {
         this.revealCell(row, col);
       }
@@ -144,40 +636,387 @@ class Minesweeper extends World implements WorldConstants {
 
   }
 
+  // plays the solver's next move when the a key is pressed, undoes and redoes moves
+  // with u and r, and scrolls the window with the arrow keys
+  public void onKeyEvent(String key) {
+    if (key.equals("a")) {
+      this.autoPlay();
+    }
+    else if (key.equals("u") && this.history != null && this.history.canUndo()) {
+      this.undo();
+    }
+    else if (key.equals("r") && this.history != null && this.history.canRedo()) {
+      this.redo();
+    }
+    else if (key.equals("up")) {
+      this.scroll(-SCROLL_STEP, 0);
+    }
+    else if (key.equals("down")) {
+      this.scroll(SCROLL_STEP, 0);
+    }
+    else if (key.equals("left")) {
+      this.scroll(0, -SCROLL_STEP);
+    }
+    else if (key.equals("right")) {
+      this.scroll(0, SCROLL_STEP);
+    }
+  }
+
+  // remembers where the mouse is, so that holding it at an edge of the window scrolls
+  public void onMouseMoved(Posn pos) {
+    this.mouse = pos;
+  }
+
+  // forgets the mouse once it leaves the window
+  public void onMouseExited(Posn pos) {
+    this.mouse = null;
+  }
+
+  // scrolls the window one cell towards whichever edges the mouse is within a cell of
+  public void onTick() {
+    if (this.mouse != null) {
+      int rowsDown = 0;
+      int columnsRight = 0;
+      if (this.mouse.y < CELL_SIZE) {
+        rowsDown = -1;
+      }
+      else if (this.mouse.y >= (viewRows - 1) * CELL_SIZE) {
+        rowsDown = 1;
+      }
+      if (this.mouse.x < CELL_SIZE) {
+        columnsRight = -1;
+      }
+      else if (this.mouse.x >= (viewColumns - 1) * CELL_SIZE) {
+        columnsRight = 1;
+      }
+      this.scroll(rowsDown, columnsRight);
+    }
+  }
+
   // flags the indicated cell and if cell is already flagged, undoes it
   public void flagCell(int row, int col) {
+    if (this.journal != null) {
+      this.journal.record(Journal.FLAG, row, col);
+    }
+    int flaggedBefore = this.flagged;
+    if (this.board != null) {
+      board.flagCell(row, col);
+      this.flagged = board.flagged;
+      this.dirty.mark(board.index(row, col));
+      if (this.history != null) {
+        this.recordMove(true, new int[] { board.index(row, col) }, this.revealedSafe,
+            flaggedBefore, Move.end(this.mineHit, this.won, this.gameOver));
+      }
+      return;
+    }
+    if (this.chunks != null) {
+      chunks.flagCell(top + row, left + col);
+      this.flagged = chunks.flagged;
+      this.dirty.mark(row * columns + col);
+      return;
+    }
     Cell clickedCell = grid.get(row).get(col);
+    this.markDirty(clickedCell);
     if(clickedCell.isFlagged) {
       clickedCell.isFlagged = false;
+      this.flagged--;
     }
     else {
       clickedCell.isFlagged = true;
+      this.flagged++;
+    }
+    if (this.history != null) {
+      this.recordMove(true, new int[] { row * columns + col }, this.revealedSafe,
+          flaggedBefore, Move.end(this.mineHit, this.won, this.gameOver));
     }
   }
 
-  // reveals a cell when clicked
+  // reveals a cell when clicked, keeping the counts of revealed safe cells up to date so
+  // that winning or losing is known without looking at the rest of the grid
   public void revealCell(int row, int col) {
+    long start = Metrics.start();
+    boolean wasOver = this.gameOver;
+    this.reveal(row, col);
+    this.stopJournalAtEnd(wasOver);
+    Metrics.stop(Metrics.REVEAL, start);
+  }
+
+  // reveals the cell at the given row and col from whichever board backs this game
+  void reveal(int row, int col) {
+    if (this.journal != null) {
+      this.journal.record(Journal.REVEAL, row, col);
+    }
+    int revealedSafeBefore = this.revealedSafe;
+    int endBefore = Move.end(this.mineHit, this.won, this.gameOver);
+    if (this.board != null) {
+      boolean wasRevealed = board.isRevealed(row, col);
+      board.revealCell(row, col);
+      this.gameOver = board.gameOver;
+      this.won = board.won;
+      this.mineHit = board.mineHit;
+      this.revealedSafe = board.revealedSafe;
+      this.dirty.mark(board.index(row, col));
+      for (int k = 0; k < board.flood.size; k++) {
+        this.dirty.mark(board.flood.revealed[k]);
+      }
+      if (this.solver != null) {
+        this.solver.update(board.index(row, col));
+        for (int k = 0; k < board.flood.size; k++) {
+          this.solver.update(board.flood.revealed[k]);
+        }
+      }
+      if (this.history != null) {
+        int clicked = board.isRevealed(row, col) != wasRevealed ? 1 : 0;
+        int[] changed = new int[clicked + board.flood.size];
+        if (clicked == 1) {
+          changed[0] = board.index(row, col);
+        }
+        System.arraycopy(board.flood.revealed, 0, changed, clicked, board.flood.size);
+        this.recordMove(false, changed, revealedSafeBefore, this.flagged, endBefore);
+      }
+      return;
+    }
+    if (this.chunks != null) {
+      chunks.revealCell(top + row, left + col);
+      this.gameOver = chunks.gameOver;
+      this.mineHit = chunks.mineHit;
+      this.revealedSafe = (int) chunks.revealedSafe;
+      // a flood can reach anywhere in the window, and past it
+      this.dirty.markAll();
+      this.solver = null;
+      return;
+    }
     Cell clickedCell = grid.get(row).get(col);
+    boolean wasRevealed = clickedCell.isRevealed;
+    // so that flooded only lists the cells this reveal uncovered
+    this.flooded.clear();
+    this.markDirty(clickedCell);
     if(clickedCell.isFlagged)  {
+      if (clickedCell.isRevealed && !clickedCell.isMine) {
+        this.revealedSafe--;
+      }
+      if (clickedCell.isRevealed) {
+        // the solver cannot take back a revealed cell, so it starts over
+        this.solver = null;
+      }
       clickedCell.isRevealed = false;
     }
     else {
+      if (!this.generated) {
+        this.generateAround(clickedCell);
+      }
+      if (!clickedCell.isRevealed && !clickedCell.isMine) {
+        this.revealedSafe++;
+      }
       clickedCell.isRevealed = true;
-      if (checkGame(clickedCell)) {
+      if (clickedCell.isMine) {
+        this.mineHit = true;
         this.gameOver = true;
       }
       else {
         if (clickedCell.adjacentMines == 0) {
-          this.flooding(clickedCell.neighbors);
+          this.revealedSafe += this.flooding(clickedCell.neighbors);
         }
+        if (this.isWon()) {
+          this.won = true;
+          this.gameOver = true;
+        }
+      }
+      this.updateSolver(clickedCell);
+    }
+    if (this.history != null) {
+      int clicked = clickedCell.isRevealed != wasRevealed ? 1 : 0;
+      int[] changed = new int[clicked + this.flooded.size()];
+      if (clicked == 1) {
+        changed[0] = row * columns + col;
+      }
+      for (int k = 0; k < this.flooded.size(); k++) {
+        Cell cell = this.flooded.get(k);
+        changed[clicked + k] = cell.row * columns + cell.col;
+      }
+      this.recordMove(false, changed, revealedSafeBefore, this.flagged, endBefore);
+    }
+  }
+
+  // reveals every unflagged, hidden neighbor of the revealed number at the given row and
+  // col, as long as exactly as many of its neighbors are flagged as it has mines around
+  // it; a wrong flag means a mine is revealed, as in the usual game
+  public void chordCell(int row, int col) {
+    int mines = this.adjacentMines(row, col);
+    if (!this.isRevealed(row, col) || mines == 0) {
+      return;
+    }
+    // the neighbors, from the topology of a packed board or else the usual eight
+    int[] rows = new int[Topology.MAX_NEIGHBORS];
+    int[] cols = new int[Topology.MAX_NEIGHBORS];
+    int size = 0;
+    if (this.board != null) {
+      size = board.neighbors(board.index(row, col), rows);
+      for (int k = 0; k < size; k++) {
+        cols[k] = rows[k] % board.columns;
+        rows[k] = rows[k] / board.columns;
       }
     }
+    else {
+      for (int x = -1; x <= 1; x++) {
+        for (int y = -1; y <= 1; y++) {
+          if ((x != 0 || y != 0) && (this.chunks != null || isValidCell(row + x, col + y))) {
+            rows[size] = row + x;
+            cols[size] = col + y;
+            size++;
+          }
+        }
+      }
+    }
+    int flags = 0;
+    int count = 0;
+    for (int k = 0; k < size; k++) {
+      if (this.isFlagged(rows[k], cols[k])) {
+        flags++;
+      }
+      else if (!this.isRevealed(rows[k], cols[k])) {
+        rows[count] = rows[k];
+        cols[count] = cols[k];
+        count++;
+      }
+    }
+    if (flags == mines && count > 0) {
+      this.revealCells(Arrays.copyOf(rows, count), Arrays.copyOf(cols, count));
+    }
+  }
+
+  // reveals the cells at the given rows and cols as if each had been clicked, except
+  // that their floods are spread in one pass, and the end of the game is checked, the
+  // changed cells marked dirty and the move kept for undo once for all of them; flagged
+  // cells are left alone
+  public void revealCells(int[] rows, int[] cols) {
+    if (rows.length != cols.length) {
+      throw new IllegalArgumentException("Expected as many rows as cols");
+    }
+    long start = Metrics.start();
+    boolean wasOver = this.gameOver;
+    this.revealAll(rows, cols);
+    this.stopJournalAtEnd(wasOver);
+    Metrics.stop(Metrics.REVEAL_BATCH, start);
+  }
+
+  // reveals the cells at the given rows and cols from whichever board backs this game
+  void revealAll(int[] rows, int[] cols) {
+    if (this.journal != null) {
+      for (int k = 0; k < rows.length; k++) {
+        this.journal.record(Journal.REVEAL, rows[k], cols[k]);
+      }
+    }
+    int revealedSafeBefore = this.revealedSafe;
+    int endBefore = Move.end(this.mineHit, this.won, this.gameOver);
+    if (this.board != null) {
+      int[] indexes = new int[rows.length];
+      for (int k = 0; k < rows.length; k++) {
+        indexes[k] = board.index(rows[k], cols[k]);
+      }
+      int[] opened = board.revealCells(indexes);
+      this.gameOver = board.gameOver;
+      this.won = board.won;
+      this.mineHit = board.mineHit;
+      this.revealedSafe = board.revealedSafe;
+      int[] changed = Arrays.copyOf(opened, opened.length + board.flood.size);
+      System.arraycopy(board.flood.revealed, 0, changed, opened.length, board.flood.size);
+      for (int index : changed) {
+        this.dirty.mark(index);
+        if (this.solver != null) {
+          this.solver.update(index);
+        }
+      }
+      if (this.history != null) {
+        this.recordMove(false, changed, revealedSafeBefore, this.flagged, endBefore);
+      }
+      return;
+    }
+    if (this.chunks != null) {
+      for (int k = 0; k < rows.length; k++) {
+        chunks.revealCell(top + rows[k], left + cols[k]);
+      }
+      this.gameOver = chunks.gameOver;
+      this.mineHit = chunks.mineHit;
+      this.revealedSafe = (int) chunks.revealedSafe;
+      this.dirty.markAll();
+      this.solver = null;
+      return;
+    }
+    ArrayList<Cell> opened = new ArrayList<Cell>();
+    ArrayList<Cell> empty = new ArrayList<Cell>();
+    for (int k = 0; k < rows.length; k++) {
+      Cell cell = grid.get(rows[k]).get(cols[k]);
+      if (cell.isFlagged) {
+        continue;
+      }
+      if (!this.generated) {
+        this.generateAround(cell);
+      }
+      if (!cell.isRevealed) {
+        cell.isRevealed = true;
+        opened.add(cell);
+        this.markDirty(cell);
+        if (cell.isMine) {
+          this.mineHit = true;
+        }
+        else {
+          this.revealedSafe++;
+        }
+      }
+      if (!cell.isMine && cell.adjacentMines == 0) {
+        empty.add(cell);
+      }
+    }
+    // one flood from every empty cell at once, so no cell is visited twice
+    this.flooded.clear();
+    this.floodQueue.clear();
+    if (!empty.isEmpty()) {
+      long start = Metrics.start();
+      for (Cell cell : empty) {
+        this.floodNeighbors(cell.neighbors);
+      }
+      while (!this.floodQueue.isEmpty()) {
+        this.floodNeighbors(this.floodQueue.poll().neighbors);
+      }
+      Metrics.flood(start, this.flooded.size());
+      this.revealedSafe += this.flooded.size();
+    }
+    if (this.mineHit) {
+      this.gameOver = true;
+    }
+    else if (this.isWon()) {
+      this.won = true;
+      this.gameOver = true;
+    }
+    for (Cell cell : opened) {
+      this.updateSolver(cell);
+    }
+    if (this.history != null) {
+      int[] changed = new int[opened.size() + this.flooded.size()];
+      for (int k = 0; k < opened.size(); k++) {
+        changed[k] = opened.get(k).row * columns + opened.get(k).col;
+      }
+      for (int k = 0; k < this.flooded.size(); k++) {
+        Cell cell = this.flooded.get(k);
+        changed[opened.size() + k] = cell.row * columns + cell.col;
+      }
+      this.recordMove(false, changed, revealedSafeBefore, this.flagged, endBefore);
+    }
+  }
+
+  // have all the safe cells been revealed without hitting a mine?
+  boolean isWon() {
+    return !this.mineHit && this.revealedSafe == this.rows * this.columns - this.numMines;
   }
 
-  // checks to see if the game is over
+  // checks to see if the game is over by looking at every cell of the grid; revealCell
+  // keeps counts instead, so this is only needed to check a grid edited by hand
   public boolean checkGame(Cell clickedCell) {
+    long start = Metrics.start();
     boolean gameOver = true;
     if (clickedCell.isMine) {
+      Metrics.stop(Metrics.CHECK_GAME, start);
       return gameOver;
     }
     else {
@@ -191,17 +1030,36 @@ class Minesweeper extends World implements WorldConstants {
           }
         }
       }
+      Metrics.stop(Metrics.CHECK_GAME, start);
       return gameOver;
     }
   }
 
-  // implements the flooding aspect of Minesweeper
-  public void flooding(ArrayList<Cell> neighbors) {
+  // implements the flooding aspect of Minesweeper, working through a queue instead of
+  // recursing so a large empty area cannot overflow the stack; the cells it reveals are
+  // left in this.flooded and their number is returned
+  public int flooding(ArrayList<Cell> neighbors) {
+    long start = Metrics.start();
+    this.flooded.clear();
+    this.floodQueue.clear();
+    this.floodNeighbors(neighbors);
+    while (!this.floodQueue.isEmpty()) {
+      this.floodNeighbors(this.floodQueue.poll().neighbors);
+    }
+    Metrics.flood(start, this.flooded.size());
+    return this.flooded.size();
+  }
+
+  // reveals the hidden non-mine cells among the given neighbors, queueing the empty ones
+  void floodNeighbors(ArrayList<Cell> neighbors) {
     for (Cell cell : neighbors) {
       if ((!cell.isMine) && (!cell.isRevealed)) {
         cell.isRevealed = true;
+        this.flooded.add(cell);
+        this.markDirty(cell);
+        this.updateSolver(cell);
         if (cell.adjacentMines == 0) {
-          this.flooding(cell.neighbors);
+          this.floodQueue.add(cell);
         }
       }
     }
@@ -209,70 +1067,6 @@ class Minesweeper extends World implements WorldConstants {
 
 }
 
-// represents a cell within a grid
-class Cell implements WorldConstants {
-  boolean isMine;
-  int adjacentMines;
-  boolean isRevealed;
-  boolean isFlagged;
-  ArrayList<Cell> neighbors;
-
-  // main constructor
-  Cell(boolean isMine, int adjacentMines, boolean isRevealed, boolean isFlagged,
-      ArrayList<Cell> neighbors) {
-    this.isMine = isMine;
-    this.adjacentMines = adjacentMines;
-    this.isRevealed = isRevealed;
-    this.isFlagged = isFlagged;
-    this.neighbors = neighbors;
-  }
-
-  // empty constructor
-  Cell() {
-    this(false, 0, false, false, new ArrayList<Cell>());
-  }
-
-  // count the number of neighboring mines
-  public void countAdjacentMines() {
-    for (Cell neighbor : this.neighbors) {
-      if (neighbor.isMine) {
-        this.adjacentMines++;
-      }
-    }
-  }
-
-  // add a neighbor to this cell
-  public void addNeighbor(Cell neighbor) {
-    this.neighbors.add(neighbor);
-  }
-
-  // draws the state of the cell
-  public WorldImage draw() {
-    if (isRevealed) {
-      if (isMine) {
-        return new RectangleImage(CELL_SIZE, 20, OutlineMode.SOLID, Color.RED);
-      }
-      else if (this.adjacentMines > 0) {
-        return new OverlayImage(
-            new TextImage(Integer.toString(this.adjacentMines), 18, Color.BLACK), new FrameImage(
-                new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.SOLID, Color.LIGHT_GRAY)));
-      }
-      else {
-        return new FrameImage(
-            new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.SOLID, Color.LIGHT_GRAY));
-      }
-    }
-
-    else if (isFlagged) {
-      return new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.SOLID, Color.ORANGE);
-    }
-
-    else {
-      return new RectangleImage(CELL_SIZE, CELL_SIZE, OutlineMode.OUTLINE, Color.BLACK);
-    }
-  }
-}
-
 // examples and test for the Minesweeper game
 class ExamplesMinesweeper {
   Cell basicCell1, basicCell2, cell1, cell2, cell3, cell4, cell5, cell6;
@@ -447,6 +1241,33 @@ class ExamplesMinesweeper {
 
   }
 
+  // tests that placeMines is repeatable and checks how many mines it is asked for
+  void testPlaceMinesSeeded(Tester t) {
+    this.init();
+    Minesweeper first = new Minesweeper(16, 30, 99, new Random(11));
+    Minesweeper second = new Minesweeper(16, 30, 99, new Random(11));
+    int mines = 0;
+    boolean same = true;
+    for (int i = 0; i < 16; i++) {
+      for (int j = 0; j < 30; j++) {
+        if (first.grid.get(i).get(j).isMine) {
+          mines++;
+        }
+        same = same && first.grid.get(i).get(j).isMine == second.grid.get(i).get(j).isMine;
+      }
+    }
+    t.checkExpect(mines, 99);
+    t.checkExpect(same, true);
+
+    // a board of nothing but mines
+    Minesweeper full = new Minesweeper(2, 3, 6, new Random(11));
+    t.checkExpect(full.grid.get(1).get(2).isMine, true);
+
+    // more mines than cells
+    t.checkConstructorException(new IllegalArgumentException("Cannot place 7 mines in 6 cells"),
+        "Minesweeper", 2, 3, 7, new Random());
+  }
+
   boolean testMakeScene(Tester t) {
     this.init();
 
@@ -492,6 +1313,83 @@ class ExamplesMinesweeper {
         && t.checkExpect(this.StartingGame.checkGame(this.cell1), true);
   }
 
+  // tests for the counts kept by revealCell and flagCell
+  void testGameCounts(Tester t) {
+    this.init();
+    // flagging and unflagging a cell updates the flag count
+    this.noMines.flagCell(0, 1);
+    t.checkExpect(this.noMines.flagged, 1);
+    this.noMines.flagCell(0, 1);
+    t.checkExpect(this.noMines.flagged, 0);
+
+    // revealing a cell on a board without mines floods the board and wins straight away
+    this.noMines.revealCell(0, 0);
+    t.checkExpect(this.noMines.revealedSafe, 6);
+    t.checkExpect(this.noMines.isWon(), true);
+    t.checkExpect(this.noMines.won, true);
+    t.checkExpect(this.noMines.gameOver, true);
+
+    // revealing a mine loses the game
+    this.StartingGame3.grid.get(0).set(0, new Cell(true, 0, false, false, new ArrayList<Cell>()));
+    this.StartingGame3.revealCell(0, 0);
+    t.checkExpect(this.StartingGame3.mineHit, true);
+    t.checkExpect(this.StartingGame3.isWon(), false);
+    t.checkExpect(this.StartingGame3.won, false);
+    t.checkExpect(this.StartingGame3.gameOver, true);
+  }
+
+  // tests for the message makeScene draws once the game is over
+  void testMakeSceneGameOver(Tester t) {
+    this.init();
+    this.noMines.revealCell(0, 0);
+    WorldScene won = new WorldScene(60, 40);
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 3; j++) {
+        won.placeImageXY(this.revCell3Image, j * 20 + 20 / 2, i * 20 + 20 / 2);
+      }
+    }
+    won.placeImageXY(new TextImage("You Win!", 24, Color.RED), 30, 20);
+    t.checkExpect(this.noMines.makeScene(), won);
+
+    this.StartingGame3.grid.get(0).set(0, this.revCell1);
+    this.revCell1.isRevealed = false;
+    this.StartingGame3.revealCell(0, 0);
+    WorldScene lost = new WorldScene(20, 20);
+    lost.placeImageXY(this.revCell1Image, 10, 10);
+    lost.placeImageXY(new TextImage("You Lose", 24, Color.RED), 10, 10);
+    t.checkExpect(this.StartingGame3.makeScene(), lost);
+  }
+
+  // tests for a game whose mines are placed on the first reveal
+  void testFirstClickSafe(Tester t) {
+    this.init();
+    Minesweeper lazy = new Minesweeper(5, 5, 16, new Random(4), true);
+    t.checkExpect(lazy.generated, false);
+    t.checkExpect(lazy.grid.get(0).get(0).isMine, false);
+    t.checkExpect(lazy.grid.get(2).get(2).neighbors.size(), 8);
+
+    // with 16 mines in 25 cells, everything but the 3x3 around the click is a mine
+    lazy.revealCell(2, 2);
+    t.checkExpect(lazy.generated, true);
+    // and the flood from the click uncovers every safe cell at once
+    t.checkExpect(lazy.won, true);
+    t.checkExpect(lazy.grid.get(1).get(1).isMine, false);
+    t.checkExpect(lazy.grid.get(3).get(3).isMine, false);
+    t.checkExpect(lazy.grid.get(4).get(4).isMine, true);
+    t.checkExpect(lazy.grid.get(2).get(2).adjacentMines, 0);
+    t.checkExpect(lazy.grid.get(1).get(1).adjacentMines, 5);
+    t.checkExpect(lazy.grid.get(1).get(2).isRevealed, true);
+
+    // the same seed and first click give the same board as a packed board
+    PackedBoard packed = new PackedBoard(5, 5, 16, new Random(4), true);
+    packed.revealCell(2, 2);
+    t.checkExpect(packed.isMine(4, 4), true);
+
+    t.checkConstructorException(new IllegalArgumentException(
+        "Cannot place 6 mines in 6 cells and keep the first click safe"),
+        "Minesweeper", 2, 3, 6, new Random(), true);
+  }
+
   // tests for flagCell method
   void testFlagCell(Tester t) {
     this.init();
@@ -574,6 +1472,50 @@ class ExamplesMinesweeper {
     t.checkExpect(this.cell2.isRevealed, true);
   }
 
+  // tests for a window showing part of a board
+  void testViewport(Tester t) {
+    Minesweeper big = new Minesweeper(new PackedBoard(2000, 2000, 0, new Random(1)));
+    big.setViewport(30, 40);
+    t.checkExpect(big.makeScene().width, 800);
+    t.checkExpect(big.makeScene().height, 600);
+    big.scroll(100, 50);
+    t.checkExpect(big.top, 100);
+    t.checkExpect(big.left, 50);
+    big.onMouseClicked(new Posn(45, 65), "RightButton");
+    t.checkExpect(big.isFlagged(103, 52), true);
+    t.checkExpect(big.tileState(103, 52), TileCache.FLAGGED);
+    // the window stops at the edges of the board
+    big.scroll(-500, 5000);
+    t.checkExpect(big.top, 0);
+    t.checkExpect(big.left, 1960);
+    big.setViewport(5000, 10);
+    t.checkExpect(big.viewRows, 2000);
+    t.checkExpect(big.viewColumns, 10);
+    t.checkExpect(big.left, 1960);
+  }
+
+  // tests for scrolling with the arrow keys and by holding the mouse at an edge
+  void testScrolling(Tester t) {
+    Minesweeper big = new Minesweeper(100, 100, 0, new Random(1));
+    big.setViewport(10, 10);
+    big.onKeyEvent("down");
+    big.onKeyEvent("right");
+    big.onKeyEvent("right");
+    t.checkExpect(big.top, WorldConstants.SCROLL_STEP);
+    t.checkExpect(big.left, 2 * WorldConstants.SCROLL_STEP);
+    big.onKeyEvent("up");
+    t.checkExpect(big.top, 0);
+    big.onTick();
+    t.checkExpect(big.left, 2 * WorldConstants.SCROLL_STEP);
+    big.onMouseMoved(new Posn(5, 195));
+    big.onTick();
+    t.checkExpect(big.top, 1);
+    t.checkExpect(big.left, 2 * WorldConstants.SCROLL_STEP - 1);
+    big.onMouseExited(new Posn(5, 195));
+    big.onTick();
+    t.checkExpect(big.top, 1);
+  }
+
   // tests for method flooding
   void testFlooding(Tester t) {
     this.init();
@@ -606,6 +1548,135 @@ class ExamplesMinesweeper {
     // mine
     t.checkExpect(this.cell4.isRevealed, false);
   }
+
+  // is there a mine at the given row and col of a game backed by a Cell grid or a
+  // PackedBoard?
+  boolean mineAt(Minesweeper game, int row, int col) {
+    return game.board != null ? game.board.isMine(row, col)
+        : game.grid.get(row).get(col).isMine;
+  }
+
+  // tests for chordCell, on a Cell grid and on a PackedBoard
+  void testChordCell(Tester t) {
+    Minesweeper[] games = { new Minesweeper(16, 30, 99, new Random(3)),
+        new Minesweeper(new PackedBoard(16, 30, 99, new Random(3))) };
+    for (Minesweeper game : games) {
+      // a revealed number with every neighbor hidden
+      int row = 1;
+      int col = 1;
+      while (this.mineAt(game, row, col) || game.adjacentMines(row, col) == 0) {
+        col++;
+        if (col == 29) {
+          row++;
+          col = 1;
+        }
+      }
+      game.revealCell(row, col);
+      // too few flags, so nothing happens
+      game.chordCell(row, col);
+      int safe = 0;
+      for (int x = -1; x <= 1; x++) {
+        for (int y = -1; y <= 1; y++) {
+          if ((x != 0 || y != 0) && !this.mineAt(game, row + x, col + y)) {
+            t.checkExpect(game.isRevealed(row + x, col + y), false);
+            safe++;
+          }
+        }
+      }
+      for (int x = -1; x <= 1; x++) {
+        for (int y = -1; y <= 1; y++) {
+          if (this.mineAt(game, row + x, col + y)) {
+            game.flagCell(row + x, col + y);
+          }
+        }
+      }
+      int before = game.revealedSafe;
+      game.onMouseClicked(new Posn(col * WorldConstants.CELL_SIZE + 1,
+          row * WorldConstants.CELL_SIZE + 1), "MiddleButton");
+      boolean around = true;
+      for (int x = -1; x <= 1; x++) {
+        for (int y = -1; y <= 1; y++) {
+          around = around && game.isRevealed(row + x, col + y) != this.mineAt(game, row + x,
+              col + y);
+        }
+      }
+      t.checkExpect(around, true);
+      t.checkExpect(game.revealedSafe >= before + safe, true);
+      t.checkExpect(game.mineHit, false);
+    }
+
+    // a wrong flag reveals the mine it should have covered
+    Minesweeper game = new Minesweeper(1, 3, 0, new Random(1));
+    game.grid.get(0).get(2).isMine = true;
+    game.grid.get(0).get(1).adjacentMines = 1;
+    game.generated = true;
+    game.revealCell(0, 1);
+    game.flagCell(0, 0);
+    game.chordCell(0, 1);
+    t.checkExpect(game.isRevealed(0, 2), true);
+    t.checkExpect(game.mineHit, true);
+    t.checkExpect(game.gameOver, true);
+  }
+
+  // tests that revealCells ends up where revealing the cells one at a time does, and is
+  // undone in one step
+  void testRevealCells(Tester t) {
+    t.checkException(new IllegalArgumentException("Expected as many rows as cols"),
+        new Minesweeper(2, 2, 0, new Random(1)), "revealCells", new int[1], new int[2]);
+    int[] rows = { 0, 15, 8, 3, 12, 15 };
+    int[] cols = { 0, 29, 15, 27, 4, 0 };
+    for (int kind = 0; kind < 2; kind++) {
+      Minesweeper batch = kind == 0 ? new Minesweeper(16, 30, 40, new Random(5))
+          : new Minesweeper(new PackedBoard(16, 30, 40, new Random(5)));
+      Minesweeper single = kind == 0 ? new Minesweeper(16, 30, 40, new Random(5))
+          : new Minesweeper(new PackedBoard(16, 30, 40, new Random(5)));
+      batch.enableUndo();
+      // only the safe cells, so that the game goes on
+      int count = 0;
+      int[] safeRows = new int[rows.length];
+      int[] safeCols = new int[cols.length];
+      for (int k = 0; k < rows.length; k++) {
+        if (!this.mineAt(batch, rows[k], cols[k])) {
+          safeRows[count] = rows[k];
+          safeCols[count] = cols[k];
+          count++;
+        }
+      }
+      batch.revealCells(Arrays.copyOf(safeRows, count), Arrays.copyOf(safeCols, count));
+      for (int k = 0; k < count; k++) {
+        single.revealCell(safeRows[k], safeCols[k]);
+      }
+      boolean same = true;
+      for (int i = 0; i < 16; i++) {
+        for (int j = 0; j < 30; j++) {
+          same = same && batch.isRevealed(i, j) == single.isRevealed(i, j);
+        }
+      }
+      t.checkExpect(same, true);
+      t.checkExpect(batch.revealedSafe, single.revealedSafe);
+      t.checkExpect(batch.gameOver, single.gameOver);
+      batch.undo();
+      t.checkExpect(batch.revealedSafe, 0);
+      t.checkExpect(batch.history.canUndo(), false);
+    }
+  }
+
+  // tests for the cells method flooding reports back
+  void testFloodingRevealed(Tester t) {
+    this.init();
+    this.cell3.isRevealed = true;
+
+    // cell3 has no adjacent mines, so flooding its neighbors reveals the rest of the
+    // non-mine cells
+    t.checkExpect(this.StartingGame2.flooding(this.cell3.neighbors), 3);
+    t.checkExpect(this.StartingGame2.flooded.contains(this.cell2), true);
+    t.checkExpect(this.StartingGame2.flooded.contains(this.cell5), true);
+    t.checkExpect(this.StartingGame2.flooded.contains(this.cell6), true);
+
+    // flooding again reveals nothing new
+    t.checkExpect(this.StartingGame2.flooding(this.cell3.neighbors), 0);
+    t.checkExpect(this.StartingGame2.flooded.size(), 0);
+  }
 /*
   void testBigBang(Tester t) {
     Minesweeper world = new Minesweeper(30, 16, 80);
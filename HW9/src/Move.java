@@ -0,0 +1,35 @@
+// the changes one reveal or flag made to a game
+class Move {
+  // the bits of the end of a game, as kept in before and after
+  static final int MINE_HIT = 1;
+  static final int WON = 2;
+  static final int GAME_OVER = 4;
+
+  // whether the move flipped flags, or else revealed cells
+  boolean flag;
+  // the indexes, row * columns + col, of the cells whose state the move flipped
+  int[] cells;
+  int revealedSafeBefore;
+  int revealedSafeAfter;
+  int flaggedBefore;
+  int flaggedAfter;
+  int endBefore;
+  int endAfter;
+
+  Move(boolean flag, int[] cells, int revealedSafeBefore, int flaggedBefore, int endBefore,
+      int revealedSafeAfter, int flaggedAfter, int endAfter) {
+    this.flag = flag;
+    this.cells = cells;
+    this.revealedSafeBefore = revealedSafeBefore;
+    this.flaggedBefore = flaggedBefore;
+    this.endBefore = endBefore;
+    this.revealedSafeAfter = revealedSafeAfter;
+    this.flaggedAfter = flaggedAfter;
+    this.endAfter = endAfter;
+  }
+
+  // the end bits of the given mine hit, won and game over
+  static int end(boolean mineHit, boolean won, boolean gameOver) {
+    return (mineHit ? MINE_HIT : 0) | (won ? WON : 0) | (gameOver ? GAME_OVER : 0);
+  }
+}
@@ -0,0 +1,356 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import tester.*;
+
+// builds boards that can be won from their first click without ever having to guess
+//
+// candidate number c is the board whose mines are placed from new Random(seed + c)
+// around the first click, the same way a PackedBoard places them when its first click
+// is kept safe. Each candidate is played by the solver from that click, revealing only
+// cells it has deduced to be safe, and is rejected as soon as the solver has nothing
+// left to deduce before the board is won; a safe cell walled in by mines is rejected
+// before the solver even starts, since no number can ever tell it apart from a mine
+//
+// candidates are tried in rounds spread over the cores of the machine with a fork-join
+// pool, and the boards kept are the first ones accepted in candidate order, so a batch
+// comes out the same however many threads it runs on
+//
+// run with: java -cp "bin:libs/*" NoGuessGenerator [boards] [rows] [columns] [mines]
+//   [threads]
+class NoGuessGenerator {
+  // the most candidates tried for each board asked for before giving up
+  static final int MAX_CANDIDATES_PER_BOARD = 100000;
+
+  int rows;
+  int columns;
+  int numMines;
+  int firstRow;
+  int firstCol;
+  long seed;
+  ForkJoinPool pool;
+  // the number of candidates tried in each round
+  int round;
+  // the number of candidates tried and how long it took, over every call to generate
+  long candidates;
+  long nanos;
+
+  // a generator that tries candidates on the given pool, which the caller shuts down
+  NoGuessGenerator(int rows, int columns, int numMines, int firstRow, int firstCol,
+      long seed, ForkJoinPool pool) {
+    if (numMines < 0 || numMines >= rows * columns) {
+      throw new IllegalArgumentException("Cannot place " + numMines + " mines in "
+          + rows * columns + " cells and keep the first click safe");
+    }
+    if (firstRow < 0 || firstRow >= rows || firstCol < 0 || firstCol >= columns) {
+      throw new IllegalArgumentException("The first click is not on the board");
+    }
+    this.rows = rows;
+    this.columns = columns;
+    this.numMines = numMines;
+    this.firstRow = firstRow;
+    this.firstCol = firstCol;
+    this.seed = seed;
+    this.pool = pool;
+    this.round = 16 * pool.getParallelism();
+  }
+
+  public static void main(String[] args) {
+    int boards = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int rows = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int columns = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    int mines = args.length > 3 ? Integer.parseInt(args[3]) : 99;
+    int threads = args.length > 4 ? Integer.parseInt(args[4])
+        : Runtime.getRuntime().availableProcessors();
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    NoGuessGenerator generator = new NoGuessGenerator(rows, columns, mines, rows / 2,
+        columns / 2, 1, pool);
+    // once to warm up, then timed
+    generator.generate(Math.max(1, boards / 10));
+    generator.candidates = 0;
+    generator.nanos = 0;
+    ArrayList<BoardAnalysis> found = generator.generate(boards);
+    System.out.println(generator.report(found));
+    pool.shutdown();
+  }
+
+  // the first count boards after those found so far that can be won without guessing,
+  // with how hard each one is
+  ArrayList<BoardAnalysis> generate(int count) {
+    long start = System.nanoTime();
+    ArrayList<BoardAnalysis> found = new ArrayList<BoardAnalysis>(count);
+    long limit = this.candidates + (long) count * MAX_CANDIDATES_PER_BOARD;
+    while (found.size() < count) {
+      if (this.candidates >= limit) {
+        throw new IllegalStateException("Could not find " + count + " boards without "
+            + "guessing in " + (long) count * MAX_CANDIDATES_PER_BOARD + " candidates");
+      }
+      BoardAnalysis[] results = new BoardAnalysis[this.round];
+      this.pool.invoke(new CandidateRange(this, this.candidates, results, 0, this.round));
+      // the rest of the round is thrown away, so the next round starts after the last
+      // board kept
+      int used = this.round;
+      for (int k = 0; k < results.length && found.size() < count; k++) {
+        if (results[k] != null) {
+          found.add(results[k]);
+          used = k + 1;
+        }
+      }
+      this.candidates += found.size() < count ? this.round : used;
+    }
+    this.nanos += System.nanoTime() - start;
+    return found;
+  }
+
+  // the board of the given candidate, with its mines placed and nothing revealed
+  PackedBoard build(long candidate) {
+    PackedBoard board = new PackedBoard(rows, columns, numMines, this.seed + candidate,
+        true);
+    board.generateAround(board.index(firstRow, firstCol));
+    return board;
+  }
+
+  // plays the given candidate with the solver from the first click, returning how hard
+  // it was, or null if the solver got stuck and a player would have had to guess
+  BoardAnalysis analyze(long candidate) {
+    PackedBoard board = this.build(candidate);
+    if (this.walledIn(board)) {
+      return null;
+    }
+    board.revealCell(firstRow, firstCol);
+    Solver solver = new Solver(board);
+    int moves = 1;
+    while (!board.gameOver) {
+      Hint hint = solver.nextSafe();
+      if (hint == null) {
+        return null;
+      }
+      int index = board.index(hint.row, hint.col);
+      board.revealCell(hint.row, hint.col);
+      moves++;
+      solver.update(index);
+      for (int k = 0; k < board.flood.size; k++) {
+        solver.update(board.flood.revealed[k]);
+      }
+    }
+    if (!board.won) {
+      return null;
+    }
+    BoardAnalysis analysis = new BoardAnalysis(candidate, moves, solver.steps);
+    this.measure(board, analysis);
+    return analysis;
+  }
+
+  // is there a safe cell other than the first click whose neighbors are all mines?
+  boolean walledIn(PackedBoard board) {
+    int[] around = new int[Topology.MAX_NEIGHBORS];
+    int first = board.index(firstRow, firstCol);
+    for (int index = 0; index < board.cells.length; index++) {
+      if ((board.cells[index] & PackedBoard.MINE) == 0 && index != first) {
+        int size = board.neighbors(index, around);
+        boolean walled = size > 0;
+        for (int k = 0; k < size && walled; k++) {
+          walled = (board.cells[around[k]] & PackedBoard.MINE) != 0;
+        }
+        if (walled) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // counts the openings of the given board and its 3BV, the fewest clicks that reveal
+  // every safe cell
+  void measure(PackedBoard board, BoardAnalysis analysis) {
+    OpeningIndex openings = new OpeningIndex(board);
+    analysis.openings = openings.count;
+    analysis.threeBV = openings.threeBV();
+  }
+
+  // a line about how fast the boards were found and how hard they are on average
+  String report(ArrayList<BoardAnalysis> found) {
+    double threeBV = 0;
+    double openings = 0;
+    double steps = 0;
+    for (BoardAnalysis analysis : found) {
+      threeBV += analysis.threeBV;
+      openings += analysis.openings;
+      steps += analysis.solverSteps;
+    }
+    int boards = Math.max(1, found.size());
+    return String.format("%,d boards of %dx%d with %d mines from %,d candidates in %.3f s: "
+        + "%,.0f boards/s, %.1f%% accepted, mean 3BV %.1f, openings %.1f, solver steps %.0f",
+        found.size(), rows, columns, numMines, this.candidates, this.nanos / 1e9,
+        found.size() * 1e9 / Math.max(1, this.nanos),
+        100.0 * found.size() / Math.max(1, this.candidates), threeBV / boards,
+        openings / boards, steps / boards);
+  }
+}
+
+// represents how hard a board that can be won without guessing is
+class BoardAnalysis {
+  // the candidate the board was built from
+  long candidate;
+  // the cells the solver revealed, counting the first click
+  int moves;
+  // the number of times the solver looked at a constraint
+  long solverSteps;
+  int openings;
+  int threeBV;
+
+  BoardAnalysis(long candidate, int moves, long solverSteps) {
+    this.candidate = candidate;
+    this.moves = moves;
+    this.solverSteps = solverSteps;
+  }
+}
+
+// a range of candidates, split in half until it is small enough to try on one thread
+class CandidateRange extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  static final int CANDIDATES_PER_TASK = 4;
+
+  NoGuessGenerator generator;
+  // the candidate at position 0 of results
+  long first;
+  BoardAnalysis[] results;
+  int from;
+  int to;
+
+  CandidateRange(NoGuessGenerator generator, long first, BoardAnalysis[] results, int from,
+      int to) {
+    this.generator = generator;
+    this.first = first;
+    this.results = results;
+    this.from = from;
+    this.to = to;
+  }
+
+  protected void compute() {
+    if (to - from <= CANDIDATES_PER_TASK) {
+      for (int k = from; k < to; k++) {
+        results[k] = generator.analyze(first + k);
+      }
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    invokeAll(new CandidateRange(generator, first, results, from, middle),
+        new CandidateRange(generator, first, results, middle, to));
+  }
+}
+
+// examples and tests for the no-guess generator
+class ExamplesNoGuessGenerator {
+  // one pool of each size for every test, rather than one per generator
+  ForkJoinPool four = new ForkJoinPool(4);
+  ForkJoinPool one = new ForkJoinPool(1);
+  NoGuessGenerator expert, single;
+
+  void init() {
+    this.expert = new NoGuessGenerator(16, 30, 99, 8, 15, 1, this.four);
+    this.single = new NoGuessGenerator(16, 30, 99, 8, 15, 1, this.one);
+  }
+
+  // test that every board generated is won by the solver alone from the first click
+  void testGenerate(Tester t) {
+    this.init();
+    ArrayList<BoardAnalysis> found = this.expert.generate(5);
+    t.checkExpect(found.size(), 5);
+    boolean solved = true;
+    for (BoardAnalysis analysis : found) {
+      PackedBoard board = this.expert.build(analysis.candidate);
+      board.revealCell(8, 15);
+      Solver solver = new Solver(board);
+      while (!board.gameOver) {
+        Hint hint = solver.nextSafe();
+        if (hint == null) {
+          break;
+        }
+        board.revealCell(hint.row, hint.col);
+        for (int index = 0; index < board.cells.length; index++) {
+          solver.update(index);
+        }
+      }
+      solved = solved && board.won && analysis.threeBV > 0 && analysis.openings > 0
+          && analysis.solverSteps > 0;
+    }
+    t.checkExpect(solved, true);
+    t.checkExpect(this.expert.candidates >= 5, true);
+    // a second call carries on after the boards already found
+    ArrayList<BoardAnalysis> more = this.expert.generate(1);
+    t.checkExpect(more.get(0).candidate > found.get(4).candidate, true);
+  }
+
+  // test that a batch comes out the same on one thread as on four
+  void testGenerateDeterministic(Tester t) {
+    this.init();
+    ArrayList<BoardAnalysis> parallel = this.expert.generate(3);
+    ArrayList<BoardAnalysis> serial = this.single.generate(3);
+    for (int k = 0; k < 3; k++) {
+      t.checkExpect(parallel.get(k).candidate, serial.get(k).candidate);
+      t.checkExpect(parallel.get(k).threeBV, serial.get(k).threeBV);
+    }
+  }
+
+  // test for measure, on a board with one mine in a corner
+  void testMeasure(Tester t) {
+    this.init();
+    NoGuessGenerator small = new NoGuessGenerator(3, 3, 1, 2, 2, 1, this.one);
+    PackedBoard board = new PackedBoard(3, 3, 0, new Random());
+    board.cells[0] |= PackedBoard.MINE;
+    board.countAdjacentMines();
+    BoardAnalysis analysis = new BoardAnalysis(0, 1, 0);
+    small.measure(board, analysis);
+    // one opening reveals every safe cell
+    t.checkExpect(analysis.openings, 1);
+    t.checkExpect(analysis.threeBV, 1);
+    // a mine in the middle leaves no opening, so each safe cell takes a click
+    PackedBoard middle = new PackedBoard(3, 3, 0, new Random());
+    middle.cells[4] |= PackedBoard.MINE;
+    middle.countAdjacentMines();
+    small.measure(middle, analysis);
+    t.checkExpect(analysis.openings, 0);
+    t.checkExpect(analysis.threeBV, 8);
+  }
+
+  // test for the early rejection of a safe cell walled in by mines
+  void testWalledIn(Tester t) {
+    this.init();
+    PackedBoard walled = new PackedBoard(3, 3, 0, new Random());
+    for (int index = 0; index < 9; index++) {
+      if (index != 0) {
+        walled.cells[index] |= PackedBoard.MINE;
+      }
+    }
+    t.checkExpect(this.expert.walledIn(walled), true);
+    t.checkExpect(this.expert.walledIn(new PackedBoard(3, 3, 0, new Random())), false);
+  }
+
+  // tests for the errors of the constructor and of generate
+  void testErrors(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("Cannot place 9 mines in 9 "
+        + "cells and keep the first click safe"), "NoGuessGenerator", 3, 3, 9, 0, 0, 1L,
+        this.one);
+    t.checkConstructorException(new IllegalArgumentException("The first click is not on "
+        + "the board"), "NoGuessGenerator", 3, 3, 1, 3, 0, 1L, this.one);
+  }
+
+  // test for analyze, on a row of four cells with one mine and the first click at one
+  // end: the board is won without guessing only when the mine is at the other end
+  void testAnalyze(Tester t) {
+    NoGuessGenerator row = new NoGuessGenerator(1, 4, 1, 0, 0, 1, this.one);
+    boolean agrees = true;
+    for (int candidate = 0; candidate < 20; candidate++) {
+      boolean atEnd = row.build(candidate).isMine(0, 3);
+      agrees = agrees && (row.analyze(candidate) != null) == atEnd;
+    }
+    t.checkExpect(agrees, true);
+    // a mine in every cell but the first click is won by the first click
+    NoGuessGenerator crowded = new NoGuessGenerator(3, 3, 8, 1, 1, 1, this.one);
+    t.checkExpect(crowded.analyze(0).moves, 1);
+    t.checkExpect(crowded.analyze(0).threeBV, 1);
+  }
+}
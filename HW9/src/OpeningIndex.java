@@ -0,0 +1,311 @@
+import java.util.Random;
+import tester.*;
+
+// the openings of a packed board, worked out once its mines are placed: an opening is
+// a connected region of cells with no mines around them, together with the numbered
+// cells on its border, which is exactly what one click on any of its empty cells
+// reveals
+//
+// the empty cells are joined into openings with a union-find in one pass over the
+// board, each joined to the empty cells next to it that come before it; every empty
+// cell is then labeled with its opening, and the cells of each opening are listed one
+// after the other in a single array, so revealing an opening is one pass over its own
+// range rather than a search through its neighbors
+//
+// a numbered cell can border more than one opening, in which case it is listed in each
+class OpeningIndex {
+  PackedBoard board;
+  // the opening each cell is an empty cell of, or -1 for mines and numbered cells
+  int[] opening;
+  // the number of openings
+  int count;
+  // the cells of opening o are cells[start[o], start[o + 1]), its empty cells first
+  int[] start;
+  int[] cells;
+  // how many of the cells of each opening are empty
+  int[] empty;
+  int[] around;
+
+  OpeningIndex(PackedBoard board) {
+    this.board = board;
+    this.around = new int[Topology.MAX_NEIGHBORS];
+    int size = board.cells.length;
+    int[] parent = new int[size];
+    int[] around = new int[Topology.MAX_NEIGHBORS];
+
+    // join each empty cell to the empty cells next to it that come before it, always
+    // keeping the smaller index as the root, so each opening's root is its first cell
+    for (int index = 0; index < size; index++) {
+      parent[index] = index;
+    }
+    for (int index = 0; index < size; index++) {
+      if (!this.isEmpty(index)) {
+        continue;
+      }
+      int neighbors = board.neighbors(index, around);
+      for (int k = 0; k < neighbors; k++) {
+        if (around[k] < index && this.isEmpty(around[k])) {
+          this.union(parent, index, around[k]);
+        }
+      }
+    }
+
+    // label every empty cell with its opening, counting the empty cells of each
+    this.opening = new int[size];
+    int[] sizes = new int[size + 1];
+    for (int index = 0; index < size; index++) {
+      if (!this.isEmpty(index)) {
+        this.opening[index] = -1;
+      }
+      else {
+        int root = this.find(parent, index);
+        if (root == index) {
+          this.opening[index] = this.count;
+          this.count++;
+        }
+        else {
+          this.opening[index] = this.opening[root];
+        }
+        sizes[this.opening[index]]++;
+      }
+    }
+    this.empty = new int[this.count];
+    System.arraycopy(sizes, 0, this.empty, 0, this.count);
+
+    // count the border cells of each opening, then lay every opening out in cells
+    for (int index = 0; index < size; index++) {
+      if (this.isBorder(index)) {
+        int touching = this.openingsAround(index, around);
+        for (int k = 0; k < touching; k++) {
+          sizes[around[k]]++;
+        }
+      }
+    }
+    this.start = new int[this.count + 1];
+    for (int o = 0; o < this.count; o++) {
+      this.start[o + 1] = this.start[o] + sizes[o];
+    }
+    this.cells = new int[this.start[this.count]];
+    int[] next = new int[this.count];
+    System.arraycopy(this.start, 0, next, 0, this.count);
+    for (int index = 0; index < size; index++) {
+      if (this.opening[index] >= 0) {
+        this.cells[next[this.opening[index]]] = index;
+        next[this.opening[index]]++;
+      }
+    }
+    for (int index = 0; index < size; index++) {
+      if (this.isBorder(index)) {
+        int touching = this.openingsAround(index, around);
+        for (int k = 0; k < touching; k++) {
+          this.cells[next[around[k]]] = index;
+          next[around[k]]++;
+        }
+      }
+    }
+  }
+
+  // is the cell at the given index safe with no mines around it?
+  boolean isEmpty(int index) {
+    return (board.cells[index] & PackedBoard.MINE) == 0 && board.adjacent(index) == 0;
+  }
+
+  // is the cell at the given index a numbered cell, which may border an opening?
+  boolean isBorder(int index) {
+    return (board.cells[index] & PackedBoard.MINE) == 0 && board.adjacent(index) != 0;
+  }
+
+  // the root of the given cell, halving the path to it on the way
+  int find(int[] parent, int index) {
+    while (parent[index] != index) {
+      parent[index] = parent[parent[index]];
+      index = parent[index];
+    }
+    return index;
+  }
+
+  // joins the sets of the two given cells under the smaller of their roots
+  void union(int[] parent, int a, int b) {
+    int rootA = this.find(parent, a);
+    int rootB = this.find(parent, b);
+    if (rootA < rootB) {
+      parent[rootB] = rootA;
+    }
+    else if (rootB < rootA) {
+      parent[rootA] = rootB;
+    }
+  }
+
+  // writes the different openings the cell at the given index borders into out, and
+  // returns how many there are
+  int openingsAround(int index, int[] out) {
+    int size = board.neighbors(index, this.around);
+    int found = 0;
+    for (int k = 0; k < size; k++) {
+      int o = this.opening[this.around[k]];
+      boolean seen = o < 0;
+      for (int j = 0; j < found && !seen; j++) {
+        seen = out[j] == o;
+      }
+      if (!seen) {
+        out[found] = o;
+        found++;
+      }
+    }
+    return found;
+  }
+
+  // reveals every hidden cell of the given opening, adding each to the cells the given
+  // fill has revealed, and returns how many there were
+  int reveal(int o, FloodFill fill) {
+    byte[] packed = board.cells;
+    int before = fill.size;
+    for (int k = this.start[o]; k < this.start[o + 1]; k++) {
+      int index = this.cells[k];
+      if ((packed[index] & PackedBoard.REVEALED) == 0) {
+        packed[index] |= PackedBoard.REVEALED;
+        fill.add(index);
+      }
+    }
+    return fill.size - before;
+  }
+
+  // the number of cells one click reveals in the given opening, border included
+  int size(int o) {
+    return this.start[o + 1] - this.start[o];
+  }
+
+  // the number of numbered cells on the border of the given opening
+  int border(int o) {
+    return this.size(o) - this.empty[o];
+  }
+
+  // the size of the largest opening, or 0 if there are none
+  int largest() {
+    int largest = 0;
+    for (int o = 0; o < this.count; o++) {
+      largest = Math.max(largest, this.size(o));
+    }
+    return largest;
+  }
+
+  // the 3BV of the board: the fewest clicks that reveal every safe cell, which is one
+  // per opening and one per numbered cell that borders no opening
+  int threeBV() {
+    int clicks = this.count;
+    int[] around = new int[Topology.MAX_NEIGHBORS];
+    for (int index = 0; index < board.cells.length; index++) {
+      if (this.isBorder(index) && this.openingsAround(index, around) == 0) {
+        clicks++;
+      }
+    }
+    return clicks;
+  }
+}
+
+// examples and tests for the opening index
+class ExamplesOpeningIndex {
+  PackedBoard split, middle;
+
+  // a board with no mines whose given cells are mines and are counted around
+  PackedBoard withMines(int rows, int columns, int... mines) {
+    PackedBoard board = new PackedBoard(rows, columns, mines.length, new Random(), true);
+    for (int mine : mines) {
+      board.cells[mine] |= PackedBoard.MINE;
+    }
+    board.generated = true;
+    board.countAdjacentMines();
+    return board;
+  }
+
+  void init() {
+    // two openings split by a column of mines in the middle of three rows of seven
+    this.split = this.withMines(3, 7, 3, 10, 17);
+    // one mine in the middle of three rows of three, which leaves no opening
+    this.middle = this.withMines(3, 3, 4);
+  }
+
+  // test that the empty cells are labeled with their openings
+  void testLabels(Tester t) {
+    this.init();
+    OpeningIndex index = new OpeningIndex(this.split);
+    t.checkExpect(index.count, 2);
+    t.checkExpect(index.opening[0], 0);
+    t.checkExpect(index.opening[15], 0);
+    t.checkExpect(index.opening[6], 1);
+    t.checkExpect(index.opening[20], 1);
+    // the numbered cells next to the mines belong to no opening of their own
+    t.checkExpect(index.opening[2], -1);
+    t.checkExpect(index.opening[3], -1);
+    t.checkExpect(new OpeningIndex(this.middle).count, 0);
+  }
+
+  // test for the per-opening statistics
+  void testStatistics(Tester t) {
+    this.init();
+    OpeningIndex index = new OpeningIndex(this.split);
+    t.checkExpect(index.size(0), 9);
+    t.checkExpect(index.empty[0], 6);
+    t.checkExpect(index.border(0), 3);
+    t.checkExpect(index.largest(), 9);
+    t.checkExpect(new OpeningIndex(this.middle).largest(), 0);
+  }
+
+  // test for threeBV, including a numbered cell that borders two openings
+  void testThreeBV(Tester t) {
+    this.init();
+    t.checkExpect(new OpeningIndex(this.split).threeBV(), 2);
+    t.checkExpect(new OpeningIndex(this.middle).threeBV(), 8);
+    // mines in two corners leave an opening in each of the other two, and the cell in
+    // the middle borders both, so it is listed in each
+    OpeningIndex index = new OpeningIndex(this.withMines(3, 3, 2, 6));
+    t.checkExpect(index.count, 2);
+    t.checkExpect(index.threeBV(), 2);
+    t.checkExpect(index.cells.length, 8);
+  }
+
+  // test that revealing from an index uncovers the same cells as flooding does
+  void testSameAsFlood(Tester t) {
+    boolean same = true;
+    for (int seed = 0; seed < 20; seed++) {
+      PackedBoard indexed = new PackedBoard(16, 30, 60, new Random(seed));
+      PackedBoard flooded = new PackedBoard(16, 30, 60, new Random(seed));
+      indexed.indexOpenings();
+      for (int index = 0; index < 480; index++) {
+        if (!indexed.isMine(index / 30, index % 30)) {
+          indexed.revealCell(index / 30, index % 30);
+          flooded.revealCell(index / 30, index % 30);
+          same = same && indexed.flood.size == flooded.flood.size
+              && indexed.revealedSafe == flooded.revealedSafe;
+        }
+      }
+      for (int index = 0; index < 480; index++) {
+        same = same && indexed.cells[index] == flooded.cells[index];
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // test that a board whose mines wait for the first click is indexed once they are
+  // placed, and that batches of reveals use the index too
+  void testFirstClickSafe(Tester t) {
+    PackedBoard lazy = new PackedBoard(16, 30, 40, new Random(2), true);
+    lazy.indexOpenings();
+    t.checkExpect(lazy.openings, null);
+    lazy.revealCells(new int[] { 8 * 30 + 15, 0 });
+    t.checkExpect(lazy.openings.opening[8 * 30 + 15] >= 0, true);
+    PackedBoard plain = new PackedBoard(16, 30, 40, new Random(2), true);
+    plain.revealCells(new int[] { 8 * 30 + 15, 0 });
+    t.checkExpect(lazy.revealedSafe, plain.revealedSafe);
+  }
+
+  // stress test: one click on a 2048x2048 board with no mines reveals all of it
+  void testRevealStress(Tester t) {
+    PackedBoard huge = new PackedBoard(2048, 2048, 0, new Random());
+    huge.indexOpenings();
+    t.checkExpect(huge.openings.count, 1);
+    huge.revealCell(1024, 1024);
+    t.checkExpect(huge.flood.size, 2048 * 2048 - 1);
+    t.checkExpect(huge.won, true);
+  }
+}
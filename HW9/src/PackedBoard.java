@@ -0,0 +1,577 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import tester.*;
+import javalib.worldimages.*;
+
+// represents a Minesweeper board whose cells are packed into a single byte array,
+// one byte per cell, indexed by row * columns + col
+class PackedBoard implements VisibleBoard {
+  // the bits of a packed cell: the low four bits hold the number of adjacent mines,
+  // which are only meaningful once the COUNTED bit is set
+  static final int ADJACENT_MASK = 0x0F;
+  static final int MINE = 0x10;
+  static final int REVEALED = 0x20;
+  static final int FLAGGED = 0x40;
+  static final int COUNTED = 0x80;
+  // how far MINE is shifted up, so (cell >> MINE_SHIFT) & 1 is 1 for a mine
+  static final int MINE_SHIFT = Integer.numberOfTrailingZeros(MINE);
+
+  int rows;
+  int columns;
+  int numMines;
+  // which cells are next to each other
+  Topology topology;
+  byte[] cells;
+  boolean gameOver;
+  boolean won;
+  boolean mineHit;
+  int revealedSafe;
+  int flagged;
+  Random rand;
+  // the seed the Random was made from, or null if it was handed in already made
+  Long seed;
+  FloodFill flood;
+  boolean generated;
+  int[] around;
+  // the openings of the board, once indexOpenings has asked for them and the mines are
+  // placed
+  OpeningIndex openings;
+  boolean indexed;
+
+  // constructor for use in real game
+  PackedBoard(int rows, int columns, int numMines) {
+    this(rows, columns, numMines, new Random());
+  }
+
+  // constructor for use in testing, with a specified Random object
+  PackedBoard(int rows, int columns, int numMines, Random rand) {
+    this(rows, columns, numMines, rand, false);
+  }
+
+  // constructor that makes its own Random from the given seed, and remembers the seed so
+  // that it can be saved with the board
+  PackedBoard(int rows, int columns, int numMines, long seed, boolean firstClickSafe) {
+    this(rows, columns, numMines, new Random(seed), firstClickSafe);
+    this.seed = seed;
+  }
+
+  // constructor that, when firstClickSafe is true, leaves the board empty until the
+  // first cell is revealed and then places the mines away from that cell
+  PackedBoard(int rows, int columns, int numMines, Random rand, boolean firstClickSafe) {
+    this(Topology.square(rows, columns), numMines, rand, firstClickSafe);
+  }
+
+  // constructor for a board whose cells are next to each other as the given topology
+  // says, such as a board of hexagons or one that wraps around its edges
+  PackedBoard(Topology topology, int numMines, Random rand, boolean firstClickSafe) {
+    int rows = topology.rows;
+    int columns = topology.columns;
+    if (firstClickSafe && (numMines < 0 || numMines >= rows * columns)) {
+      throw new IllegalArgumentException("Cannot place " + numMines + " mines in "
+          + rows * columns + " cells and keep the first click safe");
+    }
+    this.rows = rows;
+    this.columns = columns;
+    this.numMines = numMines;
+    this.topology = topology;
+    this.cells = new byte[rows * columns];
+    this.gameOver = false;
+    this.won = false;
+    this.mineHit = false;
+    this.revealedSafe = 0;
+    this.flagged = 0;
+    this.rand = rand;
+    this.flood = new FloodFill(this);
+    this.around = new int[Topology.MAX_NEIGHBORS];
+    this.generated = !firstClickSafe;
+    long start = Metrics.start();
+    if (this.generated) {
+      initializeGrid();
+    }
+    Metrics.stop(Metrics.BOARD_BUILD, start);
+  }
+
+  // places the mines and counts the adjacent mines of every cell
+  void initializeGrid() {
+    placeMines(rand);
+    countAdjacentMines();
+  }
+
+  // randomly place mines on cells that are not mines yet, choosing them in the same
+  // order as Minesweeper.placeMines so that both layouts agree for the same seed
+  void placeMines(Random random) {
+    int safe = 0;
+    for (byte cell : cells) {
+      if ((cell & MINE) == 0) {
+        safe++;
+      }
+    }
+    int[] chosen = MinePlacement.choose(random, safe, numMines);
+
+    if (safe == cells.length) {
+      for (int index : chosen) {
+        cells[index] |= MINE;
+      }
+    }
+    else {
+      int[] safeCells = new int[safe];
+      int size = 0;
+      for (int index = 0; index < cells.length; index++) {
+        if ((cells[index] & MINE) == 0) {
+          safeCells[size] = index;
+          size++;
+        }
+      }
+      for (int pick : chosen) {
+        cells[safeCells[pick]] |= MINE;
+      }
+    }
+  }
+
+  // places the mines once the cell at the given index has been revealed for the first
+  // time, keeping that cell and, if there is room, its neighbors free of mines; the
+  // adjacent mines are then counted cell by cell as they are needed
+  void generateAround(int index) {
+    int size = neighbors(index, this.around);
+    int kept = 1;
+    if (cells.length - 1 - size >= numMines) {
+      kept += size;
+    }
+    // mark the kept cells as mines for a moment so that placeMines passes over them
+    cells[index] |= MINE;
+    for (int k = 0; k < kept - 1; k++) {
+      cells[this.around[k]] |= MINE;
+    }
+    placeMines(rand);
+    cells[index] &= ~MINE;
+    for (int k = 0; k < kept - 1; k++) {
+      cells[this.around[k]] &= ~MINE;
+    }
+    this.generated = true;
+    if (this.indexed) {
+      this.openings = new OpeningIndex(this);
+    }
+  }
+
+  // indexes the openings of this board now, or once its mines are placed if they wait
+  // for the first click, so that a click on an empty cell reveals its whole opening in
+  // one pass instead of flooding it
+  void indexOpenings() {
+    this.indexed = true;
+    if (this.generated) {
+      this.openings = new OpeningIndex(this);
+    }
+  }
+
+  // counts the neighboring mines of every cell, working the neighbors out from the
+  // coordinates instead of storing them; large square boards are counted in parallel
+  void countAdjacentMines() {
+    if (cells.length >= ParallelInit.THRESHOLD && topology.square) {
+      ParallelInit.countAdjacentMines(this, ForkJoinPool.commonPool());
+      return;
+    }
+    for (int index = 0; index < cells.length; index++) {
+      cells[index] = (byte) ((cells[index] & ~ADJACENT_MASK) | COUNTED | countAround(index));
+    }
+  }
+
+  // the number of mines around the cell at the given index, counted the first time it
+  // is asked for
+  int adjacent(int index) {
+    byte cell = cells[index];
+    if ((cell & COUNTED) == 0) {
+      int count = countAround(index);
+      cells[index] = (byte) ((cell & ~ADJACENT_MASK) | COUNTED | count);
+      return count;
+    }
+    return cell & ADJACENT_MASK;
+  }
+
+  // counts the mines around the cell at the given index
+  int countAround(int index) {
+    int count = 0;
+    int size = neighbors(index, this.around);
+    for (int k = 0; k < size; k++) {
+      if ((cells[this.around[k]] & MINE) != 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // writes the indices of the cells around the given index into out and returns how
+  // many there are, as the topology of the board says
+  int neighbors(int index, int[] out) {
+    return topology.neighbors(index, out);
+  }
+
+  // the number of rows of the board
+  public int rows() {
+    return this.rows;
+  }
+
+  // the number of columns of the board
+  public int columns() {
+    return this.columns;
+  }
+
+  // the number of mines on the board
+  public int mineCount() {
+    return this.numMines;
+  }
+
+  // which cells of the board are next to each other
+  public Topology topology() {
+    return this.topology;
+  }
+
+  // the position of the given row and col in the packed array
+  int index(int row, int col) {
+    return row * columns + col;
+  }
+
+  // checks to see if the inputed row and col are valid cells on the grid
+  boolean isValidCell(int row, int col) {
+    return row >= 0 && row < rows && col >= 0 && col < columns;
+  }
+
+  // is the cell at the given row and col a mine?
+  boolean isMine(int row, int col) {
+    return (cells[index(row, col)] & MINE) != 0;
+  }
+
+  // has the cell at the given row and col been revealed?
+  public boolean isRevealed(int row, int col) {
+    return (cells[index(row, col)] & REVEALED) != 0;
+  }
+
+  // has the cell at the given row and col been flagged?
+  public boolean isFlagged(int row, int col) {
+    return (cells[index(row, col)] & FLAGGED) != 0;
+  }
+
+  // the number of mines around the cell at the given row and col
+  public int adjacentMines(int row, int col) {
+    return adjacent(index(row, col));
+  }
+
+  // flags the indicated cell and if cell is already flagged, undoes it
+  public void flagCell(int row, int col) {
+    int index = index(row, col);
+    cells[index] ^= FLAGGED;
+    if ((cells[index] & FLAGGED) != 0) {
+      this.flagged++;
+    }
+    else {
+      this.flagged--;
+    }
+  }
+
+  // reveals a cell when clicked, keeping the counts of revealed safe cells up to date so
+  // that winning or losing is known without looking at the rest of the board
+  public void revealCell(int row, int col) {
+    int index = index(row, col);
+    // so that flood.revealed only lists the cells this reveal uncovered
+    this.flood.size = 0;
+    if ((cells[index] & FLAGGED) == 0) {
+      if (!this.generated) {
+        this.generateAround(index);
+      }
+      byte cell = cells[index];
+      if ((cell & REVEALED) == 0) {
+        cells[index] |= REVEALED;
+        if ((cell & MINE) != 0) {
+          this.mineHit = true;
+        }
+        else {
+          this.revealedSafe++;
+        }
+      }
+      if ((cell & MINE) == 0 && adjacent(index) == 0) {
+        this.revealedSafe += this.flooding(index);
+      }
+      if (checkGame(row, col)) {
+        this.won = !this.mineHit;
+        this.gameOver = true;
+      }
+    }
+  }
+
+  // reveals the cells at the given indexes as if each had been clicked, except that the
+  // floods from all of them are spread in one pass and the end of the game is checked
+  // once; returns the clicked cells it revealed, and leaves the cells the floods
+  // revealed in flood.revealed
+  public int[] revealCells(int[] indexes) {
+    int[] opened = new int[indexes.length];
+    int openedSize = 0;
+    int[] empty = new int[indexes.length];
+    int emptySize = 0;
+    for (int index : indexes) {
+      if ((cells[index] & FLAGGED) != 0) {
+        continue;
+      }
+      if (!this.generated) {
+        this.generateAround(index);
+      }
+      byte cell = cells[index];
+      if ((cell & REVEALED) == 0) {
+        cells[index] |= REVEALED;
+        opened[openedSize] = index;
+        openedSize++;
+        if ((cell & MINE) != 0) {
+          this.mineHit = true;
+        }
+        else {
+          this.revealedSafe++;
+        }
+      }
+      if ((cell & MINE) == 0 && adjacent(index) == 0) {
+        empty[emptySize] = index;
+        emptySize++;
+      }
+    }
+    this.flood.size = 0;
+    if (emptySize > 0) {
+      long start = Metrics.start();
+      int revealed = flood.floodAll(empty, emptySize);
+      Metrics.flood(start, revealed);
+      this.revealedSafe += revealed;
+    }
+    if (this.mineHit || isWon()) {
+      this.won = !this.mineHit;
+      this.gameOver = true;
+    }
+    return Arrays.copyOf(opened, openedSize);
+  }
+
+  // checks to see if the game is over, from the counts kept by revealCell
+  public boolean checkGame(int row, int col) {
+    long start = Metrics.start();
+    boolean over = (cells[index(row, col)] & MINE) != 0 || isWon();
+    Metrics.stop(Metrics.CHECK_GAME, start);
+    return over;
+  }
+
+  // have all the safe cells been revealed without hitting a mine?
+  boolean isWon() {
+    return !this.mineHit && this.revealedSafe == this.cells.length - this.numMines;
+  }
+
+  // implements the flooding aspect of Minesweeper around the cell at the given index,
+  // returning how many cells it revealed (they are listed in flood.revealed)
+  public int flooding(int index) {
+    long start = Metrics.start();
+    int revealed = flood.flood(index);
+    Metrics.flood(start, revealed);
+    return revealed;
+  }
+}
+
+// examples and tests for the packed board
+class ExamplesPackedBoard {
+  PackedBoard board, noMines, allMines;
+  Minesweeper game;
+
+  void init() {
+    // a 10x10 board with 10 mines, laid out the same as the Minesweeper game below
+    this.board = new PackedBoard(10, 10, 10, new Random(7));
+    this.game = new Minesweeper(10, 10, 10, new Random(7));
+    this.noMines = new PackedBoard(2, 3, 0, new Random());
+    this.allMines = new PackedBoard(2, 2, 4, new Random());
+  }
+
+  // test for initializeGrid, comparing against the layout Minesweeper builds
+  void testInitializeGrid(Tester t) {
+    this.init();
+    boolean same = true;
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 10; j++) {
+        Cell cell = this.game.grid.get(i).get(j);
+        same = same && cell.isMine == this.board.isMine(i, j)
+            && cell.adjacentMines == this.board.adjacentMines(i, j);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(this.board.cells.length, 100);
+  }
+
+  // test for countAdjacentMines
+  void testCountAdjacentMines(Tester t) {
+    this.init();
+    t.checkExpect(this.noMines.adjacentMines(0, 0), 0);
+    t.checkExpect(this.allMines.adjacentMines(0, 0), 3);
+    t.checkExpect(this.allMines.adjacentMines(1, 1), 3);
+  }
+
+  // test for neighbors
+  void testNeighbors(Tester t) {
+    this.init();
+    int[] out = new int[8];
+    // a corner has three neighbors
+    t.checkExpect(this.noMines.neighbors(0, out), 3);
+    t.checkExpect(out[0], 1);
+    t.checkExpect(out[1], 3);
+    t.checkExpect(out[2], 4);
+    // a middle cell of the top row has five neighbors
+    t.checkExpect(this.noMines.neighbors(1, out), 5);
+  }
+
+  // test for isValidCell
+  boolean testIsValidCell(Tester t) {
+    this.init();
+    return t.checkExpect(this.noMines.isValidCell(1, 2), true)
+        && t.checkExpect(this.noMines.isValidCell(2, 2), false)
+        && t.checkExpect(this.noMines.isValidCell(0, -1), false);
+  }
+
+  // test for flagCell
+  void testFlagCell(Tester t) {
+    this.init();
+    t.checkExpect(this.noMines.isFlagged(0, 1), false);
+    this.noMines.flagCell(0, 1);
+    t.checkExpect(this.noMines.isFlagged(0, 1), true);
+    t.checkExpect(this.noMines.isRevealed(0, 1), false);
+    t.checkExpect(this.noMines.flagged, 1);
+    this.noMines.flagCell(0, 1);
+    t.checkExpect(this.noMines.isFlagged(0, 1), false);
+    t.checkExpect(this.noMines.flagged, 0);
+  }
+
+  // test for revealCell, including the flooding it starts
+  void testRevealCell(Tester t) {
+    this.init();
+    // a flagged cell is not revealed
+    this.noMines.flagCell(0, 0);
+    this.noMines.revealCell(0, 0);
+    t.checkExpect(this.noMines.isRevealed(0, 0), false);
+
+    // revealing an empty cell floods the rest of the board and wins the game
+    this.noMines.flagCell(0, 0);
+    this.noMines.revealCell(1, 2);
+    t.checkExpect(this.noMines.isRevealed(0, 0), true);
+    t.checkExpect(this.noMines.revealedSafe, 6);
+    t.checkExpect(this.noMines.gameOver, true);
+    t.checkExpect(this.noMines.won, true);
+
+    // revealing a mine ends the game
+    this.allMines.revealCell(1, 0);
+    t.checkExpect(this.allMines.isRevealed(1, 0), true);
+    t.checkExpect(this.allMines.mineHit, true);
+    t.checkExpect(this.allMines.gameOver, true);
+    t.checkExpect(this.allMines.won, false);
+  }
+
+  // test for revealCells, against revealing the same cells one at a time
+  void testRevealCells(Tester t) {
+    this.init();
+    PackedBoard single = new PackedBoard(10, 10, 10, new Random(7));
+    int[] indexes = { 0, 99, 45, 9, 90, 0 };
+    int count = 0;
+    int[] safe = new int[indexes.length];
+    for (int index : indexes) {
+      if ((this.board.cells[index] & PackedBoard.MINE) == 0) {
+        safe[count] = index;
+        count++;
+      }
+    }
+    safe = Arrays.copyOf(safe, count);
+    int[] opened = this.board.revealCells(safe);
+    for (int index : safe) {
+      single.revealCell(index / 10, index % 10);
+    }
+    t.checkExpect(Arrays.equals(this.board.cells, single.cells), true);
+    t.checkExpect(this.board.revealedSafe, single.revealedSafe);
+    // the repeated cell is only opened once
+    t.checkExpect(opened.length, count - 1);
+    t.checkExpect(opened.length + this.board.flood.size, this.board.revealedSafe);
+
+    // flagged cells are skipped, and a mine ends the game
+    this.allMines.flagCell(0, 0);
+    t.checkExpect(this.allMines.revealCells(new int[] { 0, 3 }).length, 1);
+    t.checkExpect(this.allMines.isRevealed(0, 0), false);
+    t.checkExpect(this.allMines.mineHit, true);
+    t.checkExpect(this.allMines.gameOver, true);
+  }
+
+  // test for checkGame
+  boolean testCheckGame(Tester t) {
+    this.init();
+    return t.checkExpect(this.noMines.checkGame(0, 0), false)
+        && t.checkExpect(this.allMines.checkGame(0, 0), true);
+  }
+
+  // test that revealing cells gives the same result as the Minesweeper game
+  void testSameAsMinesweeper(Tester t) {
+    this.init();
+    boolean same = true;
+    for (int i = 0; i < 10; i++) {
+      for (int j = 0; j < 10; j++) {
+        if (!this.board.isMine(i, j) && !this.board.isRevealed(i, j)) {
+          this.board.revealCell(i, j);
+          this.game.revealCell(i, j);
+          for (int x = 0; x < 10; x++) {
+            for (int y = 0; y < 10; y++) {
+              same = same
+                  && this.board.isRevealed(x, y) == this.game.grid.get(x).get(y).isRevealed;
+            }
+          }
+        }
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(this.board.gameOver, this.game.gameOver);
+  }
+
+  // test for a board whose mines are placed on the first reveal
+  void testFirstClickSafe(Tester t) {
+    this.init();
+    PackedBoard lazy = new PackedBoard(5, 5, 16, new Random(4), true);
+    t.checkExpect(lazy.generated, false);
+    t.checkExpect(lazy.isMine(0, 0) || lazy.isMine(2, 2) || lazy.isMine(4, 4), false);
+
+    // flagging does not place the mines
+    lazy.flagCell(0, 0);
+    lazy.revealCell(0, 0);
+    t.checkExpect(lazy.generated, false);
+
+    // with 16 mines in 25 cells, everything but the 3x3 around the click is a mine
+    lazy.revealCell(2, 2);
+    t.checkExpect(lazy.generated, true);
+    // and the flood from the click uncovers every safe cell at once
+    t.checkExpect(lazy.won, true);
+    t.checkExpect(lazy.isMine(2, 2) || lazy.isMine(1, 1) || lazy.isMine(3, 3), false);
+    t.checkExpect(lazy.isMine(0, 0) && lazy.isMine(4, 4) && lazy.isMine(0, 3), true);
+    t.checkExpect(lazy.adjacentMines(2, 2), 0);
+    t.checkExpect(lazy.isRevealed(1, 2), true);
+
+    // counts far from the flood are only worked out when asked for
+    t.checkExpect(lazy.cells[lazy.index(4, 4)] & PackedBoard.COUNTED, 0);
+    t.checkExpect(lazy.adjacentMines(4, 4), 2);
+    t.checkExpect(lazy.cells[lazy.index(4, 4)] & PackedBoard.COUNTED, PackedBoard.COUNTED);
+
+    // a board with no room left for a safe neighborhood keeps only the clicked cell safe
+    PackedBoard crowded = new PackedBoard(3, 3, 8, new Random(4), true);
+    crowded.revealCell(1, 1);
+    t.checkExpect(crowded.isMine(1, 1), false);
+    t.checkExpect(crowded.adjacentMines(1, 1), 8);
+    t.checkExpect(crowded.won, true);
+
+    t.checkConstructorException(new IllegalArgumentException(
+        "Cannot place 9 mines in 9 cells and keep the first click safe"),
+        "PackedBoard", 3, 3, 9, new Random(), true);
+  }
+
+  // test for a Minesweeper game backed by a packed board
+  void testPackedGame(Tester t) {
+    this.init();
+    Minesweeper packed = new Minesweeper(this.noMines);
+    t.checkExpect(packed.grid, null);
+    packed.onMouseClicked(new Posn(45, 5), "RightButton");
+    t.checkExpect(this.noMines.isFlagged(0, 2), true);
+    packed.onMouseClicked(new Posn(5, 25), "LeftButton");
+    t.checkExpect(this.noMines.isRevealed(1, 0), true);
+    t.checkExpect(packed.gameOver, true);
+    t.checkExpect(packed.won, true);
+  }
+}
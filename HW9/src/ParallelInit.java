@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import tester.*;
+
+// builds boards and counts their adjacent mines on every core, splitting the rows into
+// bands that are worked on in parallel by a fork-join pool
+//
+// each band only writes its own rows, and reads one row either side of it, which the
+// bands next to it have finished writing before the pass began; mines are still placed
+// in one pass with the board's Random, so a board built here is the same as one built
+// one cell at a time from the same seed
+//
+// adjacent mines are counted like a convolution: for each row the mines of the column
+// above, at and below every cell are summed once, and each count is the sum of three
+// of those sums, so every cell is read three times instead of eight
+class ParallelInit {
+  // the smallest board, in cells, worth building in parallel
+  static final int THRESHOLD = 1 << 16;
+  // about how many cells each task works on
+  static final int CELLS_PER_TASK = 1 << 15;
+
+  // builds the grid of Cells of the given game and links each to its neighbors
+  static void buildGrid(Minesweeper game, ForkJoinPool pool) {
+    ArrayList<ArrayList<Cell>> grid = game.grid;
+    for (int i = 0; i < game.rows; i++) {
+      grid.add(null);
+    }
+    int columns = game.columns;
+    run(pool, game.rows, columns, (from, to) -> {
+      for (int i = from; i < to; i++) {
+        ArrayList<Cell> row = new ArrayList<Cell>(columns);
+        for (int j = 0; j < columns; j++) {
+          Cell cell = new Cell(false, 0, false, false, new ArrayList<Cell>(8));
+          cell.row = i;
+          cell.col = j;
+          row.add(cell);
+        }
+        grid.set(i, row);
+      }
+    });
+    // every row exists now, so each band can link to the rows around it
+    run(pool, game.rows, columns, (from, to) -> {
+      for (int i = from; i < to; i++) {
+        ArrayList<Cell> above = i > 0 ? grid.get(i - 1) : null;
+        ArrayList<Cell> row = grid.get(i);
+        ArrayList<Cell> below = i + 1 < game.rows ? grid.get(i + 1) : null;
+        for (int j = 0; j < columns; j++) {
+          Cell cell = row.get(j);
+          // the same order as Minesweeper.buildGrid
+          link(cell, above, j, columns);
+          if (j > 0) {
+            cell.addNeighbor(row.get(j - 1));
+          }
+          if (j + 1 < columns) {
+            cell.addNeighbor(row.get(j + 1));
+          }
+          link(cell, below, j, columns);
+        }
+      }
+    });
+  }
+
+  // adds the cells of the given row on either side of and at column j to the neighbors of
+  // the given cell
+  static void link(Cell cell, ArrayList<Cell> row, int j, int columns) {
+    if (row != null) {
+      for (int y = -1; y <= 1; y++) {
+        if (j + y >= 0 && j + y < columns) {
+          cell.addNeighbor(row.get(j + y));
+        }
+      }
+    }
+  }
+
+  // sets the adjacent mines of every Cell of the given game
+  static void countAdjacentMines(Minesweeper game, ForkJoinPool pool) {
+    ArrayList<ArrayList<Cell>> grid = game.grid;
+    int rows = game.rows;
+    int columns = game.columns;
+    run(pool, rows, columns, (from, to) -> {
+      // sums[j + 1] is the number of mines in column j from the row above to the row below
+      int[] sums = new int[columns + 2];
+      for (int i = from; i < to; i++) {
+        ArrayList<Cell> row = grid.get(i);
+        for (int j = 0; j < columns; j++) {
+          sums[j + 1] = mine(row.get(j));
+        }
+        if (i > 0) {
+          ArrayList<Cell> above = grid.get(i - 1);
+          for (int j = 0; j < columns; j++) {
+            sums[j + 1] += mine(above.get(j));
+          }
+        }
+        if (i + 1 < rows) {
+          ArrayList<Cell> below = grid.get(i + 1);
+          for (int j = 0; j < columns; j++) {
+            sums[j + 1] += mine(below.get(j));
+          }
+        }
+        for (int j = 0; j < columns; j++) {
+          Cell cell = row.get(j);
+          cell.adjacentMines = sums[j] + sums[j + 1] + sums[j + 2] - mine(cell);
+        }
+      }
+    });
+  }
+
+  // 1 if the given cell is a mine, else 0
+  static int mine(Cell cell) {
+    return cell.isMine ? 1 : 0;
+  }
+
+  // counts the adjacent mines of every cell of the given board and marks them counted
+  static void countAdjacentMines(PackedBoard board, ForkJoinPool pool) {
+    byte[] cells = board.cells;
+    int rows = board.rows;
+    int columns = board.columns;
+    run(pool, rows, columns, (from, to) -> {
+      int[] sums = new int[columns + 2];
+      for (int i = from; i < to; i++) {
+        int start = i * columns;
+        for (int j = 0; j < columns; j++) {
+          sums[j + 1] = (cells[start + j] >> PackedBoard.MINE_SHIFT) & 1;
+        }
+        if (i > 0) {
+          for (int j = 0; j < columns; j++) {
+            sums[j + 1] += (cells[start - columns + j] >> PackedBoard.MINE_SHIFT) & 1;
+          }
+        }
+        if (i + 1 < rows) {
+          for (int j = 0; j < columns; j++) {
+            sums[j + 1] += (cells[start + columns + j] >> PackedBoard.MINE_SHIFT) & 1;
+          }
+        }
+        // a band only rewrites its own rows, and never changes their MINE bits, so the
+        // bands next to it read the same mines before and after
+        for (int j = 0; j < columns; j++) {
+          int cell = cells[start + j];
+          int count = sums[j] + sums[j + 1] + sums[j + 2]
+              - ((cell >> PackedBoard.MINE_SHIFT) & 1);
+          cells[start + j] = (byte) ((cell & ~PackedBoard.ADJACENT_MASK) | PackedBoard.COUNTED
+              | count);
+        }
+      }
+    });
+  }
+
+  // runs the given work over every row, split into bands of about CELLS_PER_TASK cells
+  static void run(ForkJoinPool pool, int rows, int columns, BandWork work) {
+    int rowsPerTask = Math.max(1, CELLS_PER_TASK / Math.max(1, columns));
+    pool.invoke(new RowBand(work, 0, rows, rowsPerTask));
+  }
+}
+
+// represents work done on a band of rows, from the row from up to but not including to
+interface BandWork {
+  void run(int from, int to);
+}
+
+// a band of rows, split in half until it is small enough to work on in one thread
+class RowBand extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  BandWork work;
+  int from;
+  int to;
+  int rowsPerTask;
+
+  RowBand(BandWork work, int from, int to, int rowsPerTask) {
+    this.work = work;
+    this.from = from;
+    this.to = to;
+    this.rowsPerTask = rowsPerTask;
+  }
+
+  protected void compute() {
+    if (to - from <= rowsPerTask) {
+      work.run(from, to);
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    invokeAll(new RowBand(work, from, middle, rowsPerTask),
+        new RowBand(work, middle, to, rowsPerTask));
+  }
+}
+
+// examples and tests for building boards in parallel
+class ExamplesParallelInit {
+  // the pool the game builds its boards on, which is never shut down
+  ForkJoinPool pool = ForkJoinPool.commonPool();
+
+  // a game built one cell at a time, however large it is
+  Minesweeper sequential(int rows, int columns, int mines, long seed) {
+    Minesweeper game = new Minesweeper(rows, columns, 0, new Random(seed));
+    game.grid = new ArrayList<ArrayList<Cell>>();
+    game.numMines = mines;
+    for (int i = 0; i < rows; i++) {
+      ArrayList<Cell> row = new ArrayList<Cell>();
+      for (int j = 0; j < columns; j++) {
+        Cell cell = new Cell();
+        cell.row = i;
+        cell.col = j;
+        row.add(cell);
+      }
+      game.grid.add(row);
+    }
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < columns; j++) {
+        for (int x = -1; x <= 1; x++) {
+          for (int y = -1; y <= 1; y++) {
+            if ((x != 0 || y != 0) && game.isValidCell(i + x, j + y)) {
+              game.grid.get(i).get(j).addNeighbor(game.grid.get(i + x).get(j + y));
+            }
+          }
+        }
+      }
+    }
+    game.placeMines(game.rand);
+    for (ArrayList<Cell> row : game.grid) {
+      for (Cell cell : row) {
+        cell.countAdjacentMines();
+      }
+    }
+    return game;
+  }
+
+  // do the two games have the same mines, counts and neighbors in the same order?
+  boolean sameGrid(Minesweeper a, Minesweeper b) {
+    for (int i = 0; i < a.rows; i++) {
+      for (int j = 0; j < a.columns; j++) {
+        Cell x = a.grid.get(i).get(j);
+        Cell y = b.grid.get(i).get(j);
+        if (x.isMine != y.isMine || x.adjacentMines != y.adjacentMines
+            || x.neighbors.size() != y.neighbors.size()) {
+          return false;
+        }
+        for (int k = 0; k < x.neighbors.size(); k++) {
+          if (x.neighbors.get(k).row != y.neighbors.get(k).row
+              || x.neighbors.get(k).col != y.neighbors.get(k).col) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  // test that a large game is built the same in parallel as one cell at a time
+  void testMinesweeper(Tester t) {
+    Minesweeper parallel = new Minesweeper(300, 250, 12000, new Random(8));
+    t.checkExpect(this.sameGrid(parallel, this.sequential(300, 250, 12000, 8)), true);
+  }
+
+  // test the parallel passes directly, on a small board and a single column
+  void testBuildGrid(Tester t) {
+    Minesweeper small = new Minesweeper(3, 3, 0, new Random(1));
+    small.grid = new ArrayList<ArrayList<Cell>>();
+    ParallelInit.buildGrid(small, this.pool);
+    small.grid.get(0).get(0).isMine = true;
+    small.grid.get(2).get(2).isMine = true;
+    ParallelInit.countAdjacentMines(small, this.pool);
+    t.checkExpect(small.grid.get(1).get(1).adjacentMines, 2);
+    t.checkExpect(small.grid.get(0).get(1).adjacentMines, 1);
+    t.checkExpect(small.grid.get(1).get(1).neighbors.size(), 8);
+    t.checkExpect(small.grid.get(0).get(0).neighbors.get(0).col, 1);
+    Minesweeper column = new Minesweeper(5, 1, 0, new Random(1));
+    column.grid = new ArrayList<ArrayList<Cell>>();
+    ParallelInit.buildGrid(column, this.pool);
+    t.checkExpect(column.grid.get(2).get(0).neighbors.size(), 2);
+  }
+
+  // test that counting a packed board in parallel agrees with counting cell by cell
+  void testPackedBoard(Tester t) {
+    PackedBoard board = new PackedBoard(517, 389, 40000, new Random(3));
+    byte[] parallel = board.cells.clone();
+    for (int index = 0; index < board.cells.length; index++) {
+      board.cells[index] = (byte) ((board.cells[index] & ~PackedBoard.ADJACENT_MASK)
+          | PackedBoard.COUNTED | board.countAround(index));
+    }
+    t.checkExpect(parallel, board.cells);
+    PackedBoard small = new PackedBoard(2, 2, 0, new Random(1));
+    small.cells[0] |= PackedBoard.MINE;
+    ParallelInit.countAdjacentMines(small, this.pool);
+    t.checkExpect(small.adjacentMines(1, 1), 1);
+    t.checkExpect(small.adjacentMines(0, 0), 0);
+  }
+}
@@ -0,0 +1,357 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import tester.*;
+
+// one board that many players reveal and flag at the same time, each on a thread of
+// their own
+//
+// the cells are packed the same way as on a PackedBoard, one byte each, with every
+// adjacent count worked out up front; a cell only changes through a compare-and-set of
+// its byte, so when two players reach the same cell exactly one of them reveals it
+//
+// floods work the same way: each flood keeps its own stack and only expands the cells
+// it revealed itself, so two floods that run into each other split the area between
+// them, every cell is revealed once, and nothing ever waits on a lock
+//
+// run with: java -cp "bin:libs/*" SharedBoard [rows] [columns] [clicks] [threads]
+// to time 1, 2, 4 and so on up to the given number of players, every core by default
+class SharedBoard implements VisibleBoard {
+  static final VarHandle CELLS = MethodHandles.arrayElementVarHandle(byte[].class);
+
+  int rows;
+  int columns;
+  int numMines;
+  byte[] cells;
+  AtomicInteger revealedSafe;
+  AtomicInteger flagged;
+  volatile boolean mineHit;
+  volatile boolean won;
+
+  // a shared board with the same mines, and the same cells revealed and flagged, as the
+  // given board, whose mines must already be placed
+  SharedBoard(PackedBoard board) {
+    if (!board.generated) {
+      throw new IllegalArgumentException("Cannot share a board whose mines are not placed");
+    }
+    // floods are spread over the square around each cell
+    if (!board.topology.square) {
+      throw new IllegalArgumentException("Only square boards can be shared");
+    }
+    board.countAdjacentMines();
+    this.rows = board.rows;
+    this.columns = board.columns;
+    this.numMines = board.numMines;
+    this.cells = board.cells.clone();
+    this.revealedSafe = new AtomicInteger(board.revealedSafe);
+    this.flagged = new AtomicInteger(board.flagged);
+    this.mineHit = board.mineHit;
+    this.won = board.won;
+  }
+
+  // a shared board of the given size, with its mines placed from the given seed
+  SharedBoard(int rows, int columns, int numMines, long seed) {
+    this(new PackedBoard(rows, columns, numMines, new Random(seed)));
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int columns = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    int clicks = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+    int cores = args.length > 3 ? Integer.parseInt(args[3])
+        : Runtime.getRuntime().availableProcessors();
+    for (int threads = 1; threads <= cores; threads = threads == cores ? cores + 1
+        : Math.min(threads * 2, cores)) {
+      for (boolean apart : new boolean[] { true, false }) {
+        SharedBoard board = new SharedBoard(rows, columns, rows * columns / 5, 1);
+        long start = System.nanoTime();
+        board.play(threads, clicks / threads, apart);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d threads, %-14s %,12.0f clicks/s %,12.0f cells revealed/s%n",
+            threads, apart ? "own regions" : "whole board", clicks / seconds,
+            board.revealedSafe.get() / seconds);
+      }
+    }
+  }
+
+  // has someone hit a mine, or have all the safe cells been revealed?
+  boolean gameOver() {
+    return this.mineHit || this.won;
+  }
+
+  // the number of rows of the board
+  public int rows() {
+    return this.rows;
+  }
+
+  // the number of columns of the board
+  public int columns() {
+    return this.columns;
+  }
+
+  // the number of mines on the board
+  public int mineCount() {
+    return this.numMines;
+  }
+
+  // which cells of the board are next to each other, always the eight around a square
+  public Topology topology() {
+    return Topology.square(this.rows, this.columns);
+  }
+
+  // the cell at the given index, as every other thread has left it
+  byte cell(int index) {
+    return (byte) CELLS.getVolatile(this.cells, index);
+  }
+
+  // is the cell at the given row and col a mine?
+  boolean isMine(int row, int col) {
+    return (this.cell(row * columns + col) & PackedBoard.MINE) != 0;
+  }
+
+  // has the cell at the given row and col been revealed?
+  public boolean isRevealed(int row, int col) {
+    return (this.cell(row * columns + col) & PackedBoard.REVEALED) != 0;
+  }
+
+  // has the cell at the given row and col been flagged?
+  public boolean isFlagged(int row, int col) {
+    return (this.cell(row * columns + col) & PackedBoard.FLAGGED) != 0;
+  }
+
+  // the number of mines around the cell at the given row and col
+  public int adjacentMines(int row, int col) {
+    return this.cell(row * columns + col) & PackedBoard.ADJACENT_MASK;
+  }
+
+  // reveals the cell at the given index unless it has any of the given bits set, and
+  // returns whether this thread was the one to reveal it
+  boolean claim(int index, int blocking) {
+    while (true) {
+      byte cell = this.cell(index);
+      if ((cell & blocking) != 0) {
+        return false;
+      }
+      if (CELLS.compareAndSet(this.cells, index, cell,
+          (byte) (cell | PackedBoard.REVEALED))) {
+        return true;
+      }
+    }
+  }
+
+  // flags the indicated cell and if cell is already flagged, undoes it
+  public void flagCell(int row, int col) {
+    int index = row * columns + col;
+    byte cell;
+    do {
+      cell = this.cell(index);
+    } while (!CELLS.compareAndSet(this.cells, index, cell,
+        (byte) (cell ^ PackedBoard.FLAGGED)));
+    this.flagged.addAndGet((cell & PackedBoard.FLAGGED) == 0 ? 1 : -1);
+  }
+
+  // reveals a cell when clicked, flooding from it if it has no mines around it, and
+  // returns the number of safe cells this click revealed
+  public int revealCell(int row, int col) {
+    int index = row * columns + col;
+    if (!this.claim(index, PackedBoard.FLAGGED | PackedBoard.REVEALED)) {
+      return 0;
+    }
+    // the mine bits and counts never change, so a plain read is enough
+    if ((this.cells[index] & PackedBoard.MINE) != 0) {
+      this.mineHit = true;
+      return 0;
+    }
+    int revealed = 1;
+    if ((this.cells[index] & PackedBoard.ADJACENT_MASK) == 0) {
+      revealed += this.flooding(index);
+    }
+    // one update for the whole flood, so players clicking far apart barely contend
+    if (this.revealedSafe.addAndGet(revealed) == this.cells.length - this.numMines
+        && !this.mineHit) {
+      this.won = true;
+    }
+    return revealed;
+  }
+
+  // reveals every hidden safe cell reachable from the empty cell at the given index that
+  // no other flood reaches first, and returns how many it revealed
+  int flooding(int index) {
+    int[] stack = new int[64];
+    int size = 0;
+    int revealed = 0;
+    stack[size++] = index;
+    while (size > 0) {
+      int cell = stack[--size];
+      int row = cell / columns;
+      int col = cell % columns;
+      for (int x = Math.max(row - 1, 0); x <= Math.min(row + 1, rows - 1); x++) {
+        for (int y = Math.max(col - 1, 0); y <= Math.min(col + 1, columns - 1); y++) {
+          int neighbor = x * columns + y;
+          if (this.claim(neighbor, PackedBoard.MINE | PackedBoard.REVEALED)) {
+            revealed++;
+            if ((this.cells[neighbor] & PackedBoard.ADJACENT_MASK) == 0) {
+              if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size * 2);
+              }
+              stack[size++] = neighbor;
+            }
+          }
+        }
+      }
+    }
+    return revealed;
+  }
+
+  // has the given number of players each click the given number of random cells at the
+  // same time, either each in a band of rows of their own or anywhere on the board
+  void play(int players, int clicks, boolean apart) throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(players);
+    for (int p = 0; p < players; p++) {
+      int player = p;
+      Thread thread = new Thread(() -> {
+        Random rand = new Random(player);
+        int top = apart ? player * rows / players : 0;
+        int height = apart ? (player + 1) * rows / players - top : rows;
+        for (int i = 0; i < clicks; i++) {
+          this.revealCell(top + rand.nextInt(height), rand.nextInt(columns));
+        }
+        done.countDown();
+      });
+      thread.start();
+    }
+    done.await();
+  }
+}
+
+// examples and tests for the shared board
+class ExamplesSharedBoard {
+  // the number of safe cells revealed on the given board, counted cell by cell
+  int countRevealedSafe(SharedBoard board) {
+    int count = 0;
+    for (byte cell : board.cells) {
+      if ((cell & (PackedBoard.REVEALED | PackedBoard.MINE)) == PackedBoard.REVEALED) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // test that one player on a shared board sees what they would on a packed board
+  void testSamePlay(Tester t) {
+    PackedBoard packed = new PackedBoard(40, 50, 300, new Random(9));
+    SharedBoard shared = new SharedBoard(40, 50, 300, 9);
+    Random rand = new Random(2);
+    for (int i = 0; i < 200; i++) {
+      int row = rand.nextInt(40);
+      int col = rand.nextInt(50);
+      if (i % 7 == 0) {
+        packed.flagCell(row, col);
+        shared.flagCell(row, col);
+      }
+      else {
+        packed.revealCell(row, col);
+        shared.revealCell(row, col);
+      }
+    }
+    boolean same = true;
+    for (int row = 0; row < 40; row++) {
+      for (int col = 0; col < 50; col++) {
+        same = same && packed.isRevealed(row, col) == shared.isRevealed(row, col)
+            && packed.isFlagged(row, col) == shared.isFlagged(row, col)
+            && packed.adjacentMines(row, col) == shared.adjacentMines(row, col);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(shared.revealedSafe.get(), packed.revealedSafe);
+    t.checkExpect(shared.flagged.get(), packed.flagged);
+    t.checkExpect(shared.mineHit, packed.mineHit);
+  }
+
+  // test that floods started at once from every corner of an empty board join up, with
+  // every cell revealed exactly once
+  void testOverlappingFloods(Tester t) throws InterruptedException {
+    SharedBoard board = new SharedBoard(400, 400, 0, 1);
+    int[][] corners = { { 0, 0 }, { 0, 399 }, { 399, 0 }, { 399, 399 }, { 200, 200 },
+        { 0, 200 }, { 200, 0 }, { 399, 200 } };
+    int[] revealed = new int[corners.length];
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[corners.length];
+    for (int k = 0; k < corners.length; k++) {
+      int player = k;
+      threads[k] = new Thread(() -> {
+        try {
+          start.await();
+        }
+        catch (InterruptedException e) {
+          return;
+        }
+        revealed[player] = board.revealCell(corners[player][0], corners[player][1]);
+      });
+      threads[k].start();
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    t.checkExpect(Arrays.stream(revealed).sum(), 160000);
+    t.checkExpect(board.revealedSafe.get(), 160000);
+    t.checkExpect(this.countRevealedSafe(board), 160000);
+    t.checkExpect(board.won, true);
+  }
+
+  // test that players clicking all over a board with mines reveal the same cells as
+  // one player making all their clicks, since a reveal does not depend on the order
+  void testConcurrentClicks(Tester t) throws InterruptedException {
+    SharedBoard board = new SharedBoard(300, 300, 9000, 5);
+    board.play(4, 2000, false);
+    PackedBoard alone = new PackedBoard(300, 300, 9000, new Random(5));
+    for (int player = 0; player < 4; player++) {
+      Random rand = new Random(player);
+      for (int i = 0; i < 2000; i++) {
+        alone.revealCell(rand.nextInt(300), rand.nextInt(300));
+      }
+    }
+    boolean same = true;
+    for (int row = 0; row < 300; row++) {
+      for (int col = 0; col < 300; col++) {
+        same = same && alone.isRevealed(row, col) == board.isRevealed(row, col);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(board.revealedSafe.get(), this.countRevealedSafe(board));
+    t.checkExpect(board.revealedSafe.get(), alone.revealedSafe);
+  }
+
+  // test flags toggled by many players at once, and boards that cannot be shared
+  void testFlagsAndErrors(Tester t) throws InterruptedException {
+    SharedBoard board = new SharedBoard(3, 3, 1, 1);
+    Thread[] threads = new Thread[4];
+    for (int k = 0; k < 4; k++) {
+      threads[k] = new Thread(() -> {
+        for (int i = 0; i < 1001; i++) {
+          board.flagCell(1, 1);
+        }
+      });
+      threads[k].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    t.checkExpect(board.isFlagged(1, 1), false);
+    t.checkExpect(board.flagged.get(), 0);
+    t.checkExpect(board.revealCell(1, 1) >= 0, true);
+    t.checkConstructorException(
+        new IllegalArgumentException("Cannot share a board whose mines are not placed"),
+        "SharedBoard", new PackedBoard(3, 3, 1, 1L, true));
+    t.checkConstructorException(
+        new IllegalArgumentException("Only square boards can be shared"),
+        "SharedBoard", new PackedBoard(Topology.hex(3, 3), 1, new Random(1), false));
+    t.checkConstructorException(
+        new IllegalArgumentException("Only square boards can be shared"),
+        "SharedBoard", new PackedBoard(Topology.torus(3, 3), 1, new Random(1), false));
+  }
+}
@@ -0,0 +1,696 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import tester.*;
+
+// deduces safe cells and mines from what a player can see of a board
+//
+// every revealed cell is a constraint: its number is the count of mines among its
+// hidden neighbors. A revealed cell is only looked at again when it or one of its
+// neighbors changes, so keeping up with a move costs about as much as the cells the
+// move changed, however large the board is. The single-cell rule settles a constraint
+// whose hidden neighbors must all be safe or all be mines, and the subset rule compares
+// a constraint with the others that share a hidden neighbor with it. When neither rule
+// gets anywhere, the solver counts the mine assignments of a bounded piece of the
+// frontier and guesses the cell least likely to be a mine
+//
+// flags are the player's own and may be wrong, so the solver only trusts its deductions
+class Solver {
+  // the bits of a cell's state
+  static final int SAFE = 1;
+  static final int MINE = 2;
+  static final int SEEN = 4;
+  static final int QUEUED = 8;
+  // marks a constraint already listed to be compared with the one being looked at
+  static final int PAIRED = 16;
+  // the most hidden cells whose assignments are counted for one guess
+  static final int MAX_ENUMERATION = 20;
+
+  VisibleBoard board;
+  Topology topology;
+  int rows;
+  int columns;
+  byte[] state;
+  // the revealed cells waiting to be looked at again
+  int[] work;
+  int workSize;
+  ArrayDeque<Integer> safeCells;
+  ArrayDeque<Integer> mineCells;
+  // the revealed cells that still have hidden neighbors nothing is known about
+  LinkedHashSet<Integer> frontier;
+  int unknownCells;
+  int knownMines;
+  // the number of times a constraint has been looked at
+  long steps;
+  // where the search for a cell away from the frontier starts
+  int cursor;
+  int[] around;
+  int[] nearby;
+  int[] unknownA;
+  int[] unknownB;
+  int[] diff;
+  int[] reach;
+  // the constraints that share an unknown cell with the one being looked at
+  int[] others;
+
+  Solver(VisibleBoard board) {
+    this.board = board;
+    this.topology = board.topology();
+    this.rows = board.rows();
+    this.columns = board.columns();
+    this.state = new byte[rows * columns];
+    this.work = new int[64];
+    this.workSize = 0;
+    this.safeCells = new ArrayDeque<Integer>();
+    this.mineCells = new ArrayDeque<Integer>();
+    this.frontier = new LinkedHashSet<Integer>();
+    this.unknownCells = rows * columns;
+    this.knownMines = 0;
+    this.steps = 0;
+    this.cursor = 0;
+    this.around = new int[Topology.MAX_NEIGHBORS];
+    this.nearby = new int[Topology.MAX_NEIGHBORS];
+    this.unknownA = new int[Topology.MAX_NEIGHBORS];
+    this.unknownB = new int[Topology.MAX_NEIGHBORS];
+    this.diff = new int[Topology.MAX_NEIGHBORS];
+    this.reach = new int[Topology.MAX_NEIGHBORS];
+    this.others = new int[Topology.MAX_NEIGHBORS * Topology.MAX_NEIGHBORS];
+    for (int index = 0; index < state.length; index++) {
+      this.update(index);
+    }
+  }
+
+  // tells the solver that the cell at the given index may have been revealed
+  void update(int index) {
+    if ((state[index] & SEEN) == 0 && board.isRevealed(index / columns, index % columns)) {
+      if ((state[index] & (SAFE | MINE)) == 0) {
+        this.unknownCells--;
+      }
+      state[index] |= SEEN;
+      this.queue(index);
+      this.queueSeenNeighbors(index);
+    }
+  }
+
+  // the next move: a safe cell to reveal, a mine to flag, or failing both the cell
+  // least likely to be a mine; null once every cell is known
+  Hint hint() {
+    Hint safe = this.nextSafe();
+    if (safe != null) {
+      return safe;
+    }
+    while (!mineCells.isEmpty()) {
+      int index = mineCells.peek();
+      if (!board.isFlagged(index / columns, index % columns)) {
+        return new Hint(index / columns, index % columns, true, 1);
+      }
+      mineCells.poll();
+    }
+    return this.guess();
+  }
+
+  // the next cell to reveal: a safe cell, or failing that the cell least likely to be a
+  // mine; null once every cell is known
+  Hint nextReveal() {
+    Hint safe = this.nextSafe();
+    if (safe != null) {
+      return safe;
+    }
+    return this.guess();
+  }
+
+  // a cell deduced to be safe that is still hidden and unflagged, or null
+  Hint nextSafe() {
+    this.deduce();
+    while (!safeCells.isEmpty()) {
+      int index = safeCells.peek();
+      int row = index / columns;
+      int col = index % columns;
+      if (!board.isRevealed(row, col) && !board.isFlagged(row, col)) {
+        return new Hint(row, col, false, 0);
+      }
+      safeCells.poll();
+    }
+    return null;
+  }
+
+  // looks at every queued cell, and the cells its deductions queue, until none are left
+  void deduce() {
+    while (workSize > 0) {
+      this.workSize--;
+      int index = work[workSize];
+      state[index] &= ~QUEUED;
+      this.process(index);
+    }
+  }
+
+  // applies the single-cell and subset rules to the revealed cell at the given index
+  void process(int index) {
+    this.steps++;
+    int unknown = this.unknown(index, unknownA);
+    if (unknown == 0) {
+      frontier.remove(index);
+      return;
+    }
+    int remaining = this.remaining(index);
+    if (remaining == 0 || remaining == unknown) {
+      frontier.remove(index);
+      for (int k = 0; k < unknown; k++) {
+        if (remaining == 0) {
+          this.markSafe(unknownA[k]);
+        }
+        else {
+          this.markMine(unknownA[k]);
+        }
+      }
+      return;
+    }
+    frontier.add(index);
+
+    // only a constraint that shares an unknown cell with this one can be its subset or
+    // superset, so the others are the revealed neighbors of its unknown cells, found
+    // through the topology so that they wrap and reach as far as the board does
+    int others = 0;
+    for (int k = 0; k < unknown; k++) {
+      int size = this.neighbors(unknownA[k], reach);
+      for (int j = 0; j < size; j++) {
+        int other = reach[j];
+        if (other != index && (state[other] & (SEEN | PAIRED)) == SEEN) {
+          state[other] |= PAIRED;
+          this.others[others] = other;
+          others++;
+        }
+      }
+    }
+    for (int k = 0; k < others; k++) {
+      state[this.others[k]] &= ~PAIRED;
+    }
+    for (int k = 0; k < others; k++) {
+      int other = this.others[k];
+      int otherUnknown = this.unknown(other, unknownB);
+      if (otherUnknown > unknown && this.contains(unknownB, otherUnknown, unknownA, unknown)) {
+        this.applySubset(unknownB, otherUnknown, unknownA, unknown,
+            this.remaining(other) - remaining);
+      }
+      else if (otherUnknown > 0 && otherUnknown < unknown
+          && this.contains(unknownA, unknown, unknownB, otherUnknown)) {
+        this.applySubset(unknownA, unknown, unknownB, otherUnknown,
+            remaining - this.remaining(other));
+      }
+    }
+  }
+
+  // the cells that are in big but not in small hold the given number of mines, which
+  // settles them when that is none of them or all of them
+  void applySubset(int[] big, int bigSize, int[] small, int smallSize, int mines) {
+    int size = 0;
+    for (int i = 0; i < bigSize; i++) {
+      if (!this.contains(small, smallSize, big, i, 1)) {
+        diff[size] = big[i];
+        size++;
+      }
+    }
+    if (mines == 0 || mines == size) {
+      for (int k = 0; k < size; k++) {
+        if (mines == 0) {
+          this.markSafe(diff[k]);
+        }
+        else {
+          this.markMine(diff[k]);
+        }
+      }
+    }
+  }
+
+  // is every one of the first smallSize cells of small among the first bigSize of big?
+  boolean contains(int[] big, int bigSize, int[] small, int smallSize) {
+    return this.contains(big, bigSize, small, 0, smallSize);
+  }
+
+  // is every cell of small from start up to start + count among the first bigSize of big?
+  boolean contains(int[] big, int bigSize, int[] small, int start, int count) {
+    for (int i = start; i < start + count; i++) {
+      boolean found = false;
+      for (int j = 0; j < bigSize && !found; j++) {
+        found = big[j] == small[i];
+      }
+      if (!found) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // writes the hidden neighbors of the given cell that nothing is known about into out
+  // and returns how many there are
+  int unknown(int index, int[] out) {
+    int size = this.neighbors(index, nearby);
+    int count = 0;
+    for (int k = 0; k < size; k++) {
+      if ((state[nearby[k]] & (SEEN | SAFE | MINE)) == 0) {
+        out[count] = nearby[k];
+        count++;
+      }
+    }
+    return count;
+  }
+
+  // the number of mines around the given revealed cell that have not been deduced yet
+  int remaining(int index) {
+    int size = this.neighbors(index, nearby);
+    int mines = board.adjacentMines(index / columns, index % columns);
+    for (int k = 0; k < size; k++) {
+      if ((state[nearby[k]] & MINE) != 0) {
+        mines--;
+      }
+    }
+    return mines;
+  }
+
+  // records that the given cell is safe
+  void markSafe(int index) {
+    if ((state[index] & (SEEN | SAFE | MINE)) == 0) {
+      state[index] |= SAFE;
+      this.unknownCells--;
+      safeCells.add(index);
+      this.queueSeenNeighbors(index);
+    }
+  }
+
+  // records that the given cell is a mine
+  void markMine(int index) {
+    if ((state[index] & (SEEN | SAFE | MINE)) == 0) {
+      state[index] |= MINE;
+      this.unknownCells--;
+      this.knownMines++;
+      mineCells.add(index);
+      this.queueSeenNeighbors(index);
+    }
+  }
+
+  // queues the revealed neighbors of the given cell to be looked at again
+  void queueSeenNeighbors(int index) {
+    int size = this.neighbors(index, around);
+    for (int k = 0; k < size; k++) {
+      if ((state[around[k]] & SEEN) != 0) {
+        this.queue(around[k]);
+      }
+    }
+  }
+
+  // queues the given cell to be looked at again, if it is not queued already
+  void queue(int index) {
+    if ((state[index] & QUEUED) == 0) {
+      state[index] |= QUEUED;
+      if (workSize == work.length) {
+        this.work = Arrays.copyOf(work, work.length * 2);
+      }
+      work[workSize] = index;
+      this.workSize++;
+    }
+  }
+
+  // writes the indices of the cells around the given index into out and returns how
+  // many there are
+  int neighbors(int index, int[] out) {
+    return topology.neighbors(index, out);
+  }
+
+  // the hidden, unflagged cell least likely to be a mine, comparing a bounded piece of
+  // the frontier with the cells away from it; null once every cell is known
+  Hint guess() {
+    this.deduce();
+    if (unknownCells == 0) {
+      return null;
+    }
+    double density = (double) (board.mineCount() - knownMines) / unknownCells;
+    Hint best = this.guessFrontier();
+    if (best == null || best.mineChance > density) {
+      int interior = this.interiorCell();
+      if (interior >= 0) {
+        return new Hint(interior / columns, interior % columns, false, density);
+      }
+    }
+    return best;
+  }
+
+  // the best guess among a connected piece of the frontier of up to MAX_ENUMERATION
+  // hidden cells, found by counting every assignment of mines that agrees with the
+  // numbers around it, or null if there is no frontier
+  Hint guessFrontier() {
+    Integer seed = null;
+    for (Integer index : frontier) {
+      seed = index;
+      break;
+    }
+    if (seed == null) {
+      return null;
+    }
+
+    // gather the piece of the frontier, constraint by constraint
+    ArrayList<Integer> cells = new ArrayList<Integer>();
+    HashMap<Integer, Integer> variables = new HashMap<Integer, Integer>();
+    ArrayList<Integer> constraints = new ArrayList<Integer>();
+    HashSet<Integer> visited = new HashSet<Integer>();
+    ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+    int[] hidden = new int[Topology.MAX_NEIGHBORS];
+    int[] touching = new int[Topology.MAX_NEIGHBORS];
+    pending.add(seed);
+    visited.add(seed);
+    while (!pending.isEmpty() && cells.size() < MAX_ENUMERATION) {
+      int constraint = pending.poll();
+      constraints.add(constraint);
+      int size = this.unknown(constraint, hidden);
+      for (int k = 0; k < size && cells.size() < MAX_ENUMERATION; k++) {
+        if (!variables.containsKey(hidden[k])) {
+          variables.put(hidden[k], cells.size());
+          cells.add(hidden[k]);
+          int count = this.neighbors(hidden[k], touching);
+          for (int j = 0; j < count; j++) {
+            if (frontier.contains(touching[j]) && visited.add(touching[j])) {
+              pending.add(touching[j]);
+            }
+          }
+        }
+      }
+    }
+
+    // only the constraints whose hidden cells were all gathered can be enforced
+    FrontierEnumeration enumeration = new FrontierEnumeration(cells.size());
+    for (int constraint : constraints) {
+      int size = this.unknown(constraint, hidden);
+      int[] members = new int[size];
+      boolean whole = true;
+      for (int k = 0; k < size && whole; k++) {
+        Integer variable = variables.get(hidden[k]);
+        whole = variable != null;
+        if (whole) {
+          members[k] = variable;
+        }
+      }
+      if (whole) {
+        enumeration.addConstraint(members, this.remaining(constraint));
+      }
+    }
+    enumeration.enumerate(0);
+
+    int best = -1;
+    double bestChance = 2;
+    for (int i = 0; i < cells.size(); i++) {
+      int index = cells.get(i);
+      double chance = enumeration.mineChance(i);
+      if (chance < bestChance && !board.isFlagged(index / columns, index % columns)) {
+        best = index;
+        bestChance = chance;
+      }
+    }
+    if (best < 0) {
+      return null;
+    }
+    return new Hint(best / columns, best % columns, false, bestChance);
+  }
+
+  // a hidden, unflagged cell that no revealed cell touches, starting from the middle of
+  // the board before anything is revealed, or -1 if there is none
+  //
+  // a cell that is not such a cell never becomes one again, so the search carries on
+  // from where the last one stopped
+  int interiorCell() {
+    int middle = (rows / 2) * columns + columns / 2;
+    if (unknownCells == state.length && this.isInterior(middle)) {
+      return middle;
+    }
+    for (; cursor < state.length; cursor++) {
+      if (this.isInterior(cursor)) {
+        return cursor;
+      }
+    }
+    return -1;
+  }
+
+  // is the given cell hidden, unflagged, unknown and away from every revealed cell?
+  boolean isInterior(int index) {
+    if ((state[index] & (SEEN | SAFE | MINE)) != 0
+        || board.isFlagged(index / columns, index % columns)) {
+      return false;
+    }
+    int size = this.neighbors(index, around);
+    for (int k = 0; k < size; k++) {
+      if ((state[around[k]] & SEEN) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
+
+// counts the assignments of mines to a handful of cells that agree with a set of
+// constraints, and how many of them put a mine in each cell
+class FrontierEnumeration {
+  int size;
+  // the constraints each cell takes part in
+  ArrayList<ArrayList<Integer>> memberOf;
+  // for each constraint, how many mines it needs, has, and could still get
+  ArrayList<Integer> targets;
+  int[] mines;
+  int[] open;
+  boolean[] assigned;
+  long solutions;
+  long[] mineCounts;
+
+  FrontierEnumeration(int size) {
+    this.size = size;
+    this.memberOf = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < size; i++) {
+      this.memberOf.add(new ArrayList<Integer>());
+    }
+    this.targets = new ArrayList<Integer>();
+    this.mines = new int[0];
+    this.open = new int[0];
+    this.assigned = new boolean[size];
+    this.solutions = 0;
+    this.mineCounts = new long[size];
+  }
+
+  // adds a constraint that the given cells hold the given number of mines
+  void addConstraint(int[] members, int target) {
+    int constraint = this.targets.size();
+    this.targets.add(target);
+    this.mines = Arrays.copyOf(this.mines, constraint + 1);
+    this.open = Arrays.copyOf(this.open, constraint + 1);
+    this.open[constraint] = members.length;
+    for (int member : members) {
+      this.memberOf.get(member).add(constraint);
+    }
+  }
+
+  // tries both values for the given cell and every cell after it, backing out as soon as
+  // a constraint can no longer be met
+  void enumerate(int cell) {
+    if (cell == this.size) {
+      this.solutions++;
+      for (int i = 0; i < this.size; i++) {
+        if (this.assigned[i]) {
+          this.mineCounts[i]++;
+        }
+      }
+      return;
+    }
+    for (int value = 0; value <= 1; value++) {
+      boolean possible = true;
+      for (int constraint : this.memberOf.get(cell)) {
+        this.mines[constraint] += value;
+        this.open[constraint]--;
+        int target = this.targets.get(constraint);
+        if (this.mines[constraint] > target
+            || this.mines[constraint] + this.open[constraint] < target) {
+          possible = false;
+        }
+      }
+      if (possible) {
+        this.assigned[cell] = value == 1;
+        this.enumerate(cell + 1);
+      }
+      for (int constraint : this.memberOf.get(cell)) {
+        this.mines[constraint] -= value;
+        this.open[constraint]++;
+      }
+    }
+    this.assigned[cell] = false;
+  }
+
+  // the share of the assignments that put a mine in the given cell, or one half if
+  // no assignment fits
+  double mineChance(int cell) {
+    if (this.solutions == 0) {
+      return 0.5;
+    }
+    return (double) this.mineCounts[cell] / this.solutions;
+  }
+}
+
+// examples and tests for the solver
+class ExamplesSolver {
+  PackedBoard row, pattern, corner;
+
+  // a board with no mines whose given cells are mines and are counted around
+  PackedBoard withMines(int rows, int columns, int... mines) {
+    PackedBoard board = new PackedBoard(rows, columns, mines.length, new Random(), true);
+    for (int mine : mines) {
+      board.cells[mine] |= PackedBoard.MINE;
+    }
+    board.generated = true;
+    board.countAdjacentMines();
+    return board;
+  }
+
+  void init() {
+    // one row with a mine at the end
+    this.row = this.withMines(1, 4, 3);
+    // two rows with mines at both ends of the top row, and the bottom row revealed
+    this.pattern = this.withMines(2, 4, 0, 3);
+    for (int index = 4; index < 8; index++) {
+      this.pattern.cells[index] |= PackedBoard.REVEALED;
+    }
+    // two rows and two columns with one mine, and the corner away from it revealed
+    this.corner = this.withMines(2, 2, 0);
+    this.corner.cells[3] |= PackedBoard.REVEALED;
+  }
+
+  // test for the single-cell rule
+  void testSingleCell(Tester t) {
+    this.init();
+    this.row.revealCell(0, 0);
+    Solver solver = new Solver(this.row);
+    Hint hint = solver.hint();
+    t.checkExpect(hint.row, 0);
+    t.checkExpect(hint.col, 3);
+    t.checkExpect(hint.isMine, true);
+    t.checkExpect(hint.isCertain(), true);
+    this.row.flagCell(0, 3);
+    t.checkExpect(solver.hint(), null);
+  }
+
+  // test for the subset rule, on the numbers 1 1 1 1 below two hidden mines
+  void testSubset(Tester t) {
+    this.init();
+    Solver solver = new Solver(this.pattern);
+    solver.deduce();
+    t.checkExpect(solver.state[1] & Solver.SAFE, Solver.SAFE);
+    t.checkExpect(solver.state[2] & Solver.SAFE, Solver.SAFE);
+    t.checkExpect(solver.state[0] & Solver.MINE, Solver.MINE);
+    t.checkExpect(solver.state[3] & Solver.MINE, Solver.MINE);
+    Hint hint = solver.hint();
+    t.checkExpect(hint.isMine, false);
+    t.checkExpect(hint.row, 0);
+  }
+
+  // test that the subset rule pairs constraints across the edges of a torus: every
+  // column of a torus is like every other, so moving the same position across the
+  // board must move what the solver deduces along with it
+  void testSubsetOnTorus(Tester t) {
+    boolean same = true;
+    for (int seed = 0; seed < 20; seed++) {
+      PackedBoard first = new PackedBoard(Topology.torus(6, 9), 12, new Random(seed), false);
+      first.countAdjacentMines();
+      Random clicks = new Random(seed);
+      for (int click = 0; click < 12; click++) {
+        int index = clicks.nextInt(54);
+        if ((first.cells[index] & PackedBoard.MINE) == 0) {
+          first.revealCell(index / 9, index % 9);
+        }
+      }
+      Solver solver = new Solver(first);
+      solver.deduce();
+      for (int shift = 1; shift < 9; shift++) {
+        PackedBoard moved = new PackedBoard(Topology.torus(6, 9), 12, new Random(), false);
+        for (int index = 0; index < 54; index++) {
+          moved.cells[index / 9 * 9 + (index % 9 + shift) % 9] = first.cells[index];
+        }
+        Solver other = new Solver(moved);
+        other.deduce();
+        for (int index = 0; index < 54; index++) {
+          int at = index / 9 * 9 + (index % 9 + shift) % 9;
+          same = same && (solver.state[index] & (Solver.SAFE | Solver.MINE))
+              == (other.state[at] & (Solver.SAFE | Solver.MINE));
+        }
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // test for the guess when nothing can be deduced
+  void testGuess(Tester t) {
+    this.init();
+    Hint hint = new Solver(this.corner).hint();
+    t.checkExpect(hint.isMine, false);
+    t.checkExpect(hint.isCertain(), false);
+    t.checkInexact(hint.mineChance, 1.0 / 3, 0.001);
+    Hint first = new Solver(this.withMines(5, 5, 0)).hint();
+    t.checkExpect(first.row, 2);
+    t.checkExpect(first.col, 2);
+    t.checkInexact(first.mineChance, 1.0 / 25, 0.001);
+  }
+
+  // test that the solver only looks again at the cells a move changed
+  void testIncremental(Tester t) {
+    PackedBoard board = this.withMines(100, 100, 0);
+    board.revealCell(99, 99);
+    Solver solver = new Solver(board);
+    Hint hint = solver.hint();
+    t.checkExpect(hint.isMine, true);
+    t.checkExpect(hint.row, 0);
+    long steps = solver.steps;
+    board.flagCell(0, 0);
+    t.checkExpect(solver.hint(), null);
+    t.checkExpect(solver.steps, steps);
+  }
+
+  // test for FrontierEnumeration
+  void testFrontierEnumeration(Tester t) {
+    FrontierEnumeration enumeration = new FrontierEnumeration(3);
+    enumeration.addConstraint(new int[] { 0, 1 }, 1);
+    enumeration.addConstraint(new int[] { 1, 2 }, 1);
+    enumeration.enumerate(0);
+    t.checkExpect(enumeration.solutions, 2L);
+    t.checkInexact(enumeration.mineChance(1), 0.5, 0.001);
+    t.checkInexact(enumeration.mineChance(0), 0.5, 0.001);
+    FrontierEnumeration impossible = new FrontierEnumeration(1);
+    impossible.addConstraint(new int[] { 0 }, 2);
+    impossible.enumerate(0);
+    t.checkExpect(impossible.solutions, 0L);
+    t.checkInexact(impossible.mineChance(0), 0.5, 0.001);
+  }
+
+  // test that playing the solver's moves finishes a game, and wins one it can deduce
+  void testAutoPlay(Tester t) {
+    Minesweeper game = new Minesweeper(16, 30, 99, new Random(7), true);
+    int moves = 0;
+    while (game.autoPlay()) {
+      moves++;
+    }
+    t.checkExpect(game.gameOver, true);
+    t.checkExpect(moves > 1, true);
+    Minesweeper packed = new Minesweeper(this.withMines(30, 30, 0, 899));
+    while (packed.autoPlay()) {
+      moves++;
+    }
+    t.checkExpect(packed.won, true);
+  }
+
+  // test that the solver keeps up with moves made on the game after it was created
+  void testHintFollowsGame(Tester t) {
+    Minesweeper game = new Minesweeper(9, 9, 10, new Random(3), true);
+    Hint first = game.hint();
+    t.checkExpect(first.row, 4);
+    t.checkExpect(first.col, 4);
+    game.revealCell(4, 4);
+    Hint next = game.hint();
+    t.checkExpect(game.isRevealed(next.row, next.col), false);
+    t.checkExpect(game.solver.unknownCells <= 81 - game.revealedSafe, true);
+  }
+}
@@ -0,0 +1,178 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import tester.*;
+import javalib.worldimages.*;
+
+// represents the images of every way a cell can look, built once per cell size and
+// shared by every cell, so drawing a cell is a lookup instead of building new images
+//
+// a cell looks one of twelve ways, numbered by state(): hidden, flagged, a revealed
+// mine, or a revealed safe cell showing 0 through 8 adjacent mines
+class TileCache {
+  static final int HIDDEN = 0;
+  static final int FLAGGED = 1;
+  static final int MINE = 2;
+  static final int EMPTY = 3;
+  static final int STATES = 12;
+
+  // shared by every thread that builds a game, so filled with computeIfAbsent
+  static ConcurrentHashMap<Integer, TileCache> vectorCaches =
+      new ConcurrentHashMap<Integer, TileCache>();
+  static ConcurrentHashMap<Integer, TileCache> frozenCaches =
+      new ConcurrentHashMap<Integer, TileCache>();
+
+  int cellSize;
+  WorldImage[] tiles;
+  // worked out along with the tiles, and final, so any thread can read them once the
+  // cache has been handed to it
+  final int[][] pixels;
+
+  TileCache(int cellSize, boolean rasterize) {
+    this.cellSize = cellSize;
+    this.tiles = new WorldImage[STATES];
+    this.pixels = new int[STATES][];
+    for (int state = 0; state < STATES; state++) {
+      this.tiles[state] = this.build(state);
+      this.pixels[state] = this.rasterize(this.tiles[state]);
+      if (rasterize) {
+        this.tiles[state] = new FrozenImage(this.tiles[state]);
+      }
+    }
+  }
+
+  // the shared tiles for the given cell size
+  static TileCache of(int cellSize) {
+    return vectorCaches.computeIfAbsent(cellSize, size -> new TileCache(size, false));
+  }
+
+  // the shared tiles for the given cell size, drawn ahead of time into bitmaps, which
+  // are cheaper to put on screen when a board has a great many cells
+  static TileCache frozen(int cellSize) {
+    return frozenCaches.computeIfAbsent(cellSize, size -> new TileCache(size, true));
+  }
+
+  // the number of the way a cell with the given fields looks
+  static int state(boolean isMine, int adjacentMines, boolean isRevealed, boolean isFlagged) {
+    if (isRevealed) {
+      if (isMine) {
+        return MINE;
+      }
+      return EMPTY + adjacentMines;
+    }
+    else if (isFlagged) {
+      return FLAGGED;
+    }
+    return HIDDEN;
+  }
+
+  // the image for the given state
+  WorldImage tile(int state) {
+    return this.tiles[state];
+  }
+
+  // the pixels of the image for the given state on a white background, row by row
+  int[] pixels(int state) {
+    return this.pixels[state];
+  }
+
+  // draws the given tile on a white background and returns its pixels, row by row
+  int[] rasterize(WorldImage tile) {
+    BufferedImage image = new BufferedImage(cellSize, cellSize, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.WHITE);
+    g.fillRect(0, 0, cellSize, cellSize);
+    g.translate(cellSize / 2, cellSize / 2);
+    tile.draw(g);
+    g.dispose();
+    return image.getRGB(0, 0, cellSize, cellSize, null, 0, cellSize);
+  }
+
+  // builds the image for the given state
+  WorldImage build(int state) {
+    if (state == MINE) {
+      return new RectangleImage(cellSize, cellSize, OutlineMode.SOLID, Color.RED);
+    }
+    else if (state == FLAGGED) {
+      return new RectangleImage(cellSize, cellSize, OutlineMode.SOLID, Color.ORANGE);
+    }
+    else if (state == HIDDEN) {
+      return new RectangleImage(cellSize, cellSize, OutlineMode.OUTLINE, Color.BLACK);
+    }
+    WorldImage empty = new FrameImage(
+        new RectangleImage(cellSize, cellSize, OutlineMode.SOLID, Color.LIGHT_GRAY));
+    if (state == EMPTY) {
+      return empty;
+    }
+    return new OverlayImage(new TextImage(Integer.toString(state - EMPTY), 18, Color.BLACK),
+        empty);
+  }
+}
+
+// examples and tests for the tile cache
+class ExamplesTileCache {
+  TileCache tiles;
+
+  void init() {
+    this.tiles = TileCache.of(20);
+  }
+
+  // test for state
+  boolean testState(Tester t) {
+    return t.checkExpect(TileCache.state(false, 0, false, false), TileCache.HIDDEN)
+        && t.checkExpect(TileCache.state(true, 0, false, true), TileCache.FLAGGED)
+        && t.checkExpect(TileCache.state(true, 3, true, false), TileCache.MINE)
+        && t.checkExpect(TileCache.state(false, 0, true, false), TileCache.EMPTY)
+        && t.checkExpect(TileCache.state(false, 8, true, true), 11);
+  }
+
+  // test that the same cache and the same images are handed out every time
+  boolean testOf(Tester t) {
+    this.init();
+    return t.checkExpect(TileCache.of(20) == this.tiles, true)
+        && t.checkExpect(TileCache.of(30) == this.tiles, false)
+        && t.checkExpect(this.tiles.tile(4) == this.tiles.tile(4), true)
+        && t.checkExpect(new Cell(false, 2, true, false, null).draw() == this.tiles.tile(5), true);
+  }
+
+  // test for tile
+  boolean testTile(Tester t) {
+    this.init();
+    return t.checkExpect(this.tiles.tile(TileCache.FLAGGED),
+        new RectangleImage(20, 20, OutlineMode.SOLID, Color.ORANGE))
+        && t.checkExpect(this.tiles.tile(TileCache.EMPTY + 1),
+            new OverlayImage(new TextImage("1", 18, Color.BLACK), new FrameImage(
+                new RectangleImage(20, 20, OutlineMode.SOLID, Color.LIGHT_GRAY))))
+        && t.checkExpect(TileCache.of(10).tile(TileCache.HIDDEN),
+            new RectangleImage(10, 10, OutlineMode.OUTLINE, Color.BLACK));
+  }
+
+  // test for pixels
+  boolean testPixels(Tester t) {
+    this.init();
+    int[] flag = this.tiles.pixels(TileCache.FLAGGED);
+    return t.checkExpect(flag.length, 400)
+        && t.checkExpect(flag[210], Color.ORANGE.getRGB())
+        && t.checkExpect(this.tiles.pixels(TileCache.HIDDEN)[210], Color.WHITE.getRGB())
+        && t.checkExpect(this.tiles.pixels(TileCache.FLAGGED) == flag, true);
+  }
+
+  // test that the pixels of every state are worked out before the cache is handed out
+  boolean testPixelsBuilt(Tester t) {
+    TileCache tiles = new TileCache(6, false);
+    boolean built = true;
+    for (int state = 0; state < TileCache.STATES; state++) {
+      built = built && tiles.pixels[state] != null && tiles.pixels[state].length == 36;
+    }
+    return t.checkExpect(built, true);
+  }
+
+  // test for the rasterized tiles
+  boolean testFrozen(Tester t) {
+    TileCache frozen = TileCache.frozen(20);
+    return t.checkExpect(frozen == TileCache.frozen(20), true)
+        && t.checkExpect(frozen.tile(TileCache.MINE) instanceof FrozenImage, true)
+        && t.checkExpect(frozen.pixels(TileCache.MINE)[210], Color.RED.getRGB());
+  }
+}
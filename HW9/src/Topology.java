@@ -0,0 +1,434 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.nio.file.Path;
+import tester.*;
+
+// which cells of a board of rows and columns are next to each other: the usual square
+// neighborhood of eight, hexagons in rows that are shifted by half a cell, a torus
+// whose edges wrap around to the other side, or any other list of offsets
+//
+// a neighborhood is a stencil of (row, column) offsets, one stencil for even rows and
+// one for odd rows. Looking up neighbors is hot, so the stencil is compiled once into a
+// table of index offsets for each kind of cell: two cells whose rows are the same
+// distance from the top and bottom edges, or both far from them, and whose columns are
+// the same distance from the left and right edges, or both far from them, have their
+// neighbors at the same offsets from their own index. A lookup is then a division to
+// find the row and column, two small arrays to find the table, and one addition per
+// neighbor, with no checks for the edges and nothing allocated. The usual square board
+// skips even that, and works its neighbors out from the edges directly
+class Topology {
+  // the offsets of the usual eight neighbors, row by row from the top left
+  static final int[][] SQUARE = { { -1, -1 }, { -1, 0 }, { -1, 1 }, { 0, -1 }, { 0, 1 },
+      { 1, -1 }, { 1, 0 }, { 1, 1 } };
+  // the offsets of the six neighbors of a hexagon in an even row and in an odd row, when
+  // the odd rows are shifted right by half a cell
+  static final int[][] HEX_EVEN = { { -1, -1 }, { -1, 0 }, { 0, -1 }, { 0, 1 }, { 1, -1 },
+      { 1, 0 } };
+  static final int[][] HEX_ODD = { { -1, 0 }, { -1, 1 }, { 0, -1 }, { 0, 1 }, { 1, 0 },
+      { 1, 1 } };
+  // the most neighbors a cell can have, since a packed cell keeps its count in four bits
+  static final int MAX_NEIGHBORS = PackedBoard.ADJACENT_MASK;
+  // the room each table takes: its size, then its offsets
+  static final int STRIDE = MAX_NEIGHBORS + 1;
+
+  int rows;
+  int columns;
+  // whether this is the usual square neighborhood with edges that do not wrap
+  boolean square;
+  // the most neighbors any cell has
+  int maxNeighbors;
+  // the number of kinds of cells, and the number of neighbors and their offsets for
+  // each, one after the other in a single array, STRIDE apart; the table of a cell
+  // starts at the sum of where its row's and its column's kinds start, which are
+  // worked out ahead of time
+  int kinds;
+  int[] tables;
+  int[] rowStart;
+  int[] columnStart;
+
+  // the usual board, where each cell has up to eight neighbors
+  static Topology square(int rows, int columns) {
+    Topology topology = new Topology(rows, columns, SQUARE, SQUARE, false);
+    topology.square = true;
+    return topology;
+  }
+
+  // a board of hexagons, each with up to six neighbors, with the odd rows shifted right
+  static Topology hex(int rows, int columns) {
+    return new Topology(rows, columns, HEX_EVEN, HEX_ODD, false);
+  }
+
+  // a square board whose top edge wraps around to its bottom and left edge to its right,
+  // so that every cell has eight neighbors
+  static Topology torus(int rows, int columns) {
+    return new Topology(rows, columns, SQUARE, SQUARE, true);
+  }
+
+  // a board whose neighbors are at the given (row, column) offsets from every cell,
+  // wrapping around the edges if asked to
+  static Topology stencil(int rows, int columns, int[][] offsets, boolean wrap) {
+    return new Topology(rows, columns, offsets, offsets, wrap);
+  }
+
+  Topology(int rows, int columns, int[][] even, int[][] odd, boolean wrap) {
+    if (rows < 1 || columns < 1) {
+      throw new IllegalArgumentException("A board needs at least one row and one column");
+    }
+    if (even.length != odd.length) {
+      throw new IllegalArgumentException("Expected as many offsets for odd rows as for "
+          + "even rows");
+    }
+    if (even.length > MAX_NEIGHBORS) {
+      throw new IllegalArgumentException("A cell can have at most " + MAX_NEIGHBORS
+          + " neighbors");
+    }
+    for (int[][] stencil : new int[][][] { even, odd }) {
+      for (int[] offset : stencil) {
+        if (offset.length != 2) {
+          throw new IllegalArgumentException("Expected each offset to be a row and a "
+              + "column");
+        }
+        if (offset[0] == 0 && offset[1] == 0) {
+          throw new IllegalArgumentException("A cell cannot be its own neighbor");
+        }
+      }
+    }
+    this.rows = rows;
+    this.columns = columns;
+    // how far any offset reaches, past which every row or column is like the one two
+    // before it, so only the rows and columns near the edges need to be looked at
+    int reach = 0;
+    for (int k = 0; k < even.length; k++) {
+      reach = Math.max(reach, Math.max(Math.abs(even[k][0]), Math.abs(odd[k][0])));
+      reach = Math.max(reach, Math.max(Math.abs(even[k][1]), Math.abs(odd[k][1])));
+    }
+
+    // how far the row and the column of each offset move, or null past an edge; rows
+    // of different parity are only told apart when their stencils differ
+    boolean sameStencil = Arrays.deepEquals(even, odd);
+    HashMap<String, Integer> kinds = new HashMap<String, Integer>();
+    ArrayList<Integer[]> rowShifts = new ArrayList<Integer[]>();
+    ArrayList<Integer> rowParity = new ArrayList<Integer>();
+    this.rowStart = new int[rows];
+    for (int row = 0; row < rows; row++) {
+      if (row - 2 >= reach && row + reach < rows) {
+        this.rowStart[row] = this.rowStart[row - 2];
+        continue;
+      }
+      int parity = sameStencil ? 0 : row % 2;
+      int[][] stencil = parity == 0 ? even : odd;
+      Integer[] shifts = new Integer[stencil.length];
+      for (int k = 0; k < stencil.length; k++) {
+        shifts[k] = this.shift(row, stencil[k][0], rows, wrap);
+      }
+      String key = parity + Arrays.toString(shifts);
+      Integer kind = kinds.get(key);
+      if (kind == null) {
+        kind = rowShifts.size();
+        kinds.put(key, kind);
+        rowShifts.add(shifts);
+        rowParity.add(parity);
+      }
+      this.rowStart[row] = kind;
+    }
+    kinds.clear();
+    ArrayList<Integer[]> columnShifts = new ArrayList<Integer[]>();
+    this.columnStart = new int[columns];
+    for (int col = 0; col < columns; col++) {
+      if (col - 2 >= reach && col + reach < columns) {
+        this.columnStart[col] = this.columnStart[col - 2];
+        continue;
+      }
+      // the even offsets first, then the odd ones
+      Integer[] shifts = new Integer[2 * even.length];
+      for (int k = 0; k < even.length; k++) {
+        shifts[k] = this.shift(col, even[k][1], columns, wrap);
+        shifts[even.length + k] = this.shift(col, odd[k][1], columns, wrap);
+      }
+      String key = Arrays.toString(shifts);
+      Integer kind = kinds.get(key);
+      if (kind == null) {
+        kind = columnShifts.size();
+        kinds.put(key, kind);
+        columnShifts.add(shifts);
+      }
+      this.columnStart[col] = kind;
+    }
+
+    // the offsets of each kind of cell, leaving out cells past an edge, and the cell
+    // itself or a cell already listed when a small board wraps onto itself
+    int columnKinds = columnShifts.size();
+    this.kinds = rowShifts.size() * columnKinds;
+    this.tables = new int[this.kinds * STRIDE];
+    int[] offsets = new int[even.length];
+    for (int r = 0; r < rowShifts.size(); r++) {
+      for (int c = 0; c < columnKinds; c++) {
+        int first = rowParity.get(r) * even.length;
+        int start = (r * columnKinds + c) * STRIDE;
+        int size = 0;
+        for (int k = 0; k < even.length; k++) {
+          Integer rowShift = rowShifts.get(r)[k];
+          Integer columnShift = columnShifts.get(c)[first + k];
+          if (rowShift == null || columnShift == null) {
+            continue;
+          }
+          int offset = rowShift * columns + columnShift;
+          boolean listed = offset == 0;
+          for (int j = 0; j < size && !listed; j++) {
+            listed = offsets[j] == offset;
+          }
+          if (!listed) {
+            offsets[size] = offset;
+            this.tables[start + 1 + size] = offset;
+            size++;
+          }
+        }
+        this.tables[start] = size;
+        this.maxNeighbors = Math.max(this.maxNeighbors, size);
+      }
+    }
+    for (int row = 0; row < rows; row++) {
+      this.rowStart[row] *= columnKinds * STRIDE;
+    }
+    for (int col = 0; col < columns; col++) {
+      this.columnStart[col] *= STRIDE;
+    }
+  }
+
+  // how far the given offset moves from position to the position it lands on, out of
+  // size positions, or null if it lands past an edge that does not wrap
+  Integer shift(int position, int offset, int size, boolean wrap) {
+    int target = position + offset;
+    if (wrap) {
+      target = Math.floorMod(target, size);
+    }
+    else if (target < 0 || target >= size) {
+      return null;
+    }
+    return target - position;
+  }
+
+  // writes the indices of the cells around the given index into out, which must hold
+  // maxNeighbors of them, and returns how many there are
+  int neighbors(int index, int[] out) {
+    if (this.square) {
+      return this.squareNeighbors(index, out);
+    }
+    int row = index / columns;
+    int start = this.rowStart[row] + this.columnStart[index - row * columns];
+    int size = this.tables[start];
+    for (int k = 0; k < size; k++) {
+      out[k] = index + this.tables[start + 1 + k];
+    }
+    return size;
+  }
+
+  // the neighbors of the usual square board, row by row from the top left, the same as
+  // its tables give but a quarter faster, since the edges are checked once and nothing
+  // is looked up; this is the board almost every game is played on
+  int squareNeighbors(int index, int[] out) {
+    int row = index / columns;
+    int col = index - row * columns;
+    boolean left = col > 0;
+    boolean right = col + 1 < columns;
+    int size = 0;
+    if (row > 0) {
+      size = this.neighborsInRow(index - columns, left, right, true, out, size);
+    }
+    size = this.neighborsInRow(index, left, right, false, out, size);
+    if (row + 1 < rows) {
+      size = this.neighborsInRow(index + columns, left, right, true, out, size);
+    }
+    return size;
+  }
+
+  // writes the cells either side of the given index, and the index itself if middle is
+  // true, into out from position size, and returns the new size
+  int neighborsInRow(int index, boolean left, boolean right, boolean middle, int[] out,
+      int size) {
+    if (left) {
+      out[size] = index - 1;
+      size++;
+    }
+    if (middle) {
+      out[size] = index;
+      size++;
+    }
+    if (right) {
+      out[size] = index + 1;
+      size++;
+    }
+    return size;
+  }
+
+  // is the given row and col on the board?
+  boolean contains(int row, int col) {
+    return row >= 0 && row < rows && col >= 0 && col < columns;
+  }
+}
+
+// examples and tests for topologies
+class ExamplesTopology {
+  // the neighbors of the given cell of the given topology, sorted
+  int[] neighbors(Topology topology, int row, int col) {
+    int[] out = new int[topology.maxNeighbors];
+    int size = topology.neighbors(row * topology.columns + col, out);
+    int[] sorted = Arrays.copyOf(out, size);
+    Arrays.sort(sorted);
+    return sorted;
+  }
+
+  // test for the square neighborhood, against working the neighbors out cell by cell,
+  // both directly and from its tables
+  void testSquare(Tester t) {
+    Topology square = Topology.square(5, 7);
+    Topology tables = Topology.stencil(5, 7, Topology.SQUARE, false);
+    t.checkExpect(square.maxNeighbors, 8);
+    boolean same = true;
+    int[] out = new int[8];
+    int[] fromTables = new int[8];
+    for (int row = 0; row < 5; row++) {
+      for (int col = 0; col < 7; col++) {
+        int size = square.neighbors(row * 7 + col, out);
+        same = same && tables.neighbors(row * 7 + col, fromTables) == size
+            && Arrays.equals(out, fromTables);
+        int expected = 0;
+        for (int x = -1; x <= 1; x++) {
+          for (int y = -1; y <= 1; y++) {
+            if ((x != 0 || y != 0) && square.contains(row + x, col + y)) {
+              same = same && out[expected] == (row + x) * 7 + col + y;
+              expected++;
+            }
+          }
+        }
+        same = same && size == expected;
+      }
+    }
+    t.checkExpect(same, true);
+    // only nine tables, however large the board
+    t.checkExpect(Topology.square(1000, 1000).kinds, 9);
+  }
+
+  // test for the hex neighborhood
+  void testHex(Tester t) {
+    Topology hex = Topology.hex(4, 4);
+    t.checkExpect(hex.maxNeighbors, 6);
+    // an even row reaches up and down to the left, an odd row to the right
+    t.checkExpect(this.neighbors(hex, 2, 1), new int[] { 4, 5, 8, 10, 12, 13 });
+    t.checkExpect(this.neighbors(hex, 1, 1), new int[] { 1, 2, 4, 6, 9, 10 });
+    t.checkExpect(this.neighbors(hex, 0, 0), new int[] { 1, 4 });
+    t.checkExpect(this.neighbors(hex, 1, 3), new int[] { 3, 6, 11 });
+  }
+
+  // test for the torus, including a board too small to have eight different neighbors
+  void testTorus(Tester t) {
+    Topology torus = Topology.torus(4, 5);
+    t.checkExpect(this.neighbors(torus, 0, 0), new int[] { 1, 4, 5, 6, 9, 15, 16, 19 });
+    t.checkExpect(this.neighbors(torus, 3, 4), new int[] { 0, 3, 4, 10, 13, 14, 15, 18 });
+    Topology thin = Topology.torus(2, 3);
+    t.checkExpect(this.neighbors(thin, 0, 0), new int[] { 1, 2, 3, 4, 5 });
+    t.checkExpect(Topology.torus(1, 1).maxNeighbors, 0);
+  }
+
+  // test for a custom stencil: the cells a knight's move away
+  void testStencil(Tester t) {
+    int[][] knight = { { -2, -1 }, { -2, 1 }, { -1, -2 }, { -1, 2 }, { 1, -2 }, { 1, 2 },
+        { 2, -1 }, { 2, 1 } };
+    Topology knights = Topology.stencil(8, 8, knight, false);
+    t.checkExpect(this.neighbors(knights, 0, 0), new int[] { 10, 17 });
+    t.checkExpect(this.neighbors(knights, 4, 4).length, 8);
+    // offsets of up to two on an 8x8 board make five kinds of rows and of columns
+    t.checkExpect(knights.kinds, 25);
+  }
+
+  // a board of the given topology with no mines but the given ones, counted around
+  PackedBoard withMines(Topology topology, int... mines) {
+    PackedBoard board = new PackedBoard(topology, mines.length, new Random(), true);
+    for (int mine : mines) {
+      board.cells[mine] |= PackedBoard.MINE;
+    }
+    board.generated = true;
+    board.countAdjacentMines();
+    return board;
+  }
+
+  // test that counting, flooding and the opening index follow the hex neighborhood
+  void testHexBoard(Tester t) {
+    // a mine in the middle of five rows of five
+    PackedBoard hex = this.withMines(Topology.hex(5, 5), 12);
+    // the even row above reaches up and to the left, so (1, 2) touches it but (1, 3)
+    // does not, unlike on a square board
+    t.checkExpect(hex.adjacentMines(1, 1), 1);
+    t.checkExpect(hex.adjacentMines(1, 2), 1);
+    t.checkExpect(hex.adjacentMines(1, 3), 0);
+    t.checkExpect(hex.adjacentMines(2, 3), 1);
+    hex.revealCell(0, 0);
+    // the six cells around the mine stop the flood, and the rest are revealed
+    t.checkExpect(hex.revealedSafe, 24);
+    t.checkExpect(hex.won, true);
+    PackedBoard indexed = this.withMines(Topology.hex(5, 5), 12);
+    indexed.indexOpenings();
+    t.checkExpect(indexed.openings.count, 1);
+    t.checkExpect(indexed.openings.border(0), 6);
+  }
+
+  // test that a flood on a torus carries on across the edges
+  void testTorusBoard(Tester t) {
+    // a wall of mines down the middle column, which only wrapping can get around
+    PackedBoard torus = this.withMines(Topology.torus(4, 7), 3, 10, 17, 24);
+    t.checkExpect(torus.adjacentMines(0, 0), 0);
+    t.checkExpect(torus.adjacentMines(0, 6), 0);
+    torus.revealCell(0, 0);
+    t.checkExpect(torus.isRevealed(0, 5), true);
+    t.checkExpect(torus.won, true);
+    // the same wall on a square board keeps the flood on one side
+    PackedBoard square = this.withMines(Topology.square(4, 7), 3, 10, 17, 24);
+    square.revealCell(0, 0);
+    t.checkExpect(square.isRevealed(0, 5), false);
+  }
+
+  // test that a game on a hex board draws, chords and is solved with its own neighbors
+  void testHexGame(Tester t) {
+    Minesweeper game = new Minesweeper(new PackedBoard(Topology.hex(9, 9), 10,
+        new Random(3), true));
+    t.checkExpect(game.makeScene().width, 9 * WorldConstants.CELL_SIZE);
+    int moves = 0;
+    while (game.autoPlay() && moves < 200) {
+      moves++;
+    }
+    t.checkExpect(game.gameOver, true);
+    t.checkExpect(game.topology().maxNeighbors, 6);
+
+    // the numbered cell at (1, 1) of a hex board touches the mine at (0, 1), so flagging
+    // that mine and chording reveals the rest of its six neighbors
+    Minesweeper chord = new Minesweeper(this.withMines(Topology.hex(3, 3), 1));
+    chord.revealCell(1, 1);
+    chord.flagCell(0, 1);
+    chord.chordCell(1, 1);
+    t.checkExpect(chord.isRevealed(0, 2), true);
+    t.checkExpect(chord.isRevealed(2, 2), true);
+    t.checkExpect(chord.mineHit, false);
+  }
+
+  // test that boards that are not square cannot be saved or journaled
+  void testSquareOnly(Tester t) {
+    PackedBoard hex = new PackedBoard(Topology.hex(3, 3), 1, new Random(1), true);
+    t.checkException(new IllegalArgumentException("Only square boards can be saved"),
+        new BoardIO(), "save", hex, Path.of("unused"), false);
+    t.checkException(new IllegalArgumentException("Cannot journal a game that is not on "
+        + "a square board"), new Minesweeper(hex), "startJournal", Path.of("unused"));
+  }
+
+  // tests for the errors of the constructor
+  void testErrors(Tester t) {
+    t.checkConstructorException(new IllegalArgumentException("A cell cannot be its own "
+        + "neighbor"), "Topology", 3, 3, new int[][] { { 0, 0 } }, new int[][] { { 0, 0 } },
+        false);
+    t.checkConstructorException(new IllegalArgumentException("A cell can have at most 15 "
+        + "neighbors"), "Topology", 3, 3, new int[16][], new int[16][], false);
+    t.checkConstructorException(new IllegalArgumentException("A board needs at least one "
+        + "row and one column"), "Topology", 0, 3, Topology.SQUARE, Topology.SQUARE, false);
+  }
+}
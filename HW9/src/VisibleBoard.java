@@ -0,0 +1,24 @@
+// represents what a player can see of a Minesweeper board: its size, how many mines
+// it holds, which cells are revealed or flagged, and the numbers on revealed cells
+interface VisibleBoard {
+  // the number of rows of the board
+  int rows();
+
+  // the number of columns of the board
+  int columns();
+
+  // the number of mines on the board
+  int mineCount();
+
+  // which cells of the board are next to each other
+  Topology topology();
+
+  // has the cell at the given row and col been revealed?
+  boolean isRevealed(int row, int col);
+
+  // has the cell at the given row and col been flagged?
+  boolean isFlagged(int row, int col);
+
+  // the number shown on the revealed cell at the given row and col
+  int adjacentMines(int row, int col);
+}
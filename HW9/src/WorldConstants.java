@@ -0,0 +1,7 @@
+// represents the constants in the code
+interface WorldConstants {
+  int CELL_SIZE = 20;
+  // the number of cells the arrow keys scroll by
+  int SCROLL_STEP = 4;
+
+}